@@ -0,0 +1,634 @@
+package com.example.collabboard.board;
+
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The board as an in-memory document: every object on it, stored column by column in primitive arrays instead of
+ * as wire strings.
+ * <p>
+ * Per object there is a kind, a stable id, a palette index, a line width, a bounding box and a run of float
+ * coordinates in one shared pool; only sticky notes carry a String. A pen segment costs about 60 bytes and a
+ * stroke 8 bytes per point, and drawing reads the columns directly without parsing or allocating.
+ * <p>
+ * The document is a CRDT: every participant ends up with the same board whatever order the operations arrive in,
+ * and however often. Objects are keyed by their op id, a Lamport clock and the participant, and kept sorted by
+ * (clock, participant), which is the drawing order; an object that arrives late is inserted where it belongs, and
+ * one that is already there is ignored. Whether an object is shown is a last-writer-wins register that DELETE and
+ * RESTORE set, the larger key winning. CLEAR removes every object created before it for good, including those
+ * that only arrive afterwards. None of this needs the relay to order anything, and there is no global undo: each
+ * participant undoes its own actions by deleting or restoring its own objects, see {@link LocalHistory}.
+ * <p>
+ * Objects {@code [0, size())} are on the board, oldest first, hidden ones included. Only used from the FX thread,
+ * so nothing here is synchronized. The objects that are visible are kept in a {@link SpatialIndex}, which
+ * hit-testing and redrawing a region go through instead of scanning the whole board.
+ */
+public final class BoardDocument {
+    public static final double STICKY_NOTE_WIDTH = 150;
+    public static final double STICKY_NOTE_HEIGHT = 100;
+    private static final BoardOp.Kind[] KINDS = BoardOp.Kind.values();
+    // Changes lowestChangedSince can look back on
+    private static final int CHANGE_LOG_SIZE = 4096;
+    // DELETE and RESTORE kept for objects that have not arrived yet
+    private static final int MAX_EARLY_VISIBILITY = 4096;
+
+    // One entry per object
+    private byte[] kinds = new byte[256];
+    private int[] ids = new int[256];
+    // Order key of the object's op id, and of the operation that last set whether it is shown
+    private long[] keys = new long[256];
+    private long[] visibilityKeys = new long[256];
+    private boolean[] hidden = new boolean[256];
+    private int[] colors = new int[256];
+    private float[] widths = new float[256];
+    private int[] coordStarts = new int[256];
+    private int[] coordLengths = new int[256];
+    private String[] texts = new String[256];
+    // Bounding box of the geometry, including half the line width of strokes
+    private float[] minX = new float[256];
+    private float[] minY = new float[256];
+    private float[] maxX = new float[256];
+    private float[] maxY = new float[256];
+
+    // Coordinates of all objects, in the order they arrived
+    private float[] coords = new float[4096];
+    private int coordSize;
+
+    private final Palette palette = new Palette();
+    private final SpatialIndex spatialIndex = new SpatialIndex(this);
+    private final IndexList scratch = new IndexList();
+    private int size;
+    private int nextId = 1;
+    private int clock;
+    private long clearKey = -1;
+    // By object key: the key of the latest DELETE or RESTORE that arrived before the object, and 1 if it hides it
+    private final Map<Long, long[]> earlyVisibility = new HashMap<>();
+    // Positions that changed below the end of the board, by revision
+    private final int[] changeLog = new int[CHANGE_LOG_SIZE];
+    private long revision;
+
+    /**
+     * The order key of an op id "&lt;participant&gt;-&lt;clock&gt;": the clock in the high half and the participant,
+     * unsigned, in the low half, so comparing keys compares clocks first.
+     * @throws IllegalArgumentException if it is not an op id.
+     */
+    public static long key(String opId) {
+        int dash = opId != null ? opId.lastIndexOf('-') : -1;
+        if (dash <= 0 || !BoardOpCodec.isOpId(opId, 0, opId.length())) {
+            throw new IllegalArgumentException("Bad op id " + opId);
+        }
+        int participant = Integer.parseUnsignedInt(opId, 0, dash, 16);
+        int clock = Integer.parseInt(opId, dash + 1, opId.length(), 10);
+        return ((long) clock << 32) | (participant & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return The op id of an order key.
+     */
+    public static String opId(long key) {
+        String participant = Integer.toHexString((int) key);
+        return "00000000".substring(participant.length()) + participant + "-" + (key >>> 32);
+    }
+
+    /**
+     * Applies an operation from any participant; applying one again changes nothing.
+     * @return The position of the object that was added, or that was hidden or shown again; 0 after a CLEAR that
+     *         removed anything; -1 if nothing changed.
+     * @throws IllegalArgumentException if the operation has no valid op id or target, or is not a board object.
+     */
+    public int apply(BoardOp op) {
+        long key = key(op.opId());
+        clock = Math.max(clock, (int) (key >>> 32));
+        switch (op.kind()) {
+            case DELETE:
+                return setHidden(key(op.target()), key, true);
+            case RESTORE:
+                return setHidden(key(op.target()), key, false);
+            case CLEAR:
+                return clear(key) ? 0 : -1;
+            case STROKE_BEGIN:
+            case STROKE_POINTS:
+            case STROKE_END:
+                throw new IllegalArgumentException("Not a board object: " + op.kind());
+            default:
+                return insert(op, key);
+        }
+    }
+
+    /**
+     * @return The number of objects on the board, hidden ones included.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The highest Lamport clock of all operations applied so far.
+     */
+    public int clock() {
+        return clock;
+    }
+
+    /**
+     * @return The position of the object with this order key, or -1 if it is not on the board.
+     */
+    public int indexOf(long key) {
+        int position = search(key);
+        return position >= 0 ? position : -1;
+    }
+
+    /**
+     * @return Whether a DELETE hides the object.
+     */
+    public boolean isHidden(int index) {
+        return hidden[index];
+    }
+
+    /**
+     * Collects the visible objects whose bounding box overlaps the rectangle, ERASE included.
+     * @return {@code result}, cleared and filled with board positions in drawing order.
+     */
+    public IndexList query(double x0, double y0, double x1, double y1, IndexList result) {
+        result.clear();
+        spatialIndex.query(x0, y0, x1, y1, result);
+        result.sort();
+        return result;
+    }
+
+    /**
+     * Finds the object a click at (x, y) hits: strokes and segments along their line, shapes and sticky notes
+     * anywhere in their box.
+     * @param tolerance How far off the line a click may be, in board units.
+     * @return The position of the topmost visible object under the point, or -1.
+     */
+    public int topmostAt(double x, double y, double tolerance) {
+        spatialIndex.query(x - tolerance, y - tolerance, x + tolerance, y + tolerance, scratch);
+        int topmost = -1;
+        for (int i = 0; i < scratch.size(); i++) {
+            int candidate = scratch.get(i);
+            if (candidate > topmost && hits(candidate, x, y, tolerance)) {
+                topmost = candidate;
+            }
+        }
+        scratch.clear();
+        return topmost;
+    }
+
+    /**
+     * Counts changes to the board other than objects appended at its end: objects inserted before others, hidden or
+     * shown again, or removed by a CLEAR.
+     */
+    public long revision() {
+        return revision;
+    }
+
+    /**
+     * @param since An earlier {@link #revision()}.
+     * @return The lowest position changed since, 0 if that is too long ago to tell, or {@code Integer.MAX_VALUE}
+     *         if nothing changed.
+     */
+    public int lowestChangedSince(long since) {
+        if (revision - since > CHANGE_LOG_SIZE) {
+            return 0;
+        }
+        int lowest = Integer.MAX_VALUE;
+        for (long r = since; r < revision; r++) {
+            lowest = Math.min(lowest, changeLog[(int) (r % CHANGE_LOG_SIZE)]);
+        }
+        return lowest;
+    }
+
+    // --- Column access, index in [0, size()) ---
+
+    public BoardOp.Kind kind(int index) {
+        return KINDS[kinds[index]];
+    }
+
+    public int id(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return The order key of the object's op id, see {@link #key(String)}.
+     */
+    public long key(int index) {
+        return keys[index];
+    }
+
+    public Color color(int index) {
+        return palette.color(colors[index]);
+    }
+
+    public int rgba(int index) {
+        return palette.rgba(colors[index]);
+    }
+
+    public float width(int index) {
+        return widths[index];
+    }
+
+    public int coordStart(int index) {
+        return coordStarts[index];
+    }
+
+    public int coordLength(int index) {
+        return coordLengths[index];
+    }
+
+    /**
+     * The shared coordinate pool; object {@code i} owns {@code [coordStart(i), coordStart(i) + coordLength(i))}.
+     * The array is replaced when it grows, so do not hold on to it across {@link #apply}.
+     */
+    public float[] coords() {
+        return coords;
+    }
+
+    public String text(int index) {
+        return texts[index];
+    }
+
+    /**
+     * @return The palette index of the object's color, see {@link #paletteSize()}.
+     */
+    int colorIndex(int index) {
+        return colors[index];
+    }
+
+    /**
+     * @return The number of distinct colors the board has used; {@link BoardFile} stores colors by palette index.
+     */
+    int paletteSize() {
+        return palette.size;
+    }
+
+    int paletteRgba(int paletteIndex) {
+        return palette.rgba(paletteIndex);
+    }
+
+    public float minX(int index) {
+        return minX[index];
+    }
+
+    public float minY(int index) {
+        return minY[index];
+    }
+
+    public float maxX(int index) {
+        return maxX[index];
+    }
+
+    public float maxY(int index) {
+        return maxY[index];
+    }
+
+    /**
+     * @return Whether the bounding box of the object overlaps the given rectangle.
+     */
+    public boolean intersects(int index, double x0, double y0, double x1, double y1) {
+        return minX[index] <= x1 && maxX[index] >= x0 && minY[index] <= y1 && maxY[index] >= y0;
+    }
+
+    /**
+     * Copies an object back into operation form, op id included, e.g. to encode it.
+     */
+    public BoardOp read(int index, BoardOp into) {
+        into.reset(kind(index)).width(widths[index]).rgba(rgba(index)).text(texts[index]).opId(opId(keys[index]));
+        int start = coordStarts[index];
+        for (int i = 0; i < coordLengths[index]; i++) {
+            into.add(coords[start + i]);
+        }
+        return into;
+    }
+
+    private int insert(BoardOp op, long key) {
+        if (key < clearKey) {
+            return -1; // Created before a CLEAR that already removed everything of its time
+        }
+        int position = search(key);
+        if (position >= 0) {
+            return -1; // Delivered before
+        }
+        position = -position - 1;
+        // The objects after it move up a position; they leave the index until they are in their new places
+        for (int i = position; i < size; i++) {
+            if (!hidden[i]) {
+                spatialIndex.remove(i);
+            }
+        }
+        ensureObjectCapacity(size + 1);
+        shiftUp(position);
+        int n = op.coordCount();
+        ensureCoordCapacity(coordSize + n);
+        kinds[position] = (byte) op.kind().ordinal();
+        ids[position] = nextId++;
+        keys[position] = key;
+        visibilityKeys[position] = key;
+        hidden[position] = false;
+        colors[position] = palette.indexOf(op.rgba());
+        widths[position] = (float) op.width();
+        coordStarts[position] = coordSize;
+        coordLengths[position] = n;
+        texts[position] = op.text();
+        for (int i = 0; i < n; i++) {
+            coords[coordSize++] = (float) op.coord(i);
+        }
+        computeBounds(position);
+        size++;
+        long[] early = earlyVisibility.remove(key);
+        if (early != null && early[0] > key) {
+            visibilityKeys[position] = early[0];
+            hidden[position] = early[1] != 0;
+        }
+        for (int i = position; i < size; i++) {
+            if (!hidden[i]) {
+                spatialIndex.insert(i);
+            }
+        }
+        if (position < size - 1) {
+            logChange(position);
+        }
+        return position;
+    }
+
+    private int setHidden(long target, long key, boolean hide) {
+        if (target < clearKey) {
+            return -1; // Removed by a CLEAR
+        }
+        int position = search(target);
+        if (position < 0) {
+            // Keep the latest word on the object for when it arrives
+            long[] early = earlyVisibility.get(target);
+            if (early == null ? earlyVisibility.size() < MAX_EARLY_VISIBILITY : key > early[0]) {
+                earlyVisibility.put(target, new long[]{key, hide ? 1 : 0});
+            }
+            return -1;
+        }
+        if (key <= visibilityKeys[position]) {
+            return -1; // The same operation again, or one a later one already overrode
+        }
+        visibilityKeys[position] = key;
+        if (hidden[position] == hide) {
+            return -1;
+        }
+        hidden[position] = hide;
+        if (hide) {
+            spatialIndex.remove(position);
+        } else {
+            spatialIndex.insert(position);
+        }
+        logChange(position);
+        return position;
+    }
+
+    /**
+     * Removes the objects created before a CLEAR; they are a prefix of the board, as it is sorted by key.
+     * @return false if there were none or a later CLEAR already removed them.
+     */
+    private boolean clear(long key) {
+        if (key <= clearKey) {
+            return false;
+        }
+        clearKey = key;
+        earlyVisibility.keySet().removeIf(target -> target < key);
+        int removed = -search(key) - 1;
+        if (removed == 0) {
+            return false;
+        }
+        int kept = size - removed;
+        System.arraycopy(kinds, removed, kinds, 0, kept);
+        System.arraycopy(ids, removed, ids, 0, kept);
+        System.arraycopy(keys, removed, keys, 0, kept);
+        System.arraycopy(visibilityKeys, removed, visibilityKeys, 0, kept);
+        System.arraycopy(hidden, removed, hidden, 0, kept);
+        System.arraycopy(colors, removed, colors, 0, kept);
+        System.arraycopy(widths, removed, widths, 0, kept);
+        System.arraycopy(coordLengths, removed, coordLengths, 0, kept);
+        System.arraycopy(texts, removed, texts, 0, kept);
+        System.arraycopy(minX, removed, minX, 0, kept);
+        System.arraycopy(minY, removed, minY, 0, kept);
+        System.arraycopy(maxX, removed, maxX, 0, kept);
+        System.arraycopy(maxY, removed, maxY, 0, kept);
+        Arrays.fill(texts, kept, size, null);
+        // The pool is in arrival order, so the coordinates of the remaining objects are copied out one by one
+        float[] pool = new float[coords.length];
+        int poolSize = 0;
+        for (int i = 0; i < kept; i++) {
+            int start = coordStarts[removed + i];
+            System.arraycopy(coords, start, pool, poolSize, coordLengths[i]);
+            coordStarts[i] = poolSize;
+            poolSize += coordLengths[i];
+        }
+        coords = pool;
+        coordSize = poolSize;
+        size = kept;
+        spatialIndex.clear();
+        for (int i = 0; i < size; i++) {
+            if (!hidden[i]) {
+                spatialIndex.insert(i);
+            }
+        }
+        logChange(0);
+        return true;
+    }
+
+    /**
+     * @return The position of the key, or {@code -(insertion point) - 1} if no object has it.
+     */
+    private int search(long key) {
+        if (size == 0 || key > keys[size - 1]) {
+            return -size - 1; // Most operations are the newest so far
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void shiftUp(int position) {
+        int n = size - position;
+        if (n == 0) {
+            return;
+        }
+        System.arraycopy(kinds, position, kinds, position + 1, n);
+        System.arraycopy(ids, position, ids, position + 1, n);
+        System.arraycopy(keys, position, keys, position + 1, n);
+        System.arraycopy(visibilityKeys, position, visibilityKeys, position + 1, n);
+        System.arraycopy(hidden, position, hidden, position + 1, n);
+        System.arraycopy(colors, position, colors, position + 1, n);
+        System.arraycopy(widths, position, widths, position + 1, n);
+        System.arraycopy(coordStarts, position, coordStarts, position + 1, n);
+        System.arraycopy(coordLengths, position, coordLengths, position + 1, n);
+        System.arraycopy(texts, position, texts, position + 1, n);
+        System.arraycopy(minX, position, minX, position + 1, n);
+        System.arraycopy(minY, position, minY, position + 1, n);
+        System.arraycopy(maxX, position, maxX, position + 1, n);
+        System.arraycopy(maxY, position, maxY, position + 1, n);
+    }
+
+    private void logChange(int position) {
+        changeLog[(int) (revision % CHANGE_LOG_SIZE)] = position;
+        revision++;
+    }
+
+    private boolean hits(int index, double x, double y, double tolerance) {
+        switch (kind(index)) {
+            case ERASE:
+                return false;
+            case DRAW:
+            case STROKE:
+                float[] c = coords;
+                int start = coordStarts[index];
+                int end = start + coordLengths[index];
+                // Segments are drawn 2 wide whatever their width field says
+                double reach = Math.max(widths[index], kind(index) == BoardOp.Kind.DRAW ? 2 : 0) / 2 + tolerance;
+                if (end - start == 2) {
+                    return Math.hypot(x - c[start], y - c[start + 1]) <= reach;
+                }
+                for (int i = start; i + 3 < end; i += 2) {
+                    if (segmentDistance(x, y, c[i], c[i + 1], c[i + 2], c[i + 3]) <= reach) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return intersects(index, x - tolerance, y - tolerance, x + tolerance, y + tolerance);
+        }
+    }
+
+    private static double segmentDistance(double x, double y, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+
+    private void ensureObjectCapacity(int capacity) {
+        if (capacity > kinds.length) {
+            int newLength = Math.max(capacity, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, newLength);
+            ids = Arrays.copyOf(ids, newLength);
+            keys = Arrays.copyOf(keys, newLength);
+            visibilityKeys = Arrays.copyOf(visibilityKeys, newLength);
+            hidden = Arrays.copyOf(hidden, newLength);
+            colors = Arrays.copyOf(colors, newLength);
+            widths = Arrays.copyOf(widths, newLength);
+            coordStarts = Arrays.copyOf(coordStarts, newLength);
+            coordLengths = Arrays.copyOf(coordLengths, newLength);
+            texts = Arrays.copyOf(texts, newLength);
+            minX = Arrays.copyOf(minX, newLength);
+            minY = Arrays.copyOf(minY, newLength);
+            maxX = Arrays.copyOf(maxX, newLength);
+            maxY = Arrays.copyOf(maxY, newLength);
+        }
+    }
+
+    private void computeBounds(int index) {
+        int start = coordStarts[index];
+        int length = coordLengths[index];
+        float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY;
+        float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY;
+        float pad = 0;
+        switch (kind(index)) {
+            case RECTANGLE:
+            case OVAL:
+                if (length >= 4) {
+                    float x = coords[start], y = coords[start + 1];
+                    float w = coords[start + 2], h = coords[start + 3];
+                    x0 = Math.min(x, x + w);
+                    x1 = Math.max(x, x + w);
+                    y0 = Math.min(y, y + h);
+                    y1 = Math.max(y, y + h);
+                }
+                break;
+            case STICKY_NOTE:
+                if (length >= 2) {
+                    x0 = coords[start];
+                    y0 = coords[start + 1];
+                    x1 = x0 + (float) STICKY_NOTE_WIDTH;
+                    y1 = y0 + (float) STICKY_NOTE_HEIGHT;
+                }
+                break;
+            default:
+                // Segments, strokes and erased squares: the points, widened by half the line or square
+                for (int i = start; i + 1 < start + length; i += 2) {
+                    x0 = Math.min(x0, coords[i]);
+                    x1 = Math.max(x1, coords[i]);
+                    y0 = Math.min(y0, coords[i + 1]);
+                    y1 = Math.max(y1, coords[i + 1]);
+                }
+                pad = widths[index] / 2;
+        }
+        if (x0 > x1) {
+            x0 = y0 = x1 = y1 = 0; // Malformed, nothing to draw
+        }
+        minX[index] = x0 - pad;
+        minY[index] = y0 - pad;
+        maxX[index] = x1 + pad;
+        maxY[index] = y1 + pad;
+    }
+
+    private void ensureCoordCapacity(int capacity) {
+        if (capacity > coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(capacity, coords.length * 2));
+        }
+    }
+
+    /**
+     * The distinct colors of the board; objects refer to them by index.
+     */
+    private static final class Palette {
+        private int[] rgba = new int[16];
+        private Color[] colors = new Color[16];
+        private int size;
+        // Open addressing from rgba to index + 1, 0 meaning empty
+        private int[] slots = new int[32];
+
+        int indexOf(int value) {
+            int mask = slots.length - 1;
+            int slot = mix(value) & mask;
+            while (slots[slot] != 0) {
+                if (rgba[slots[slot] - 1] == value) {
+                    return slots[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == rgba.length) {
+                rgba = Arrays.copyOf(rgba, size * 2);
+                colors = Arrays.copyOf(colors, size * 2);
+            }
+            rgba[size] = value;
+            colors[size] = ColorCache.get(value);
+            slots[slot] = ++size;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        int rgba(int index) {
+            return rgba[index];
+        }
+
+        Color color(int index) {
+            return colors[index];
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = mix(rgba[i]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+            }
+        }
+
+        private static int mix(int value) {
+            int h = value * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
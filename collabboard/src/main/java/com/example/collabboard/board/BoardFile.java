@@ -0,0 +1,372 @@
+package com.example.collabboard.board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The binary .collab format: the visible objects of a board, oldest first, in the document's own columnar layout.
+ * <p>
+ * A file is a header, the palette, the objects in deflated blocks of up to {@link #BLOCK_OBJECTS}, and an index
+ * of the blocks at the end, all big-endian:
+ * <pre>
+ * header  "COLB", version:u16, flags:u16, objects:i64, blocks:i32, index offset:i64
+ * palette colors:i32, rgba:i32 per color
+ * block   deflate(kinds:u8[n], palette indexes:i32[n], widths:f32[n], coordinate counts:i32[n],
+ *                 coordinates:f32[], per sticky note: UTF-8 length:i32, bytes)
+ * index   offset:i64, deflated length:i32, inflated length:i32, objects:i32 per block
+ * </pre>
+ * Reading maps one block at a time and inflates it straight out of the mapping, so a file of any size is loaded
+ * block by block, with one block's worth of heap, and the first objects can be drawn before the rest is read.
+ * Op ids are not stored: loading makes the objects new operations of whoever loads them.
+ */
+public final class BoardFile implements AutoCloseable {
+    public static final int VERSION = 1;
+    static final int BLOCK_OBJECTS = 4096;
+    private static final int MAGIC = 0x434F4C42; // "COLB"
+    private static final int HEADER_SIZE = 28;
+    private static final int INDEX_ENTRY_SIZE = 20;
+    // Kinds by their code in the file; 0 is unused so a zeroed block does not decode
+    private static final BoardOp.Kind[] KINDS = {null, BoardOp.Kind.DRAW, BoardOp.Kind.STROKE, BoardOp.Kind.ERASE,
+            BoardOp.Kind.RECTANGLE, BoardOp.Kind.OVAL, BoardOp.Kind.STICKY_NOTE};
+
+    private final FileChannel channel;
+    private final long objectCount;
+    private final int[] palette;
+    private final long[] blockOffsets;
+    private final int[] deflatedLengths;
+    private final int[] inflatedLengths;
+    private final int[] blockObjects;
+    private final Inflater inflater = new Inflater();
+    private byte[] block = new byte[0];
+
+    private BoardFile(FileChannel channel, long objectCount, int[] palette, long[] blockOffsets,
+                      int[] deflatedLengths, int[] inflatedLengths, int[] blockObjects) {
+        this.channel = channel;
+        this.objectCount = objectCount;
+        this.palette = palette;
+        this.blockOffsets = blockOffsets;
+        this.deflatedLengths = deflatedLengths;
+        this.inflatedLengths = inflatedLengths;
+        this.blockObjects = blockObjects;
+    }
+
+    /**
+     * @return Whether the file starts like a binary board file, as opposed to the older text format.
+     */
+    public static boolean isBoardFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Opens a board file and reads its header, palette and index; the blocks are read by {@link #readBlock}.
+     * @throws IOException if it cannot be read or is not a board file of a version this build knows.
+     */
+    public static BoardFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+            if (channel.read(header, 0) != header.capacity() || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a CollabBoard file: " + path);
+            }
+            if (header.getShort(4) != VERSION) {
+                throw new IOException("Unsupported CollabBoard file version " + header.getShort(4));
+            }
+            long objectCount = header.getLong(8);
+            int blockCount = header.getInt(16);
+            long indexOffset = header.getLong(20);
+            int colors = header.getInt(HEADER_SIZE);
+            if (objectCount < 0 || blockCount < 0 || colors < 0 || indexOffset < HEADER_SIZE
+                    || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE > channel.size()
+                    || HEADER_SIZE + 4 + colors * 4L > indexOffset) {
+                throw new IOException("Corrupt CollabBoard file header");
+            }
+            int[] palette = new int[colors];
+            channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 4, colors * 4L).asIntBuffer().get(palette);
+
+            long[] offsets = new long[blockCount];
+            int[] deflated = new int[blockCount];
+            int[] inflated = new int[blockCount];
+            int[] objects = new int[blockCount];
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+                    (long) blockCount * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+                deflated[i] = index.getInt();
+                inflated[i] = index.getInt();
+                objects[i] = index.getInt();
+                if (offsets[i] < HEADER_SIZE || deflated[i] < 0 || offsets[i] + deflated[i] > indexOffset
+                        || inflated[i] < 0 || objects[i] < 0 || objects[i] > BLOCK_OBJECTS) {
+                    throw new IOException("Corrupt CollabBoard file index");
+                }
+            }
+            return new BoardFile(channel, objectCount, palette, offsets, deflated, inflated, objects);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long objectCount() {
+        return objectCount;
+    }
+
+    public int blockCount() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * Reads the objects of one block, oldest first, into {@code into}, handing each to {@code sink} before the
+     * next one overwrites it.
+     * @throws IOException if the block cannot be read or is corrupt.
+     */
+    public void readBlock(int blockIndex, BoardOp into, Consumer<BoardOp> sink) throws IOException {
+        int length = inflatedLengths[blockIndex];
+        if (block.length < length) {
+            block = new byte[length];
+        }
+        inflater.reset();
+        inflater.setInput(channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[blockIndex],
+                deflatedLengths[blockIndex]));
+        try {
+            if (inflater.inflate(block, 0, length) != length || !inflater.finished()) {
+                throw new IOException("Corrupt block " + blockIndex);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + blockIndex, e);
+        }
+
+        ByteBuffer columns = ByteBuffer.wrap(block, 0, length);
+        int n = blockObjects[blockIndex];
+        int colorsAt = n;
+        int widthsAt = colorsAt + n * 4;
+        int countsAt = widthsAt + n * 4;
+        int coordsAt = countsAt + n * 4;
+        try {
+            int coordPos = coordsAt;
+            long coordTotal = 0;
+            for (int i = 0; i < n; i++) {
+                coordTotal += columns.getInt(countsAt + i * 4);
+            }
+            int textPos = Math.toIntExact(coordsAt + coordTotal * 4);
+            for (int i = 0; i < n; i++) {
+                int code = block[i];
+                int color = columns.getInt(colorsAt + i * 4);
+                int coordCount = columns.getInt(countsAt + i * 4);
+                if (code <= 0 || code >= KINDS.length || color < 0 || color >= palette.length || coordCount < 0) {
+                    throw new IOException("Corrupt block " + blockIndex);
+                }
+                into.reset(KINDS[code]).width(columns.getFloat(widthsAt + i * 4)).rgba(palette[color]).text(null);
+                for (int j = 0; j < coordCount; j++, coordPos += 4) {
+                    into.add(columns.getFloat(coordPos));
+                }
+                if (KINDS[code] == BoardOp.Kind.STICKY_NOTE) {
+                    int textLength = columns.getInt(textPos);
+                    if (textLength < 0 || textLength > length - textPos - 4) {
+                        throw new IOException("Corrupt block " + blockIndex);
+                    }
+                    into.text(new String(block, textPos + 4, textLength, StandardCharsets.UTF_8));
+                    textPos += 4 + textLength;
+                }
+                sink.accept(into);
+            }
+        } catch (IndexOutOfBoundsException | ArithmeticException e) {
+            throw new IOException("Corrupt block " + blockIndex, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * The visible objects of a board as the blocks of a file, not yet deflated. Taken on the FX thread, so the file
+     * can be written on another while the board keeps changing.
+     */
+    public static final class Contents {
+        private final int[] palette;
+        private final byte[][] blocks;
+        private final int[] objects;
+        private final int blockCount;
+
+        private Contents(int[] palette, byte[][] blocks, int[] objects, int blockCount) {
+            this.palette = palette;
+            this.blocks = blocks;
+            this.objects = objects;
+            this.blockCount = blockCount;
+        }
+    }
+
+    /**
+     * Copies the visible objects of the board for {@link #write}; must be called from the FX thread.
+     */
+    public static Contents copy(BoardDocument board) {
+        int[] palette = new int[board.paletteSize()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = board.paletteRgba(i);
+        }
+        byte[][] blocks = new byte[16][];
+        int[] objects = new int[16];
+        int blockCount = 0;
+        int[] positions = new int[BLOCK_OBJECTS];
+        byte[][] texts = new byte[BLOCK_OBJECTS][];
+        ByteBuffer columns = ByteBuffer.allocate(64 * 1024);
+        for (int next = 0; next < board.size(); ) {
+            // The next block's objects, and what they take inflated
+            int n = 0;
+            long length = 0;
+            for (; next < board.size() && n < BLOCK_OBJECTS; next++) {
+                if (board.isHidden(next)) {
+                    continue;
+                }
+                String text = board.text(next);
+                texts[n] = board.kind(next) == BoardOp.Kind.STICKY_NOTE
+                        ? (text != null ? text : "").getBytes(StandardCharsets.UTF_8) : null;
+                length += 13 + board.coordLength(next) * 4L + (texts[n] != null ? 4 + texts[n].length : 0);
+                positions[n++] = next;
+            }
+            if (n == 0) {
+                break;
+            }
+            if (columns.capacity() < length) {
+                columns = ByteBuffer.allocate(Math.toIntExact(Math.max(length, columns.capacity() * 2L)));
+            }
+            columns.clear();
+            encodeBlock(board, positions, texts, n, columns);
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+                objects = Arrays.copyOf(objects, blockCount * 2);
+            }
+            blocks[blockCount] = Arrays.copyOf(columns.array(), columns.position());
+            objects[blockCount] = n;
+            blockCount++;
+        }
+        return new Contents(palette, blocks, objects, blockCount);
+    }
+
+    /**
+     * Writes a copy of a board; can be called from any thread. The file is written next to its destination under
+     * another name and then moved over it, so a failed or interrupted save leaves the previous file as it was.
+     */
+    public static void write(Contents contents, Path path) throws IOException {
+        Path target = path.toAbsolutePath();
+        Path temp = target.resolveSibling("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                write(contents, channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void write(Contents contents, FileChannel channel) throws IOException {
+        ByteBuffer palette = ByteBuffer.allocate(4 + contents.palette.length * 4).putInt(contents.palette.length);
+        for (int rgba : contents.palette) {
+            palette.putInt(rgba);
+        }
+        channel.position(HEADER_SIZE);
+        writeFully(channel, palette.flip());
+
+        ByteBuffer index = ByteBuffer.allocate(contents.blockCount * INDEX_ENTRY_SIZE);
+        long objectCount = 0;
+        Deflater deflater = new Deflater();
+        byte[] out = new byte[64 * 1024];
+        try {
+            for (int i = 0; i < contents.blockCount; i++) {
+                byte[] block = contents.blocks[i];
+                deflater.reset();
+                deflater.setInput(block);
+                deflater.finish();
+                long offset = channel.position();
+                int written = 0;
+                while (!deflater.finished()) {
+                    int chunk = deflater.deflate(out);
+                    writeFully(channel, ByteBuffer.wrap(out, 0, chunk));
+                    written += chunk;
+                }
+                index.putLong(offset).putInt(written).putInt(block.length).putInt(contents.objects[i]);
+                objectCount += contents.objects[i];
+            }
+        } finally {
+            deflater.end();
+        }
+
+        long indexOffset = channel.position();
+        writeFully(channel, index.flip());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort((short) VERSION)
+                .putShort((short) 0).putLong(objectCount).putInt(contents.blockCount).putLong(indexOffset);
+        channel.position(0);
+        writeFully(channel, header.flip());
+    }
+
+    private static void encodeBlock(BoardDocument board, int[] positions, byte[][] texts, int n, ByteBuffer columns) {
+        for (int i = 0; i < n; i++) {
+            columns.put((byte) codeOf(board.kind(positions[i])));
+        }
+        for (int i = 0; i < n; i++) {
+            columns.putInt(board.colorIndex(positions[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            columns.putFloat(board.width(positions[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            columns.putInt(board.coordLength(positions[i]));
+        }
+        float[] coords = board.coords();
+        for (int i = 0; i < n; i++) {
+            int start = board.coordStart(positions[i]);
+            for (int j = 0; j < board.coordLength(positions[i]); j++) {
+                columns.putFloat(coords[start + j]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (texts[i] != null) {
+                columns.putInt(texts[i].length).put(texts[i]);
+                texts[i] = null;
+            }
+        }
+    }
+
+    private static int codeOf(BoardOp.Kind kind) {
+        for (int code = 1; code < KINDS.length; code++) {
+            if (KINDS[code] == kind) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("Not a board object: " + kind);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
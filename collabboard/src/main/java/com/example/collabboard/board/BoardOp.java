@@ -0,0 +1,187 @@
+package com.example.collabboard.board;
+
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+/**
+ * One board operation in typed form. Instances are meant to be reused: {@link BoardOpCodec#decode} fills one in
+ * place, so decoding and drawing an operation does not allocate. Anything that has to outlive the next decode
+ * must be copied out.
+ * <p>
+ * The coordinates depend on the kind:
+ * <ul>
+ *   <li>DRAW: x1, y1, x2, y2</li>
+ *   <li>STROKE, STROKE_BEGIN, STROKE_POINTS: x, y pairs</li>
+ *   <li>ERASE: x, y pairs, one square cleared at each</li>
+ *   <li>STICKY_NOTE: x, y</li>
+ *   <li>RECTANGLE, OVAL: x, y, width, height</li>
+ * </ul>
+ * DELETE, RESTORE and CLEAR have no coordinates: DELETE hides and RESTORE shows again the object whose op id is
+ * {@link #target()}, and CLEAR removes everything created before it.
+ * <p>
+ * Every operation that reaches the board carries an {@link #opId()}, "&lt;participant&gt;-&lt;clock&gt;": the
+ * participant is 8 hex digits and the clock a Lamport timestamp, which together give the operation its place on
+ * the board, see {@link BoardDocument}. A stroke's op id is its stroke id.
+ */
+public final class BoardOp {
+
+    public enum Kind {
+        DRAW("DRAW:"),
+        STROKE("STROKE:"),
+        STROKE_BEGIN("STROKE_BEGIN:"),
+        STROKE_POINTS("STROKE_POINTS:"),
+        STROKE_END("STROKE_END:"),
+        ERASE("ERASE:"),
+        RECTANGLE("RECTANGLE:"),
+        OVAL("OVAL:"),
+        STICKY_NOTE("STICKY_NOTE:"),
+        DELETE("DELETE:"),
+        RESTORE("RESTORE:"),
+        CLEAR("CLEAR:");
+
+        private final String prefix;
+
+        Kind(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return The wire prefix, command and colon.
+         */
+        public String prefix() {
+            return prefix;
+        }
+    }
+
+    private Kind kind;
+    private String strokeId;
+    private String opId;
+    private double width;
+    private int rgba;
+    private Color color;
+    private String text;
+    private String target;
+    private double[] coords = new double[16];
+    private int coordCount;
+
+    /**
+     * Clears the operation and gives it a new kind.
+     */
+    public BoardOp reset(Kind kind) {
+        this.kind = kind;
+        this.strokeId = null;
+        this.opId = null;
+        this.width = 0;
+        this.rgba = 0;
+        this.color = null;
+        this.text = null;
+        this.target = null;
+        this.coordCount = 0;
+        return this;
+    }
+
+    public BoardOp add(double value) {
+        if (coordCount == coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[coordCount++] = value;
+        return this;
+    }
+
+    public BoardOp add(double x, double y) {
+        return add(x).add(y);
+    }
+
+    public BoardOp strokeId(String strokeId) {
+        this.strokeId = strokeId;
+        return this;
+    }
+
+    /**
+     * Id the producing participant gave the operation, "&lt;participant&gt;-&lt;clock&gt;"; null if it has none.
+     */
+    public BoardOp opId(String opId) {
+        this.opId = opId;
+        return this;
+    }
+
+    /**
+     * Line width of strokes, or the side of the squares an ERASE clears.
+     */
+    public BoardOp width(double width) {
+        this.width = width;
+        return this;
+    }
+
+    public BoardOp rgba(int rgba) {
+        this.rgba = rgba;
+        this.color = null;
+        return this;
+    }
+
+    public BoardOp color(Color color) {
+        this.rgba = ColorCache.rgba(color);
+        this.color = color;
+        return this;
+    }
+
+    /**
+     * Sticky note text, unescaped.
+     */
+    public BoardOp text(String text) {
+        this.text = text;
+        return this;
+    }
+
+    /**
+     * Op id of the object a DELETE or RESTORE is about.
+     */
+    public BoardOp target(String target) {
+        this.target = target;
+        return this;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public String strokeId() {
+        return strokeId;
+    }
+
+    public String opId() {
+        return opId;
+    }
+
+    public double width() {
+        return width;
+    }
+
+    public int rgba() {
+        return rgba;
+    }
+
+    public Color color() {
+        if (color == null) {
+            color = ColorCache.get(rgba);
+        }
+        return color;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public String target() {
+        return target;
+    }
+
+    public int coordCount() {
+        return coordCount;
+    }
+
+    public double coord(int index) {
+        return coords[index];
+    }
+}
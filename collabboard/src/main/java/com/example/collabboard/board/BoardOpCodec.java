@@ -0,0 +1,429 @@
+package com.example.collabboard.board;
+
+import javafx.scene.paint.Color;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Reads and writes the text form of board operations, e.g.
+ * "RECTANGLE:10.00,20.00,30.00,40.00,0x000000ff@3f2a9c1e-17" or "DELETE:3f2a9c1e-17@5b0d77e2-20".
+ * <p>
+ * Both directions work on reusable buffers: decoding scans the message in place into a {@link BoardOp} without
+ * splitting or substrings, colors come from the {@link ColorCache}, and encoding only allocates the resulting
+ * String. Numbers are written as "%.2f" in the root locale, the canonical form the LAN binary frames expect.
+ * <p>
+ * Sticky note text is escaped with backslashes: "\\", "\,", "\:" and "\@" for the separators, "\n", "\r" and "\t"
+ * for the usual control characters and "\\u00XX" for the rest, so any text survives the line-based transports and
+ * the operation separators of a board snapshot.
+ * <p>
+ * An operation with an {@link BoardOp#opId() op id} ends in "@&lt;id&gt;"; stroke messages carry their stroke id
+ * instead and never get the suffix. Op ids, also those DELETE and RESTORE refer to, are checked to be
+ * "&lt;1 to 8 lowercase hex digits&gt;-&lt;1 to 9 digits&gt;".
+ * <p>
+ * An instance is not thread-safe; use one per thread.
+ */
+public final class BoardOpCodec {
+    private static final BoardOp.Kind[] KINDS = BoardOp.Kind.values();
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final StringBuilder out = new StringBuilder(256);
+    private final StringBuilder textBuffer = new StringBuilder(64);
+
+    // Decoding cursor
+    private String source;
+    private int pos;
+    private int end;
+
+    /**
+     * Decodes a whole message.
+     * @return false if the message is not a board operation.
+     * @throws IllegalArgumentException if it is one but malformed.
+     */
+    public boolean decode(String message, BoardOp op) {
+        return decode(message, 0, message.length(), op);
+    }
+
+    /**
+     * Decodes the operation in {@code message[start, end)}, e.g. one entry of a board snapshot.
+     * @return false if the range is not a board operation.
+     * @throws IllegalArgumentException if it is one but malformed.
+     */
+    public boolean decode(String message, int start, int end, BoardOp op) {
+        BoardOp.Kind kind = kindOf(message, start, end);
+        if (kind == null) {
+            return false;
+        }
+        this.source = message;
+        this.pos = start + kind.prefix().length();
+        this.end = end;
+        op.reset(kind);
+        if (!isStrokeMessage(kind)) {
+            int at = opIdSeparator(message, this.pos, end);
+            if (at >= 0) {
+                op.opId(message.substring(at + 1, end));
+                this.end = at;
+                end = at;
+            }
+        }
+        try {
+            switch (kind) {
+                case DRAW:
+                case RECTANGLE:
+                case OVAL:
+                    op.add(nextNumber(), nextNumber()).add(nextNumber(), nextNumber()).rgba(nextColor());
+                    break;
+                case STROKE:
+                    op.width(nextNumber()).rgba(nextColor());
+                    readPoints(op);
+                    break;
+                case STROKE_BEGIN:
+                    op.strokeId(nextField()).width(nextNumber()).rgba(nextColor()).add(nextNumber(), nextNumber());
+                    break;
+                case STROKE_POINTS:
+                    op.strokeId(nextField());
+                    readPoints(op);
+                    break;
+                case STROKE_END:
+                    op.strokeId(message.substring(pos, end));
+                    pos = end;
+                    break;
+                case ERASE:
+                    // "x,y,width" and the rest of the gesture after it
+                    op.add(nextNumber(), nextNumber()).width(nextNumber());
+                    readPoints(op);
+                    break;
+                case STICKY_NOTE:
+                    op.add(nextNumber(), nextNumber()).text(unescape(message, pos, end));
+                    pos = end;
+                    break;
+                case DELETE:
+                case RESTORE:
+                    if (!isOpId(message, pos, end)) {
+                        throw new IllegalArgumentException("Bad target in " + message.substring(start, end));
+                    }
+                    op.target(message.substring(pos, end));
+                    pos = end;
+                    break;
+                case CLEAR:
+                    pos = end;
+                    break;
+            }
+        } finally {
+            this.source = null;
+        }
+        return true;
+    }
+
+    /**
+     * @return The kind of the operation starting at {@code start}, or null if it is not a board operation.
+     */
+    public static BoardOp.Kind kindOf(String message, int start, int end) {
+        for (BoardOp.Kind kind : KINDS) {
+            String prefix = kind.prefix();
+            if (end - start >= prefix.length() && message.startsWith(prefix, start)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    public String encode(BoardOp op) {
+        out.setLength(0);
+        out.append(op.kind().prefix());
+        switch (op.kind()) {
+            case DRAW:
+            case RECTANGLE:
+            case OVAL:
+                appendCoords(out, op, 0, 4);
+                out.append(',');
+                appendColor(out, op.rgba());
+                break;
+            case STROKE:
+                appendNumber(out, op.width());
+                out.append(',');
+                appendColor(out, op.rgba());
+                out.append(',');
+                appendCoords(out, op, 0, op.coordCount());
+                break;
+            case STROKE_BEGIN:
+                out.append(op.strokeId()).append(',');
+                appendNumber(out, op.width());
+                out.append(',');
+                appendColor(out, op.rgba());
+                out.append(',');
+                appendCoords(out, op, 0, 2);
+                break;
+            case STROKE_POINTS:
+                out.append(op.strokeId()).append(',');
+                appendCoords(out, op, 0, op.coordCount());
+                break;
+            case STROKE_END:
+                out.append(op.strokeId());
+                break;
+            case ERASE:
+                appendCoords(out, op, 0, 2);
+                out.append(',');
+                appendNumber(out, op.width());
+                if (op.coordCount() > 2) {
+                    out.append(',');
+                    appendCoords(out, op, 2, op.coordCount());
+                }
+                break;
+            case STICKY_NOTE:
+                appendCoords(out, op, 0, 2);
+                out.append(',');
+                appendEscaped(out, op.text());
+                break;
+            case DELETE:
+            case RESTORE:
+                out.append(op.target());
+                break;
+            case CLEAR:
+                break;
+        }
+        if (op.opId() != null && !isStrokeMessage(op.kind())) {
+            out.append('@').append(op.opId());
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends a number as "%.2f" in the root locale would, without going through a Formatter.
+     */
+    public static void appendNumber(StringBuilder target, double value) {
+        double scaled = Math.abs(value) * 100;
+        long cents = Math.round(scaled);
+        if (Math.abs(scaled - Math.floor(scaled) - 0.5) < 1e-6) {
+            // Near a half cent: "%.2f" rounds the shortest decimal form half up, which the product above may miss
+            cents = new BigDecimal(Double.toString(Math.abs(value))).setScale(2, RoundingMode.HALF_UP)
+                    .unscaledValue().longValue();
+        }
+        if (value < 0 && cents != 0) {
+            target.append('-');
+        }
+        target.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            target.append('0');
+        }
+        target.append(fraction);
+    }
+
+    /**
+     * Appends a color as {@link Color#toString()} prints it, "0xrrggbbaa".
+     */
+    public static void appendColor(StringBuilder target, int rgba) {
+        target.append("0x");
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            target.append(Character.forDigit((rgba >>> shift) & 0xF, 16));
+        }
+    }
+
+    public static void appendEscaped(StringBuilder target, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\': target.append("\\\\"); break;
+                case ',': target.append("\\,"); break;
+                case ':': target.append("\\:"); break;
+                case '@': target.append("\\@"); break;
+                case '\n': target.append("\\n"); break;
+                case '\r': target.append("\\r"); break;
+                case '\t': target.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c == 0x7F) {
+                        target.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        target.append(c);
+                    }
+            }
+        }
+    }
+
+    private static boolean isStrokeMessage(BoardOp.Kind kind) {
+        return kind == BoardOp.Kind.STROKE_BEGIN || kind == BoardOp.Kind.STROKE_POINTS || kind == BoardOp.Kind.STROKE_END;
+    }
+
+    /**
+     * Finds the "@" before a trailing op id. An escaped "\@" in sticky note text does not count, and neither does an
+     * "@" that text saved before the escape existed left in place unless it happens to be followed by an op id.
+     * @return Its index, or -1 if the range does not end in an op id.
+     */
+    private static int opIdSeparator(String message, int start, int end) {
+        int i = end - trailingOpId(message, start, end) - 1;
+        if (i == end - 1 || i < start || message.charAt(i) != '@') {
+            return -1;
+        }
+        int backslashes = 0;
+        for (int j = i - 1; j >= start && message.charAt(j) == '\\'; j--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 0 ? i : -1;
+    }
+
+    /**
+     * @return Whether {@code message[start, end)} is an op id.
+     */
+    public static boolean isOpId(String message, int start, int end) {
+        return end > start && trailingOpId(message, start, end) == end - start;
+    }
+
+    /**
+     * @return The length of the op id that ends at {@code end}, or 0 if there is none.
+     */
+    private static int trailingOpId(String message, int start, int end) {
+        int i = end - 1;
+        while (i >= start && i >= end - 9 && message.charAt(i) >= '0' && message.charAt(i) <= '9') {
+            i--;
+        }
+        if (i == end - 1 || i < start || message.charAt(i) != '-') {
+            return 0;
+        }
+        int dash = i--;
+        while (i >= start && i >= dash - 8 && isLowerHex(message.charAt(i))) {
+            i--;
+        }
+        return i == dash - 1 ? 0 : end - i - 1;
+    }
+
+    private static boolean isLowerHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    private static void appendCoords(StringBuilder target, BoardOp op, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                target.append(',');
+            }
+            appendNumber(target, op.coord(i));
+        }
+    }
+
+    // --- Decoding helpers ---
+
+    private void readPoints(BoardOp op) {
+        while (pos < end) {
+            op.add(nextNumber(), nextNumber());
+        }
+    }
+
+    private int fieldEnd() {
+        if (pos > end) {
+            throw new IllegalArgumentException("Missing field in " + source);
+        }
+        int comma = source.indexOf(',', pos);
+        return comma < 0 || comma > end ? end : comma;
+    }
+
+    private String nextField() {
+        int fieldEnd = fieldEnd();
+        String field = source.substring(pos, fieldEnd);
+        pos = fieldEnd + 1;
+        return field;
+    }
+
+    private double nextNumber() {
+        int fieldEnd = fieldEnd();
+        double value = parseNumber(source, pos, fieldEnd);
+        pos = fieldEnd + 1;
+        return value;
+    }
+
+    private int nextColor() {
+        int fieldEnd = fieldEnd();
+        int rgba = parseColor(source, pos, fieldEnd);
+        pos = fieldEnd + 1;
+        return rgba;
+    }
+
+    /**
+     * Parses plain decimal numbers directly; anything else (exponents, NaN, very long mantissas) falls back
+     * to {@link Double#parseDouble}. Both give the same correctly rounded result.
+     */
+    static double parseNumber(String text, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (dot) {
+                    scale++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+                    return Double.parseDouble(text.substring(start, end));
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return Double.parseDouble(text.substring(start, end));
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not a number: " + text.substring(start, end));
+        }
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses "0xrrggbbaa"; other forms {@link Color#valueOf} understands, such as "BLACK", go through it.
+     */
+    static int parseColor(String text, int start, int end) {
+        if (end - start == 10 && text.charAt(start) == '0' && text.charAt(start + 1) == 'x') {
+            int rgba = 0;
+            for (int i = start + 2; i < end; i++) {
+                int digit = Character.digit(text.charAt(i), 16);
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Bad color " + text.substring(start, end));
+                }
+                rgba = (rgba << 4) | digit;
+            }
+            return rgba;
+        }
+        return ColorCache.rgba(Color.valueOf(text.substring(start, end)));
+    }
+
+    private String unescape(String text, int start, int end) {
+        int backslash = text.indexOf('\\', start);
+        if (backslash < 0 || backslash >= end) {
+            return text.substring(start, end);
+        }
+        textBuffer.setLength(0);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == end) {
+                textBuffer.append(c);
+                continue;
+            }
+            char escaped = text.charAt(++i);
+            switch (escaped) {
+                case 'n': textBuffer.append('\n'); break;
+                case 'r': textBuffer.append('\r'); break;
+                case 't': textBuffer.append('\t'); break;
+                case 'u':
+                    if (i + 4 < end) {
+                        textBuffer.append((char) Integer.parseInt(text, i + 1, i + 5, 16));
+                        i += 4;
+                    }
+                    break;
+                default: textBuffer.append(escaped); // "\\", "\,", "\:" and "\@"
+            }
+        }
+        return textBuffer.toString();
+    }
+}
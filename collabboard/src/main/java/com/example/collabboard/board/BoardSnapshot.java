@@ -0,0 +1,151 @@
+package com.example.collabboard.board;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Many board operations sent as one message, "BOARD_SNAPSHOT:&lt;count&gt;:&lt;base64&gt;", the base64 being the
+ * deflated operations in wire form, separated by U+001E. A loaded board goes out this way instead of as one
+ * message per object: the relay forwards a single bulk message, which both the LAN and the cloud connection send
+ * in chunks between the interactive traffic, and every peer applies the whole snapshot at once and renders once.
+ * <p>
+ * The operations carry their op ids like any other, so a snapshot merges into the board in any order with the
+ * rest. A builder is filled by {@link #add} and used up by {@link #toMessage}.
+ */
+public final class BoardSnapshot {
+    public static final String PREFIX = "BOARD_SNAPSHOT:";
+    /** The host's late-joiner sync, packed the same way: the compacted board, then the operations after it. */
+    public static final String SYNC_PREFIX = "BOARD_SYNC:";
+    public static final String SYNC_TAIL_PREFIX = "BOARD_SYNC_TAIL:";
+    /** Operations taking more than this uncompressed go into the next snapshot, see {@link #isFull()}. */
+    public static final int MAX_RAW_BYTES = 8 * 1024 * 1024;
+    // Refuses snapshots that inflate far beyond what a sender produces
+    private static final int MAX_INFLATED_BYTES = 2 * MAX_RAW_BYTES;
+    private static final byte SEPARATOR = 0x1e;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    // Operations not handed to the deflater yet; it is fed in blocks of this size
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final byte[] buffer = new byte[64 * 1024];
+    private int count;
+    private long rawBytes;
+
+    /**
+     * Adds an operation in wire form, as {@link BoardOpCodec#encode} gives it.
+     */
+    public void add(String operation) {
+        byte[] utf8 = operation.getBytes(StandardCharsets.UTF_8);
+        if (count > 0) {
+            pending.write(SEPARATOR);
+        }
+        pending.writeBytes(utf8);
+        count++;
+        rawBytes += utf8.length + 1;
+        if (pending.size() >= buffer.length) {
+            deflatePending();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Whether the snapshot is as large as one message should get; send it and start another.
+     */
+    public boolean isFull() {
+        return rawBytes >= MAX_RAW_BYTES;
+    }
+
+    /**
+     * @return The message; the builder cannot be used afterwards.
+     */
+    public String toMessage() {
+        deflatePending();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return PREFIX + count + ":" + Base64.getEncoder().encodeToString(deflated.toByteArray());
+    }
+
+    private void deflatePending() {
+        deflater.setInput(pending.toByteArray());
+        while (!deflater.needsInput()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        pending.reset();
+    }
+
+    /**
+     * Decodes every operation of a snapshot message. Malformed operations are skipped.
+     * @return The operations, in the order they were added.
+     * @throws IllegalArgumentException if the message is not a well-formed snapshot.
+     */
+    public static List<BoardOp> decode(String message, BoardOpCodec codec) {
+        return decode(message, PREFIX, codec);
+    }
+
+    /**
+     * Decodes every operation of a message packed like a snapshot, such as the BOARD_SYNC messages.
+     * @param prefix The message type, e.g. {@link #SYNC_PREFIX}.
+     * @throws IllegalArgumentException if the message is not a well-formed snapshot of that type.
+     */
+    public static List<BoardOp> decode(String message, String prefix, BoardOpCodec codec) {
+        int countEnd = message.indexOf(':', prefix.length());
+        if (!message.startsWith(prefix) || countEnd < 0) {
+            throw new IllegalArgumentException("Not a board snapshot");
+        }
+        int count = Integer.parseInt(message, prefix.length(), countEnd, 10);
+        byte[] input = Base64.getDecoder().decode(message.substring(countEnd + 1));
+
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(input.length * 4);
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            inflater.setInput(input);
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated board snapshot");
+                }
+                inflated.write(buffer, 0, n);
+                if (inflated.size() > MAX_INFLATED_BYTES) {
+                    throw new IllegalArgumentException("Board snapshot too large");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt board snapshot", e);
+        } finally {
+            inflater.end();
+        }
+
+        String operations = inflated.toString(StandardCharsets.UTF_8);
+        List<BoardOp> ops = new ArrayList<>(Math.max(0, Math.min(count, operations.length())));
+        int start = 0;
+        while (start < operations.length()) {
+            int end = operations.indexOf('\u001e', start);
+            if (end < 0) {
+                end = operations.length();
+            }
+            BoardOp op = new BoardOp();
+            try {
+                if (codec.decode(operations, start, end, op)) {
+                    ops.add(op);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping malformed operation: " + operations.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return ops;
+    }
+}
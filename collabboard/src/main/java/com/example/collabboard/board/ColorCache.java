@@ -0,0 +1,76 @@
+package com.example.collabboard.board;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Interned {@link Color} instances keyed by packed 0xRRGGBBAA value, so decoding the color of a board operation
+ * does not create a new Color (or parse a string) every time it is drawn. A board uses a handful of colors, the
+ * table stops growing at {@link #MAX_ENTRIES} in case a peer sends random ones.
+ */
+public final class ColorCache {
+    private static final int MAX_ENTRIES = 4096;
+
+    // Open addressing; keys[i] is only meaningful where values[i] is set.
+    private static int[] keys = new int[64];
+    private static Color[] values = new Color[64];
+    private static int size;
+
+    private ColorCache() {
+    }
+
+    /**
+     * @param rgba Packed color, red in the highest byte and opacity in the lowest, as in "0xrrggbbaa".
+     */
+    public static synchronized Color get(int rgba) {
+        int mask = keys.length - 1;
+        int slot = mix(rgba) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == rgba) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        Color color = Color.rgb(rgba >>> 24, (rgba >>> 16) & 0xFF, (rgba >>> 8) & 0xFF, (rgba & 0xFF) / 255.0);
+        if (size < MAX_ENTRIES) {
+            keys[slot] = rgba;
+            values[slot] = color;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Packs a color the same way {@link Color#toString()} prints it.
+     */
+    public static int rgba(Color color) {
+        return (int) Math.round(color.getRed() * 255) << 24
+                | (int) Math.round(color.getGreen() * 255) << 16
+                | (int) Math.round(color.getBlue() * 255) << 8
+                | (int) Math.round(color.getOpacity() * 255);
+    }
+
+    private static void grow() {
+        int[] oldKeys = keys;
+        Color[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Color[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.collabboard.board;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Carries incoming messages from the network threads to the FX thread.
+ * <p>
+ * {@link #submit} runs on whichever thread received the message: board operations are decoded and validated
+ * there, with a codec per thread, and malformed ones are dropped before they reach the UI; so are a
+ * {@link BoardSnapshot} and the host's BOARD_SYNC and BOARD_SYNC_TAIL, inflated and decoded in one piece and then
+ * queued in batches of {@value #SNAPSHOT_BATCH} operations. Messages then wait in a lock-free queue, and an
+ * {@link AnimationTimer} applies them once per pulse, in arrival order, until either {@code maxMessagesPerFrame}
+ * operations were applied or {@code frameBudgetMillis} are used up; the rest waits for the next pulse. A flood of
+ * strokes or a late-joiner sync of a large board therefore costs one pulse of work at a time instead of one FX
+ * event per message or one long freeze, and input and rendering keep their share of the frame.
+ * <p>
+ * The timer only runs while messages are pending. Decoded operations are recycled once applied, so the handler
+ * must not keep them.
+ */
+public final class InboundPipeline {
+    private static final int MAX_POOLED_OPS = 4096;
+    // Operations of a snapshot handed to the handler at a time
+    static final int SNAPSHOT_BATCH = 1024;
+    private static final String[] SNAPSHOT_PREFIXES = {
+            BoardSnapshot.PREFIX, BoardSnapshot.SYNC_PREFIX, BoardSnapshot.SYNC_TAIL_PREFIX};
+    private static final ThreadLocal<BoardOpCodec> CODECS = ThreadLocal.withInitial(BoardOpCodec::new);
+
+    /**
+     * One incoming message; {@code op} is its decoded form if it is a board operation, {@code snapshot} a batch of
+     * the operations if it is a board snapshot or sync, otherwise both are null. The text of a snapshot is just its
+     * prefix, and {@code lastBatch} marks the final batch of the message.
+     */
+    public static final class Inbound {
+        public final String text;
+        public final BoardOp op;
+        public final List<BoardOp> snapshot;
+        public final boolean lastBatch;
+
+        Inbound(String text, BoardOp op, List<BoardOp> snapshot, boolean lastBatch) {
+            this.text = text;
+            this.op = op;
+            this.snapshot = snapshot;
+            this.lastBatch = lastBatch;
+        }
+    }
+
+    private final Consumer<Inbound> handler;
+    private final int maxMessagesPerFrame;
+    private final long frameBudgetNanos;
+    private final ConcurrentLinkedQueue<Inbound> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<BoardOp> freeOps = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeOpCount = new AtomicInteger();
+    // True from the first submit of a burst until the timer found the queue empty
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+
+    /**
+     * @param handler Applies one message on the FX thread.
+     * @param maxMessagesPerFrame Messages applied per pulse at most; each operation of a snapshot batch counts.
+     * @param frameBudgetMillis Time per pulse after which the remaining messages wait for the next one.
+     */
+    public InboundPipeline(Consumer<Inbound> handler, int maxMessagesPerFrame, int frameBudgetMillis) {
+        this.handler = handler;
+        this.maxMessagesPerFrame = Math.max(1, maxMessagesPerFrame);
+        this.frameBudgetNanos = Math.max(1, frameBudgetMillis) * 1_000_000L;
+    }
+
+    /**
+     * Decodes a message and queues it for the next pulse. Can be called from any thread.
+     */
+    public void submit(String text) {
+        for (String prefix : SNAPSHOT_PREFIXES) {
+            if (text.startsWith(prefix)) {
+                submitSnapshot(text, prefix);
+                return;
+            }
+        }
+        BoardOp op = null;
+        if (BoardOpCodec.kindOf(text, 0, text.length()) != null) {
+            op = freeOps.poll();
+            if (op != null) {
+                freeOpCount.decrementAndGet();
+            } else {
+                op = new BoardOp();
+            }
+            try {
+                CODECS.get().decode(text, op);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Could not parse incoming data: " + text);
+                recycle(op);
+                return;
+            }
+        }
+        enqueue(new Inbound(text, op, null, false));
+    }
+
+    private void submitSnapshot(String text, String prefix) {
+        List<BoardOp> ops;
+        try {
+            ops = BoardSnapshot.decode(text, prefix, CODECS.get());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Could not parse board snapshot: " + e.getMessage());
+            return;
+        }
+        int from = 0;
+        do {
+            int to = Math.min(ops.size(), from + SNAPSHOT_BATCH);
+            queue.offer(new Inbound(prefix, null, ops.subList(from, to), to == ops.size()));
+            from = to;
+        } while (from < ops.size());
+        schedule();
+    }
+
+    private void enqueue(Inbound message) {
+        queue.offer(message);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(timer::start);
+        }
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        int applied = 0;
+        Inbound message;
+        while (applied < maxMessagesPerFrame && System.nanoTime() - start < frameBudgetNanos
+                && (message = queue.poll()) != null) {
+            try {
+                handler.accept(message);
+            } finally {
+                if (message.op != null) {
+                    recycle(message.op);
+                }
+            }
+            applied += message.snapshot != null ? Math.max(1, message.snapshot.size()) : 1;
+        }
+        if (queue.isEmpty()) {
+            timer.stop();
+            scheduled.set(false);
+            // A message that came in after the check above found the flag still set and did not schedule
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                timer.start();
+            }
+        }
+    }
+
+    private void recycle(BoardOp op) {
+        if (freeOpCount.incrementAndGet() <= MAX_POOLED_OPS) {
+            freeOps.offer(op);
+        } else {
+            freeOpCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.collabboard.board;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of board positions, reused across queries so looking up a region does not allocate.
+ */
+public final class IndexList {
+    private int[] items = new int[64];
+    private int size;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int item) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = item;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        return items[index];
+    }
+
+    /**
+     * Sorts ascending, i.e. into drawing order.
+     */
+    public void sort() {
+        Arrays.sort(items, 0, size);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.collabboard.board;
+
+import java.util.Arrays;
+
+/**
+ * The undo and redo stacks of this participant. Only its own actions are on them, so undo never takes back what
+ * someone else did: undoing a drawing deletes the object, undoing a delete restores it, and redo does the
+ * opposite. Both come out as ordinary DELETE and RESTORE operations that converge like any other, see
+ * {@link BoardDocument}.
+ * <p>
+ * Entries refer to objects by order key. Only used from the FX thread.
+ */
+public final class LocalHistory {
+    // Order key of the object, and whether the action drew it (rather than deleted it)
+    private long[] undoKeys = new long[64];
+    private boolean[] undoDrawn = new boolean[64];
+    private int undoSize;
+    private long[] redoKeys = new long[64];
+    private boolean[] redoDrawn = new boolean[64];
+    private int redoSize;
+
+    /**
+     * Records an object this participant drew; clears what could have been redone.
+     */
+    public void drawn(long key) {
+        push(key, true);
+    }
+
+    /**
+     * Records an object this participant deleted; clears what could have been redone.
+     */
+    public void deleted(long key) {
+        push(key, false);
+    }
+
+    public boolean canUndo() {
+        return undoSize > 0;
+    }
+
+    public boolean canRedo() {
+        return redoSize > 0;
+    }
+
+    /**
+     * Takes back the latest action.
+     * @return {@code into} as the DELETE or RESTORE that does it, without an op id yet; null if there is nothing
+     *         to undo.
+     */
+    public BoardOp undo(BoardOp into) {
+        if (undoSize == 0) {
+            return null;
+        }
+        undoSize--;
+        long key = undoKeys[undoSize];
+        boolean drawn = undoDrawn[undoSize];
+        ensureRedoCapacity(redoSize + 1);
+        redoKeys[redoSize] = key;
+        redoDrawn[redoSize] = drawn;
+        redoSize++;
+        return into.reset(drawn ? BoardOp.Kind.DELETE : BoardOp.Kind.RESTORE).target(BoardDocument.opId(key));
+    }
+
+    /**
+     * Does the latest undone action again.
+     * @return {@code into} as the DELETE or RESTORE that does it, without an op id yet; null if there is nothing
+     *         to redo.
+     */
+    public BoardOp redo(BoardOp into) {
+        if (redoSize == 0) {
+            return null;
+        }
+        redoSize--;
+        long key = redoKeys[redoSize];
+        boolean drawn = redoDrawn[redoSize];
+        ensureUndoCapacity(undoSize + 1);
+        undoKeys[undoSize] = key;
+        undoDrawn[undoSize] = drawn;
+        undoSize++;
+        return into.reset(drawn ? BoardOp.Kind.RESTORE : BoardOp.Kind.DELETE).target(BoardDocument.opId(key));
+    }
+
+    /**
+     * Forgets the objects a CLEAR removed; they cannot come back.
+     * @param clearKey Order key of the CLEAR.
+     */
+    public void cleared(long clearKey) {
+        undoSize = retainFrom(undoKeys, undoDrawn, undoSize, clearKey);
+        redoSize = retainFrom(redoKeys, redoDrawn, redoSize, clearKey);
+    }
+
+    private void push(long key, boolean drawn) {
+        ensureUndoCapacity(undoSize + 1);
+        undoKeys[undoSize] = key;
+        undoDrawn[undoSize] = drawn;
+        undoSize++;
+        redoSize = 0;
+    }
+
+    private static int retainFrom(long[] keys, boolean[] drawn, int size, long clearKey) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] > clearKey) {
+                keys[kept] = keys[i];
+                drawn[kept] = drawn[i];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    private void ensureUndoCapacity(int capacity) {
+        if (capacity > undoKeys.length) {
+            undoKeys = Arrays.copyOf(undoKeys, capacity * 2);
+            undoDrawn = Arrays.copyOf(undoDrawn, capacity * 2);
+        }
+    }
+
+    private void ensureRedoCapacity(int capacity) {
+        if (capacity > redoKeys.length) {
+            redoKeys = Arrays.copyOf(redoKeys, capacity * 2);
+            redoDrawn = Arrays.copyOf(redoDrawn, capacity * 2);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.collabboard.board;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree over the bounding boxes of the objects of a {@link BoardDocument}.
+ * <p>
+ * Each object is stored in the smallest node that contains its whole box, so insert and delete follow a single
+ * path and a range query only visits nodes that overlap the range. The root doubles in size whenever an object
+ * lands outside it, so the board has no fixed extent. Boxes are read from the document, which must not change
+ * an object's box while it is in the index.
+ */
+final class SpatialIndex {
+    private static final int NODE_CAPACITY = 16;
+    private static final int MAX_DEPTH = 20;
+    private static final double INITIAL_SIZE = 4096;
+    private static final double MAX_SIZE = 1e9;
+
+    private final BoardDocument board;
+    private Node root;
+    private int size;
+
+    SpatialIndex(BoardDocument board) {
+        this.board = board;
+        clear();
+    }
+
+    void clear() {
+        root = new Node(0, 0, INITIAL_SIZE, 0);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void insert(int item) {
+        float x0 = board.minX(item), y0 = board.minY(item), x1 = board.maxX(item), y1 = board.maxY(item);
+        while (!root.contains(x0, y0, x1, y1) && root.size < MAX_SIZE
+                && Float.isFinite(x0) && Float.isFinite(y0) && Float.isFinite(x1) && Float.isFinite(y1)) {
+            grow(x0, y0);
+        }
+        Node node = root;
+        while (true) {
+            Node child = node.childContaining(x0, y0, x1, y1);
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        node.add(item);
+        size++;
+        if (node.count > NODE_CAPACITY && node.children == null && node.depth < MAX_DEPTH) {
+            split(node);
+        }
+    }
+
+    /**
+     * @return false if the object was not in the index.
+     */
+    boolean remove(int item) {
+        float x0 = board.minX(item), y0 = board.minY(item), x1 = board.maxX(item), y1 = board.maxY(item);
+        Node node = root;
+        while (node != null) {
+            if (node.remove(item)) {
+                size--;
+                return true;
+            }
+            node = node.childContaining(x0, y0, x1, y1);
+        }
+        return false;
+    }
+
+    /**
+     * Adds every object whose box overlaps the rectangle to {@code result}, in no particular order.
+     */
+    void query(double x0, double y0, double x1, double y1, IndexList result) {
+        query(root, x0, y0, x1, y1, result);
+    }
+
+    private void query(Node node, double x0, double y0, double x1, double y1, IndexList result) {
+        for (int i = 0; i < node.count; i++) {
+            int item = node.items[i];
+            if (board.intersects(item, x0, y0, x1, y1)) {
+                result.add(item);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child.overlaps(x0, y0, x1, y1)) {
+                    query(child, x0, y0, x1, y1, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubles the root towards the given point; the old root becomes one of its quadrants.
+     */
+    private void grow(float towardsX, float towardsY) {
+        Node old = root;
+        double x = towardsX < old.x ? old.x - old.size : old.x;
+        double y = towardsY < old.y ? old.y - old.size : old.y;
+        Node grown = new Node(x, y, old.size * 2, 0);
+        grown.children = new Node[4];
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            double childX = x + (quadrant & 1) * old.size;
+            double childY = y + (quadrant >> 1) * old.size;
+            grown.children[quadrant] = childX == old.x && childY == old.y ? old : new Node(childX, childY, old.size, 1);
+        }
+        root = grown;
+        // Depths count from the root, so everything below moved down a level
+        deepen(old);
+    }
+
+    private static void deepen(Node node) {
+        node.depth++;
+        if (node.children != null) {
+            for (Node child : node.children) {
+                deepen(child);
+            }
+        }
+    }
+
+    private void split(Node node) {
+        double half = node.size / 2;
+        node.children = new Node[4];
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            node.children[quadrant] = new Node(node.x + (quadrant & 1) * half, node.y + (quadrant >> 1) * half,
+                    half, node.depth + 1);
+        }
+        int kept = 0;
+        for (int i = 0; i < node.count; i++) {
+            int item = node.items[i];
+            Node child = node.childContaining(board.minX(item), board.minY(item), board.maxX(item), board.maxY(item));
+            if (child != null) {
+                child.add(item);
+            } else {
+                node.items[kept++] = item;
+            }
+        }
+        node.count = kept;
+    }
+
+    private static final class Node {
+        final double x;
+        final double y;
+        final double size;
+        int depth;
+        int[] items = new int[4];
+        int count;
+        Node[] children;
+
+        Node(double x, double y, double size, int depth) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.depth = depth;
+        }
+
+        boolean contains(double x0, double y0, double x1, double y1) {
+            return x0 >= x && y0 >= y && x1 < x + size && y1 < y + size;
+        }
+
+        boolean overlaps(double x0, double y0, double x1, double y1) {
+            return x0 < x + size && x1 >= x && y0 < y + size && y1 >= y;
+        }
+
+        Node childContaining(double x0, double y0, double x1, double y1) {
+            if (children == null) {
+                return null;
+            }
+            for (Node child : children) {
+                if (child.contains(x0, y0, x1, y1)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void add(int item) {
+            if (count == items.length) {
+                items = Arrays.copyOf(items, count * 2);
+            }
+            items[count++] = item;
+        }
+
+        boolean remove(int item) {
+            for (int i = 0; i < count; i++) {
+                if (items[i] == item) {
+                    items[i] = items[--count];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package com.example.collabboard.controller;
 
+import com.example.collabboard.board.BoardDocument;
+import com.example.collabboard.board.BoardFile;
+import com.example.collabboard.board.BoardSnapshot;
+import com.example.collabboard.board.BoardOp;
+import com.example.collabboard.board.BoardOpCodec;
+import com.example.collabboard.board.ColorCache;
+import com.example.collabboard.board.InboundPipeline;
+import com.example.collabboard.board.LocalHistory;
+import com.example.collabboard.render.BoardExporter;
+import com.example.collabboard.render.BoardRenderer;
+import com.example.collabboard.screen.ScreenQuality;
+import com.example.collabboard.screen.ScreenReceiver;
 import com.example.collabboard.service.CollaborationService;
 import com.example.collabboard.service.ScreenCaptureService;
 import com.example.collabboard.service.SessionManager;
 import com.example.collabboard.util.SceneManager;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.geometry.Pos;
@@ -14,6 +26,7 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
@@ -24,51 +37,145 @@ import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.control.ToggleGroup;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
-import javafx.scene.transform.Scale;
-import javafx.scene.text.Font;
+import javafx.scene.shape.Rectangle;
 import javafx.stage.FileChooser;
 import javafx.stage.Screen;
 import javafx.geometry.Rectangle2D;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
-import javax.imageio.ImageIO;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import javafx.scene.control.Tooltip;
 
 
 @Component
 public class WhiteboardController {
 
-    private enum Tool { SELECTION, HAND, PEN, TEXT, ERASER, RECTANGLE, OVAL, STICKY_NOTE, SHAPE  }
-
-    // Use Stacks for efficient push/pop operations for undo/redo
-    private final Stack<String> drawingHistory = new Stack<>();
-    private final Stack<String> redoHistory = new Stack<>();
+    private enum Tool { SELECTION, HAND, PEN, TEXT, ERASER, OBJECT_ERASER, RECTANGLE, OVAL, STICKY_NOTE, SHAPE  }
+
+    // Everything drawn on the board, in the same order for every participant, and what we can undo of it
+    private final BoardDocument board = new BoardDocument();
+    private final LocalHistory history = new LocalHistory();
+    private BoardRenderer renderer;
+
+    // The board is drawn in tiles, each with raster checkpoints that bound the cost of repainting after undo
+    @Value("${collabboard.board.tile-size:512}")
+    private int tileSize;
+    @Value("${collabboard.board.tile-cache-mb:256}")
+    private int tileCacheMb;
+    @Value("${collabboard.board.checkpoint-interval:500}")
+    private int checkpointInterval;
+    @Value("${collabboard.board.checkpoint-render-ms:20}")
+    private int checkpointRenderMillis;
+
+    // Incoming messages are decoded off the FX thread and applied in batches, once per pulse
+    @Value("${collabboard.board.inbound-max-per-frame:2000}")
+    private int inboundMaxPerFrame;
+    @Value("${collabboard.board.inbound-frame-budget-ms:8}")
+    private int inboundFrameBudgetMillis;
+    private InboundPipeline inbound;
+    // Whether the batches of the snapshot being merged changed the board, so its last one redraws
+    private boolean snapshotChanged;
+
+    // A board file being loaded, a block at a time while the frame budget lasts, or a line at a time for the older
+    // text format; what is loaded goes out in BOARD_SNAPSHOT messages instead of one message per object
+    @Value("${collabboard.board.load-frame-budget-ms:8}")
+    private int loadFrameBudgetMillis;
+    private BoardFile loadingFile;
+    private int loadingBlock;
+    private BufferedReader loadingText;
+    private long loadingTextBytes;
+    private long loadingTextRead;
+    // Of the text board: fresh op ids by saved op id, and by line for files from before op ids
+    private Map<String, String> loadedIds;
+    private List<String> idsByLine;
+    private BoardSnapshot loadingSnapshot;
+    private String loadButtonText;
+    // Images are exported off the FX thread, at a resolution picked for each export; the button shows progress
+    @Value("${collabboard.export.tile-size:512}")
+    private int exportTileSize;
+    @Value("${collabboard.export.threads:0}")
+    private int exportThreads;
+    @Value("${collabboard.export.memory-mb:256}")
+    private int exportMemoryMb;
+    @Value("${collabboard.export.default-dpi:150}")
+    private int exportDefaultDpi;
+    private BoardExporter exporter;
+    private BoardExporter.Export export;
+    private String exportButtonText;
+    private final AnimationTimer boardFileLoader = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            continueLoading();
+        }
+    };
 
     private GraphicsContext graphicsContext;
     private Tool currentTool = Tool.PEN;
+    // Board coordinates of the press and of the last drag event; the hand tool tracks screen coordinates instead
     private double startX, startY;
     private double lastX, lastY;
+    private double panX, panY;
+
+    // Op ids of our operations: this participant and a Lamport clock, see BoardDocument
+    private final String opIdPrefix = UUID.randomUUID().toString().substring(0, 8) + "-";
+    private int clock;
+
+    // --- Pen strokes: STROKE_BEGIN, a STROKE_POINTS batch per frame while drawing, STROKE_END ---
+    private static final double PEN_WIDTH = 2.0;
+    private String currentStrokeId;
+    private LiveStroke localStroke;
+    private final StringBuilder pendingStrokePoints = new StringBuilder();
+    private final AnimationTimer strokeFlushTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            flushStrokePoints();
+        }
+    };
+    // Other participants' strokes drawn right now, by stroke id
+    private final Map<String, LiveStroke> openStrokes = new HashMap<>();
+
+    // --- Eraser: a drag becomes one ERASE of all its squares, shown on the overlay until the mouse is released ---
+    private static final double ERASER_SIZE = 15.0;
+    private LiveStroke localErase;
+
+    // --- Selection and object eraser: hit-tested through the board's spatial index ---
+    private static final double HIT_TOLERANCE = 4.0;
+    // Order key of the selected object, or -1
+    private long selectedKey = -1;
+    private Rectangle selectionOutline;
+
+    // Board operations are encoded and decoded on the FX thread through these reused buffers
+    private final BoardOpCodec codec = new BoardOpCodec();
+    private final BoardOp outgoingOp = new BoardOp();
+    private final BoardOp decodedOp = new BoardOp();
     private double currentZoom = 1.0;
-    private Scale scaleTransform;
     private boolean isBoardLocked = false;
     
     // Screen sharing state
@@ -76,6 +183,10 @@ public class WhiteboardController {
     private String currentUserId;
     private java.util.Map<String, ImageView> participantScreens = new java.util.concurrent.ConcurrentHashMap<>();
     private java.util.Map<String, String> participantNames = new java.util.concurrent.ConcurrentHashMap<>();
+    // Each participant's shared screen, patched tile by tile into an image that is kept across frames
+    private final Map<String, ScreenReceiver> screenReceivers = new HashMap<>();
+    // Participants that announced they stopped sharing; their frames still queued behind the announcement are ignored
+    private final Set<String> stoppedSharing = new HashSet<>();
 
     // Canvas and core elements
     @FXML private AnchorPane canvasPane;
@@ -96,6 +207,7 @@ public class WhiteboardController {
     @FXML private ToggleButton noteTool;
     @FXML private ToggleButton shapeTool;
     @FXML private ToggleButton eraserTool;
+    @FXML private ToggleButton objectEraserTool;
     @FXML private ToggleButton lockBoardButton;
 
 
@@ -186,7 +298,15 @@ public class WhiteboardController {
         canvas.widthProperty().bind(parentPane.widthProperty());
         canvas.heightProperty().bind(parentPane.heightProperty());
 
+        // The canvas only shows strokes in progress; the board itself is drawn in tiles behind it
         graphicsContext = canvas.getGraphicsContext2D();
+        renderer = new BoardRenderer(canvas, board, tileSize, checkpointInterval, checkpointRenderMillis,
+                tileCacheMb * 1024L * 1024L, this::paintOverlay);
+        parentPane.getChildren().add(parentPane.getChildren().indexOf(canvas), renderer.tileLayer());
+        Rectangle viewportClip = new Rectangle();
+        viewportClip.widthProperty().bind(parentPane.widthProperty());
+        viewportClip.heightProperty().bind(parentPane.heightProperty());
+        parentPane.setClip(viewportClip);
         colorPicker.setValue(Color.BLACK);
 
         // Initialize zoom functionality
@@ -205,7 +325,9 @@ public class WhiteboardController {
         }
 
         // Initialize collaboration and UI
-        collaborationService.setOnDataReceived(this::parseData);
+        exporter = new BoardExporter(exportTileSize, exportThreads, exportMemoryMb * 1024L * 1024L);
+        inbound = new InboundPipeline(this::applyInbound, inboundMaxPerFrame, inboundFrameBudgetMillis);
+        collaborationService.setOnDataReceived(inbound::submit);
         setupCanvasEventHandlers();
         initializeUIComponents();
         
@@ -241,11 +363,15 @@ public class WhiteboardController {
     @FXML private void selectPenTool() { currentTool = Tool.PEN; }
     @FXML private void selectTextTool() { currentTool = Tool.TEXT; }
     @FXML private void selectEraserTool() { currentTool = Tool.ERASER; }
+    @FXML private void selectObjectEraserTool() { currentTool = Tool.OBJECT_ERASER; }
     @FXML private void selectRectangleTool() { currentTool = Tool.RECTANGLE; }
     @FXML private void selectOvalTool() { currentTool = Tool.OVAL; }
     @FXML private void selectStickyNoteTool() { currentTool = Tool.STICKY_NOTE; }
 
-    @FXML private void handleClearCanvas(ActionEvent event) { collaborationService.send("CLEAR"); }
+    @FXML private void handleClearCanvas(ActionEvent event) {
+        stopLoading();
+        commit(outgoingOp.reset(BoardOp.Kind.CLEAR));
+    }
 
     // Template Methods
     @FXML private void handleBrainstormingTemplate(ActionEvent event) {
@@ -343,6 +469,10 @@ public class WhiteboardController {
 
     @FXML
     private void handleExitRoom(ActionEvent event) throws IOException {
+        if (export != null) {
+            export.cancel();
+        }
+
         // Clean up screen sharing resources
         cleanupScreenSharing();
         
@@ -380,13 +510,10 @@ public class WhiteboardController {
     }
 
     private void applyZoomToCanvas() {
-        if (canvas != null) {
-            if (scaleTransform == null) {
-                scaleTransform = new Scale();
-                canvas.getTransforms().add(scaleTransform);
-            }
-            scaleTransform.setX(currentZoom);
-            scaleTransform.setY(currentZoom);
+        if (renderer != null) {
+            // The tiles are rasterized again at the new scale
+            renderer.setZoom(currentZoom);
+            refreshSelection();
         }
     }
 
@@ -401,20 +528,60 @@ public class WhiteboardController {
         }
     }
 
+    /**
+     * Exports the board as an image at a resolution the user picks, in the background. Clicking again while the
+     * export runs cancels it.
+     */
     @FXML
     void handleExportAsImage(ActionEvent event) {
+        if (export != null) {
+            export.cancel();
+            return;
+        }
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Image");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG Image", "*.png"));
+        FileChooser.ExtensionFilter pngFilter = new FileChooser.ExtensionFilter("PNG Image", "*.png");
+        fileChooser.getExtensionFilters().addAll(pngFilter,
+                new FileChooser.ExtensionFilter("JPEG Image", "*.jpg", "*.jpeg"));
         File file = fileChooser.showSaveDialog(canvas.getScene().getWindow());
-        if (file != null) {
+        if (file == null) {
+            return;
+        }
+        String name = file.getName().toLowerCase();
+        BoardExporter.Format format = name.endsWith(".png") ? BoardExporter.Format.PNG
+                : name.endsWith(".jpg") || name.endsWith(".jpeg") ? BoardExporter.Format.JPEG
+                : fileChooser.getSelectedExtensionFilter() == pngFilter ? BoardExporter.Format.PNG
+                : BoardExporter.Format.JPEG;
+
+        ChoiceDialog<Integer> dpiDialog = new ChoiceDialog<>(exportDefaultDpi, 96, 150, 300, 600);
+        dpiDialog.setTitle("Export Resolution");
+        dpiDialog.setHeaderText(null);
+        dpiDialog.setContentText("Dots per inch:");
+        dpiDialog.showAndWait().ifPresent(dpi -> {
             try {
-                WritableImage writableImage = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
-                canvas.snapshot(null, writableImage);
-                ImageIO.write(SwingFXUtils.fromFXImage(writableImage, null), "png", file);
-            } catch (IOException e) {
-                System.err.println("Error saving image: " + e.getMessage());
+                exportButtonText = exportBtn.getText();
+                export = exporter.export(board, file.toPath(), format, dpi,
+                        progress -> exportBtn.setText((int) (progress * 100) + "%"),
+                        this::exportFinished);
+            } catch (IllegalArgumentException e) {
+                exportButtonText = null;
+                new Alert(Alert.AlertType.WARNING, "Could not export the board: " + e.getMessage()).show();
             }
+        });
+    }
+
+    private void exportFinished(Throwable failure) {
+        export = null;
+        exportBtn.setText(exportButtonText);
+        exportButtonText = null;
+        if (failure instanceof CancellationException) {
+            System.out.println("Image export cancelled");
+        } else if (failure != null) {
+            System.err.println("Error exporting image: " + failure);
+            String reason = failure instanceof OutOfMemoryError
+                    ? "there is not enough memory, try a lower resolution"
+                    : failure.getMessage() != null ? failure.getMessage() : failure.toString();
+            new Alert(Alert.AlertType.ERROR, "Could not export the board: " + reason).show();
         }
     }
 
@@ -424,15 +591,21 @@ public class WhiteboardController {
         fileChooser.setTitle("Save Board State");
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CollabBoard File", "*.collab"));
         File file = fileChooser.showSaveDialog(canvas.getScene().getWindow());
-        if (file != null) {
-            try (PrintWriter writer = new PrintWriter(file)) {
-                for (String action : drawingHistory) {
-                    writer.println(action);
-                }
-            } catch (IOException e) {
+        if (file == null) {
+            return;
+        }
+        // Copied here, deflated and written in the background like an export
+        BoardFile.Contents contents = BoardFile.copy(board);
+        Thread saver = new Thread(() -> {
+            try {
+                BoardFile.write(contents, file.toPath());
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
                 System.err.println("Error saving board state: " + e.getMessage());
+                Platform.runLater(() ->
+                        new Alert(Alert.AlertType.ERROR, "Could not save the board: " + e.getMessage()).show());
             }
-        }
+        }, "board-save");
+        saver.start(); // Not a daemon, so closing the window does not cut a save short
     }
 
     @FXML
@@ -442,29 +615,180 @@ public class WhiteboardController {
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CollabBoard File", "*.collab"));
         File file = fileChooser.showOpenDialog(canvas.getScene().getWindow());
         if (file != null) {
+            stopLoading();
             try {
-                collaborationService.send("CLEAR");
-                List<String> actions = Files.readAllLines(file.toPath());
-                for (String action : actions) {
-                    collaborationService.send(action);
+                if (BoardFile.isBoardFile(file.toPath())) {
+                    loadingFile = BoardFile.open(file.toPath());
+                    loadingBlock = 0;
+                    loadOp(outgoingOp.reset(BoardOp.Kind.CLEAR));
+                    loadButtonText = loadBtn.getText();
+                    boardFileLoader.start();
+                } else {
+                    loadingText = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+                    loadingTextBytes = Math.max(1, Files.size(file.toPath()));
+                    loadingTextRead = 0;
+                    loadedIds = new HashMap<>();
+                    idsByLine = new ArrayList<>();
+                    loadOp(outgoingOp.reset(BoardOp.Kind.CLEAR));
+                    loadButtonText = loadBtn.getText();
+                    boardFileLoader.start();
                 }
             } catch (IOException e) {
                 System.err.println("Error loading board state: " + e.getMessage());
+                stopLoading();
+            }
+        }
+    }
+
+    /**
+     * Applies a loaded operation as a new one of ours, like {@link #commit}, but collects it into the snapshot
+     * that goes out for the load instead of sending it on its own.
+     */
+    private void loadOp(BoardOp op) {
+        op.opId(nextOpId());
+        apply(op);
+        if (loadingSnapshot == null) {
+            loadingSnapshot = new BoardSnapshot();
+        }
+        loadingSnapshot.add(codec.encode(op));
+        if (loadingSnapshot.isFull()) {
+            sendLoadedOps();
+        }
+    }
+
+    private void sendLoadedOps() {
+        if (loadingSnapshot != null) {
+            collaborationService.send(loadingSnapshot.toMessage());
+            loadingSnapshot = null;
+        }
+    }
+
+    /**
+     * Adds the next blocks of the board file being loaded, or the next lines of a text board, as new operations of
+     * ours, until the frame budget is used up. Each lands on top of the last, so what is loaded so far is drawn as
+     * it comes in.
+     */
+    private void continueLoading() {
+        long start = System.nanoTime();
+        try {
+            while ((loadingFile != null || loadingText != null)
+                    && System.nanoTime() - start < loadFrameBudgetMillis * 1_000_000L) {
+                if (loadingText != null) {
+                    String line = loadingText.readLine();
+                    if (line == null) {
+                        stopLoading();
+                    } else {
+                        loadingTextRead += line.length() + 1;
+                        loadBoardLine(line);
+                    }
+                } else if (loadingBlock == loadingFile.blockCount()) {
+                    stopLoading();
+                } else {
+                    loadingFile.readBlock(loadingBlock++, decodedOp, this::loadOp);
+                    loadBtn.setText(loadingBlock * 100 / loadingFile.blockCount() + "%");
+                }
+            }
+            if (loadingText != null) {
+                loadBtn.setText(Math.min(99, loadingTextRead * 100 / loadingTextBytes) + "%");
             }
+        } catch (IOException e) {
+            System.err.println("Error loading board state: " + e.getMessage());
+            stopLoading();
         }
+        refreshSelection();
+    }
+
+    /**
+     * Ends the current load, sending what was loaded so far: it is on our board already.
+     */
+    private void stopLoading() {
+        boardFileLoader.stop();
+        sendLoadedOps();
+        if (loadButtonText != null) {
+            loadBtn.setText(loadButtonText);
+            loadButtonText = null;
+        }
+        if (loadingFile != null) {
+            try {
+                loadingFile.close();
+            } catch (IOException e) {
+                System.err.println("Error closing board file: " + e.getMessage());
+            }
+            loadingFile = null;
+        }
+        if (loadingText != null) {
+            try {
+                loadingText.close();
+            } catch (IOException e) {
+                System.err.println("Error closing board file: " + e.getMessage());
+            }
+            loadingText = null;
+            loadedIds = null;
+            idsByLine = null;
+        }
+    }
+
+    /**
+     * Adds the next line of a board saved in the older text format, one operation per line, as a new operation of
+     * ours. Every object gets a fresh op id, so it comes after the CLEAR before it; a DELETE or RESTORE in the file
+     * is pointed at the fresh id of its target. Files from before op ids target the line of the object instead.
+     */
+    private void loadBoardLine(String line) {
+        idsByLine.add(null);
+        try {
+            if (line.startsWith("DELETE:") && isLineNumber(line, 7)) {
+                int targetLine = Integer.parseInt(line.substring(7));
+                if (targetLine < idsByLine.size() && idsByLine.get(targetLine) != null) {
+                    loadOp(decodedOp.reset(BoardOp.Kind.DELETE).target(idsByLine.get(targetLine)));
+                }
+                return;
+            }
+            if (!codec.decode(line, decodedOp)) {
+                return;
+            }
+            if (decodedOp.kind() == BoardOp.Kind.DELETE || decodedOp.kind() == BoardOp.Kind.RESTORE) {
+                String target = loadedIds.get(decodedOp.target());
+                if (target != null) {
+                    loadOp(decodedOp.target(target));
+                }
+            } else if (decodedOp.kind() != BoardOp.Kind.CLEAR) {
+                String savedId = decodedOp.opId();
+                loadOp(decodedOp);
+                idsByLine.set(idsByLine.size() - 1, decodedOp.opId());
+                if (savedId != null) {
+                    loadedIds.put(savedId, decodedOp.opId());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipping malformed operation: " + line);
+        }
+    }
+
+    private static boolean isLineNumber(String line, int from) {
+        if (from == line.length() || line.length() - from > 9) {
+            return false;
+        }
+        for (int i = from; i < line.length(); i++) {
+            if (line.charAt(i) < '0' || line.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     @FXML
     private void handleUndo(ActionEvent event) {
-        if (!drawingHistory.isEmpty()) {
-            collaborationService.send("UNDO");
+        if (history.canUndo()) {
+            commit(history.undo(outgoingOp));
+            refreshSelection();
         }
     }
 
     @FXML
     private void handleRedo(ActionEvent event) {
-        if (!redoHistory.isEmpty()) {
-            collaborationService.send("REDO");
+        if (history.canRedo()) {
+            commit(history.redo(outgoingOp));
+            refreshSelection();
         }
     }
 
@@ -492,6 +816,13 @@ public class WhiteboardController {
         canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, this::handleMousePressed);
         canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::handleMouseDragged);
         canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, this::handleMouseReleased);
+        canvas.addEventHandler(ScrollEvent.SCROLL, event -> {
+            renderer.pan(event.getDeltaX(), event.getDeltaY());
+            refreshSelection();
+        });
+        // Focusable so Delete reaches it after a selection click
+        canvas.setFocusTraversable(true);
+        canvas.addEventHandler(KeyEvent.KEY_PRESSED, this::handleKeyPressed);
     }
 
     private void initializeUIComponents() {
@@ -577,163 +908,438 @@ public class WhiteboardController {
     // --- MOUSE AND DATA PROCESSING ---
 
     private void handleMousePressed(MouseEvent event) {
-        startX = event.getX();
-        startY = event.getY();
+        startX = renderer.toBoardX(event.getX());
+        startY = renderer.toBoardY(event.getY());
         lastX = startX; // Initialize lastX/Y here
         lastY = startY;
+        panX = event.getX();
+        panY = event.getY();
+        if (currentTool == Tool.HAND) return; // Panning only moves the view, so it works on a locked board too
         if (isBoardLocked && !collaborationService.isHost()) return; // PREVENT ACTION IF LOCKED
         if (currentTool == Tool.PEN) {
-            graphicsContext.setStroke(colorPicker.getValue());
-            graphicsContext.setLineWidth(2.0);
-            graphicsContext.beginPath();
-            graphicsContext.moveTo(startX, startY);
-            graphicsContext.stroke();
+            localStroke = new LiveStroke(PEN_WIDTH, ColorCache.rgba(colorPicker.getValue()), colorPicker.getValue());
+            localStroke.add(startX, startY);
+            localStroke.paint(graphicsContext, 0);
+            currentStrokeId = nextOpId();
+            collaborationService.send(codec.encode(outgoingOp.reset(BoardOp.Kind.STROKE_BEGIN).strokeId(currentStrokeId)
+                    .width(PEN_WIDTH).color(colorPicker.getValue()).add(startX, startY)));
+            strokeFlushTimer.start();
+        } else if (currentTool == Tool.ERASER) {
+            localErase = LiveStroke.eraser(ERASER_SIZE);
+            localErase.add(startX, startY);
+            localErase.paint(graphicsContext, 0);
         } else if (currentTool == Tool.STICKY_NOTE) {
-            createTemporaryTextArea(startX, startY);
+            createTemporaryTextArea(startX, startY, event.getX(), event.getY());
+        } else if (currentTool == Tool.SELECTION) {
+            canvas.requestFocus();
+            select(board.topmostAt(startX, startY, HIT_TOLERANCE));
+        } else if (currentTool == Tool.OBJECT_ERASER) {
+            eraseObjectAt(startX, startY);
         }
     }
 
     private void handleMouseDragged(MouseEvent event) {
-        if (currentTool != Tool.PEN && currentTool != Tool.ERASER) return;
-        double x = event.getX();
-        double y = event.getY();
-        String data = null;
+        if (currentTool == Tool.HAND) {
+            renderer.pan(event.getX() - panX, event.getY() - panY);
+            panX = event.getX();
+            panY = event.getY();
+            refreshSelection();
+            return;
+        }
+        if (currentTool != Tool.PEN && currentTool != Tool.ERASER && currentTool != Tool.OBJECT_ERASER) return;
+        double x = renderer.toBoardX(event.getX());
+        double y = renderer.toBoardY(event.getY());
         if (isBoardLocked && !collaborationService.isHost()) return; // PREVENT ACTION IF LOCKED
         if (currentTool == Tool.PEN) {
-            graphicsContext.lineTo(x, y);
-            graphicsContext.stroke();
-            data = String.format("DRAW:%.2f,%.2f,%.2f,%.2f,%s", lastX, lastY, x, y, colorPicker.getValue().toString());
-
+            if (localStroke != null) {
+                int from = localStroke.count - 2;
+                localStroke.add(x, y);
+                localStroke.paint(graphicsContext, from);
+            }
+            // Sent with the next frame's STROKE_POINTS batch
+            if (currentStrokeId != null) {
+                pendingStrokePoints.append(',');
+                BoardOpCodec.appendNumber(pendingStrokePoints, x);
+                pendingStrokePoints.append(',');
+                BoardOpCodec.appendNumber(pendingStrokePoints, y);
+            }
         } else if (currentTool == Tool.ERASER) {
-            double eraserSize = 15.0;
-            eraseData(String.format("%.2f,%.2f,%.2f", x, y, eraserSize));
-            data = String.format("ERASE:%.2f,%.2f,%.2f", x, y, eraserSize);
-        }
-        if (data != null) {
-            collaborationService.send(data);
+            if (localErase != null) {
+                int from = localErase.count;
+                localErase.add(x, y);
+                localErase.paint(graphicsContext, from);
+            }
+        } else if (currentTool == Tool.OBJECT_ERASER) {
+            eraseObjectAt(x, y);
         }
         lastX = x;
         lastY = y;
     }
 
     private void handleMouseReleased(MouseEvent event) {
+        if (currentStrokeId != null) {
+            strokeFlushTimer.stop();
+            flushStrokePoints();
+            collaborationService.send("STROKE_END:" + currentStrokeId);
+            // Moves from the overlay into the tiles
+            history.drawn(apply(localStroke.toOp(decodedOp).opId(currentStrokeId)));
+            localStroke = null;
+            currentStrokeId = null;
+            renderer.repaintOverlay();
+        }
+        if (localErase != null) {
+            // One object and one undo step for the whole drag
+            history.drawn(commit(localErase.toOp(outgoingOp)));
+            localErase = null;
+            renderer.repaintOverlay();
+        }
         if (currentTool != Tool.RECTANGLE && currentTool != Tool.OVAL) return;
-        double endX = event.getX();
-        double endY = event.getY();
-        Color color = colorPicker.getValue();
-        String data = null;
+        double endX = renderer.toBoardX(event.getX());
+        double endY = renderer.toBoardY(event.getY());
         double x = Math.min(startX, endX);
         double y = Math.min(startY, endY);
         double width = Math.abs(startX - endX);
         double height = Math.abs(startY - endY);
         if (isBoardLocked && !collaborationService.isHost()) return; // PREVENT ACTION IF LOCKED
-        if (currentTool == Tool.RECTANGLE) {
-            data = String.format("RECTANGLE:%.2f,%.2f,%.2f,%.2f,%s", x, y, width, height, color.toString());
-        } else if (currentTool == Tool.OVAL) {
-            data = String.format("OVAL:%.2f,%.2f,%.2f,%.2f,%s", x, y, width, height, color.toString());
+        BoardOp.Kind kind = currentTool == Tool.RECTANGLE ? BoardOp.Kind.RECTANGLE : BoardOp.Kind.OVAL;
+        history.drawn(commit(outgoingOp.reset(kind).add(x, y).add(width, height).color(colorPicker.getValue())));
+    }
+
+    /**
+     * Gives one of our operations its op id, applies it to our board right away and sends it. The cloud relay
+     * sends it back to us too; applyInbound recognizes the echo by our op id prefix and drops it.
+     * @return The order key of the operation.
+     */
+    private long commit(BoardOp op) {
+        op.opId(nextOpId());
+        apply(op);
+        collaborationService.send(codec.encode(op));
+        return BoardDocument.key(op.opId());
+    }
+
+    /**
+     * Applies a board operation, ours or anyone's, and redraws what it changed.
+     * @return The order key of the operation.
+     */
+    private long apply(BoardOp op) {
+        long key = BoardDocument.key(op.opId());
+        if (op.kind() == BoardOp.Kind.CLEAR) {
+            history.cleared(key);
         }
-        if (data != null) {
-            collaborationService.send(data);
+        int position = board.apply(op);
+        if (position >= 0) {
+            if (op.kind() == BoardOp.Kind.CLEAR) {
+                renderer.reset();
+            } else if (op.kind() == BoardOp.Kind.DELETE || op.kind() == BoardOp.Kind.RESTORE) {
+                renderer.repaint(position);
+            } else {
+                renderer.drawInserted(position);
+            }
         }
+        return key;
     }
 
-    private void parseData(String data) {
-        // When a new drawing action occurs, clear the redo history
-        if (data.startsWith("DRAW:") || data.startsWith("ERASE:") || data.startsWith("RECTANGLE:") || data.startsWith("OVAL:") || data.startsWith("STICKY_NOTE:")) {
-            drawingHistory.push(data);
-            redoHistory.clear();
-        } else if (data.equals("CLEAR")) {
-            drawingHistory.clear();
-            redoHistory.clear();
+    /**
+     * @return A new op id, its clock past everything seen on the board so far.
+     */
+    private String nextOpId() {
+        clock = Math.max(clock, board.clock()) + 1;
+        return opIdPrefix + clock;
+    }
+
+    private void handleKeyPressed(KeyEvent event) {
+        if ((event.getCode() == KeyCode.DELETE || event.getCode() == KeyCode.BACK_SPACE) && selectedKey >= 0) {
+            if (isBoardLocked && !collaborationService.isHost()) return; // PREVENT ACTION IF LOCKED
+            delete(selectedKey);
+            select(-1);
+            event.consume();
         }
+    }
 
-        Platform.runLater(() -> {
-            try {
-                if (data.equals("CLEAR")) {
-                    graphicsContext.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-                    return;
-                }
-                if ("UNDO".equals(data)) {
-                    if (!drawingHistory.isEmpty()) {
-                        redoHistory.push(drawingHistory.pop());
-                        redrawCanvas();
-                    }
-                    return;
-                }
-                if ("REDO".equals(data)) {
-                    if (!redoHistory.isEmpty()) {
-                        drawingHistory.push(redoHistory.pop());
-                        redrawCanvas();
-                    }
-                    return;
-                }
-                // --- NEW: Handle Session Management Commands ---
-                if ("LOCK_BOARD".equals(data)) {
-                    isBoardLocked = true;
-                    if (lockBoardButton.isVisible()) { // If host, update button state
-                        lockBoardButton.setSelected(true);
-                        lockBoardButton.setText("🔓");
-                    }
-                    return;
+    /**
+     * Deletes the topmost object under the object eraser. It is hidden right away, so the rest of the drag hits
+     * what is below it.
+     */
+    private void eraseObjectAt(double x, double y) {
+        if (isBoardLocked && !collaborationService.isHost()) return; // PREVENT ACTION IF LOCKED
+        int position = board.topmostAt(x, y, HIT_TOLERANCE);
+        if (position >= 0) {
+            delete(board.key(position));
+        }
+    }
+
+    private void delete(long key) {
+        commit(outgoingOp.reset(BoardOp.Kind.DELETE).target(BoardDocument.opId(key)));
+        history.deleted(key);
+    }
+
+    private void select(int position) {
+        selectedKey = position >= 0 ? board.key(position) : -1;
+        refreshSelection();
+    }
+
+    /**
+     * Outlines the selected object, or drops the selection once the object left the board through undo, delete
+     * or clear.
+     */
+    private void refreshSelection() {
+        int selectedPosition = selectedKey >= 0 ? board.indexOf(selectedKey) : -1;
+        if (selectedPosition < 0 || board.isHidden(selectedPosition)) {
+            selectedKey = -1;
+            selectedPosition = -1;
+        }
+        if (selectedPosition < 0) {
+            if (selectionOutline != null) {
+                selectionOutline.setVisible(false);
+            }
+            return;
+        }
+        if (selectionOutline == null) {
+            selectionOutline = new Rectangle();
+            selectionOutline.setFill(Color.TRANSPARENT);
+            selectionOutline.setStroke(Color.web("#2196f3"));
+            selectionOutline.getStrokeDashArray().addAll(6.0, 4.0);
+            selectionOutline.setMouseTransparent(true);
+            selectionOutline.setManaged(false);
+            canvasPane.getChildren().add(selectionOutline);
+        }
+        // Board coordinates to the pane, through the scroll position and zoom
+        double minX = renderer.toScreenX(board.minX(selectedPosition)) - HIT_TOLERANCE;
+        double minY = renderer.toScreenY(board.minY(selectedPosition)) - HIT_TOLERANCE;
+        double maxX = renderer.toScreenX(board.maxX(selectedPosition)) + HIT_TOLERANCE;
+        double maxY = renderer.toScreenY(board.maxY(selectedPosition)) + HIT_TOLERANCE;
+        selectionOutline.setX(canvas.getLayoutX() + minX);
+        selectionOutline.setY(canvas.getLayoutY() + minY);
+        selectionOutline.setWidth(maxX - minX);
+        selectionOutline.setHeight(maxY - minY);
+        selectionOutline.setVisible(true);
+    }
+
+    private void flushStrokePoints() {
+        if (currentStrokeId != null && pendingStrokePoints.length() > 0) {
+            collaborationService.send("STROKE_POINTS:" + currentStrokeId + pendingStrokePoints);
+            pendingStrokePoints.setLength(0);
+        }
+    }
+
+    /**
+     * Applies one incoming message on the FX thread; board operations arrive already decoded.
+     */
+    private void applyInbound(InboundPipeline.Inbound message) {
+        String data = message.text;
+        try {
+            // Operations commute, so they are applied as they come
+            // --- Loaded boards and the late-joiner sync: merged a batch at a time, rendered once ---
+            if (message.snapshot != null) {
+                mergeSnapshot(message.snapshot, message.lastBatch);
+                return;
+            }
+            BoardOp op = message.op;
+            if (op != null) {
+                if (op.kind() == BoardOp.Kind.STROKE_BEGIN || op.kind() == BoardOp.Kind.STROKE_POINTS
+                        || op.kind() == BoardOp.Kind.STROKE_END) {
+                    handleStrokeData(op);
+                } else if (op.opId() == null || !op.opId().startsWith(opIdPrefix)) {
+                    apply(op);
                 }
-                if ("UNLOCK_BOARD".equals(data)) {
-                    isBoardLocked = false;
-                    if (lockBoardButton.isVisible()) {
-                        lockBoardButton.setSelected(false);
-                        lockBoardButton.setText("🔒");
-                    }
-                    return;
+                // else our own operation, echoed by the cloud relay; it was applied when it was made
+                return;
+            }
+            // --- NEW: Handle Session Management Commands ---
+            if ("LOCK_BOARD".equals(data)) {
+                isBoardLocked = true;
+                if (lockBoardButton.isVisible()) { // If host, update button state
+                    lockBoardButton.setSelected(true);
+                    lockBoardButton.setText("🔓");
                 }
-                if (data.startsWith("USER_LIST:")) {
-                    String usersData = data.length() > 10 ? data.substring(10) : "";
-                    updateParticipantsUI(usersData.split(","));
-                    return;
+                return;
+            }
+            if ("UNLOCK_BOARD".equals(data)) {
+                isBoardLocked = false;
+                if (lockBoardButton.isVisible()) {
+                    lockBoardButton.setSelected(false);
+                    lockBoardButton.setText("🔒");
                 }
-                if ("YOU_WERE_KICKED".equals(data)) {
-                    collaborationService.stop();
+                return;
+            }
+            if (data.startsWith("USER_LIST:")) {
+                String usersData = data.length() > 10 ? data.substring(10) : "";
+                updateParticipantsUI(usersData.split(","));
+                return;
+            }
+            if ("YOU_WERE_KICKED".equals(data)) {
+                collaborationService.stop();
+                // Messages are applied during a pulse, where a nested event loop is not allowed
+                Platform.runLater(() -> {
                     Alert alert = new Alert(Alert.AlertType.WARNING, "You have been removed from the session by the host.");
                     alert.setHeaderText("Session Ended");
                     alert.showAndWait();
                     SceneManager.switchScene(new ActionEvent(canvas, null), "DashboardView.fxml", "CollabBoard", applicationContext);
-                    return;
-                }
+                });
+                return;
+            }
 
-                String[] parts = data.split(":", 2);
-                String command = parts[0];
-                String content = parts[1];
-                switch (command) {
-                    case "DRAW": drawData(content); break;
-                    case "ERASE": eraseData(content); break;
-                    case "RECTANGLE": drawRectangle(content); break;
-                    case "OVAL": drawOval(content); break;
-                    case "STICKY_NOTE": drawStickyNote(content); break;
-                    case "CHAT":
-                        chatListView.getItems().add(content);
-                        chatListView.scrollTo(chatListView.getItems().size() - 1);
-                        break;
-                }
-                
-                // Handle screen sharing messages
-                if (data.startsWith("SCREEN_SHARE:")) {
-                    handleScreenshotData(data);
-                } else if (data.startsWith("SCREEN_SHARE_STATUS:")) {
-                    handleScreenSharingStatus(data);
-                } else if (data.startsWith("USER_LIST:")) {
-                    // Update participant names for screen sharing
-                    String userList = data.substring("USER_LIST:".length());
-                    String[] users = userList.split(",");
-                    participantNames.clear();
-                    for (String user : users) {
-                        if (!user.isEmpty()) {
-                            participantNames.put(user, user);
-                        }
+            if (data.startsWith("CHAT:")) {
+                chatListView.getItems().add(data.substring(5));
+                chatListView.scrollTo(chatListView.getItems().size() - 1);
+            }
+            
+            // Handle screen sharing messages
+            if (data.startsWith("SCREEN_SHARE:")) {
+                handleScreenshotData(data);
+            } else if (data.startsWith("SCREEN_SHARE_STATUS:")) {
+                handleScreenSharingStatus(data);
+            } else if (data.startsWith("USER_LIST:")) {
+                // Update participant names for screen sharing
+                String userList = data.substring("USER_LIST:".length());
+                String[] users = userList.split(",");
+                participantNames.clear();
+                for (String user : users) {
+                    if (!user.isEmpty()) {
+                        participantNames.put(user, user);
                     }
                 }
-                
-            } catch (Exception e) {
-                System.err.println("Could not parse incoming data: " + data);
+                // Someone who just joined has no frame to patch yet
+                if (isScreenSharing) {
+                    screenCaptureService.requestKeyframe();
+                }
             }
-        });
+            
+        } catch (Exception e) {
+            System.err.println("Could not parse incoming data: " + data);
+        } finally {
+            refreshSelection();
+        }
+    }
+
+    /**
+     * Renders a remote pen stroke progressively as its point batches arrive. The finished stroke enters the
+     * board as one STROKE object, its stroke id as op id, so undo removes it as a whole.
+     */
+    private void handleStrokeData(BoardOp op) {
+        if (op.strokeId().startsWith(opIdPrefix)) {
+            return; // Our own stroke, on the board since the mouse was released
+        }
+        if (op.kind() == BoardOp.Kind.STROKE_BEGIN) {
+            LiveStroke stroke = new LiveStroke(op.width(), op.rgba(), op.color());
+            stroke.add(op);
+            openStrokes.put(op.strokeId(), stroke);
+        } else if (op.kind() == BoardOp.Kind.STROKE_POINTS) {
+            LiveStroke stroke = openStrokes.get(op.strokeId());
+            if (stroke == null) {
+                return; // Began before we joined; the host's snapshot will contain it
+            }
+            int from = stroke.count - 2;
+            stroke.add(op);
+            stroke.paint(graphicsContext, from);
+        } else if (op.kind() == BoardOp.Kind.STROKE_END) {
+            LiveStroke stroke = openStrokes.remove(op.strokeId());
+            if (stroke != null) {
+                // Moves from the overlay into the tiles
+                apply(stroke.toOp(decodedOp).opId(op.strokeId()));
+                renderer.repaintOverlay();
+            }
+        }
+    }
+
+    /**
+     * Draws the strokes and the erasing in progress onto the overlay, which the renderer has just cleared.
+     */
+    private void paintOverlay() {
+        if (localStroke != null) {
+            localStroke.paint(graphicsContext, 0);
+        }
+        if (localErase != null) {
+            localErase.paint(graphicsContext, 0);
+        }
+        for (LiveStroke stroke : openStrokes.values()) {
+            stroke.paint(graphicsContext, 0);
+        }
+    }
+
+    /**
+     * A pen stroke that is not part of the board yet: ours while the mouse is down, or another participant's
+     * while its point batches arrive. Our eraser drag is kept the same way, as the squares it clears.
+     */
+    private static class LiveStroke {
+        private final BoardOp.Kind kind;
+        private final double width;
+        private final int rgba;
+        private final Color color;
+        private double[] points = new double[64];
+        private int count;
+
+        LiveStroke(double width, int rgba, Color color) {
+            this(BoardOp.Kind.STROKE, width, rgba, color);
+        }
+
+        private LiveStroke(BoardOp.Kind kind, double width, int rgba, Color color) {
+            this.kind = kind;
+            this.width = width;
+            this.rgba = rgba;
+            this.color = color;
+        }
+
+        /**
+         * An eraser drag; it shows in the white of the canvas until the ERASE is on the board.
+         */
+        static LiveStroke eraser(double size) {
+            return new LiveStroke(BoardOp.Kind.ERASE, size, 0, Color.WHITE);
+        }
+
+        void add(double x, double y) {
+            if (count + 2 > points.length) {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[count++] = x;
+            points[count++] = y;
+        }
+
+        void add(BoardOp op) {
+            int n = op.coordCount();
+            if (count + n > points.length) {
+                points = Arrays.copyOf(points, Math.max(count + n, points.length * 2));
+            }
+            for (int i = 0; i < n; i++) {
+                points[count++] = op.coord(i);
+            }
+        }
+
+        /**
+         * @return {@code into} as the finished STROKE or ERASE object, without an op id.
+         */
+        BoardOp toOp(BoardOp into) {
+            into.reset(kind).width(width).rgba(rgba);
+            for (int i = 0; i < count; i++) {
+                into.add(points[i]);
+            }
+            return into;
+        }
+
+        /**
+         * Draws the stroke from point coordinate {@code from} on, in board coordinates.
+         */
+        void paint(GraphicsContext graphicsContext, int from) {
+            if (count < 2) {
+                return;
+            }
+            from = Math.max(0, from);
+            if (kind == BoardOp.Kind.ERASE) {
+                graphicsContext.setFill(color);
+                for (int i = from; i + 1 < count; i += 2) {
+                    graphicsContext.fillRect(points[i] - width / 2, points[i + 1] - width / 2, width, width);
+                }
+                return;
+            }
+            graphicsContext.setStroke(color);
+            graphicsContext.setLineWidth(width);
+            graphicsContext.beginPath();
+            graphicsContext.moveTo(points[from], points[from + 1]);
+            for (int i = from + 2; i + 1 < count; i += 2) {
+                graphicsContext.lineTo(points[i], points[i + 1]);
+            }
+            graphicsContext.stroke();
+        }
     }
 
     // --- HELPER METHODS ---
@@ -773,35 +1379,51 @@ public class WhiteboardController {
     }
 
 
-    private void redrawCanvas() {
-        graphicsContext.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        // Iterate through a copy to draw from oldest to newest
-        for (String action : new ArrayList<>(drawingHistory)) {
-            String[] parts = action.split(":", 2);
-            String command = parts[0];
-            String content = parts[1];
-            switch (command) {
-                case "DRAW": drawData(content); break;
-                case "ERASE": eraseData(content); break;
-                case "RECTANGLE": drawRectangle(content); break;
-                case "OVAL": drawOval(content); break;
-                case "STICKY_NOTE": drawStickyNote(content); break;
+    /**
+     * Merges a batch of a BOARD_SNAPSHOT, a loaded board, or of the host's BOARD_SYNC without drawing, and renders
+     * once after the last batch of the message if anything changed. Operations we already have, such as our own
+     * snapshot coming back, change nothing, so nothing needs to be reset first.
+     */
+    private void mergeSnapshot(List<BoardOp> ops, boolean lastBatch) {
+        for (BoardOp op : ops) {
+            try {
+                snapshotChanged |= merge(op);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping malformed operation in board snapshot: " + e.getMessage());
             }
         }
+        if (lastBatch && snapshotChanged) {
+            snapshotChanged = false;
+            renderer.redraw();
+        }
+    }
+
+    /**
+     * Applies an operation without drawing anything.
+     * @return Whether the board changed.
+     */
+    private boolean merge(BoardOp op) {
+        if (op.kind() == BoardOp.Kind.CLEAR) {
+            history.cleared(BoardDocument.key(op.opId()));
+        }
+        return board.apply(op) >= 0;
     }
 
-    private void createTemporaryTextArea(double x, double y) {
+    /**
+     * @param x Board coordinates of the note.
+     * @param screenX Where the note is on screen.
+     */
+    private void createTemporaryTextArea(double x, double y, double screenX, double screenY) {
         TextArea textArea = new TextArea();
-        textArea.setLayoutX(x);
-        textArea.setLayoutY(y);
-        textArea.setPrefSize(150, 100);
+        textArea.setLayoutX(canvas.getLayoutX() + screenX);
+        textArea.setLayoutY(canvas.getLayoutY() + screenY);
+        textArea.setPrefSize(BoardDocument.STICKY_NOTE_WIDTH * renderer.zoom(), BoardDocument.STICKY_NOTE_HEIGHT * renderer.zoom());
         textArea.setStyle("-fx-font-size: 14px; -fx-background-color: #FFFFE0;");
         textArea.setWrapText(true);
         textArea.setOnKeyPressed(event -> {
             if (event.getCode() == KeyCode.ENTER && !event.isShiftDown()) {
-                String text = textArea.getText().replace(":", "").replace(",", "");
-                String data = String.format("STICKY_NOTE:%.2f,%.2f,%s", x, y, text);
-                collaborationService.send(data);
+                // The codec escapes separators and line breaks, so the text goes out as typed
+                history.drawn(commit(outgoingOp.reset(BoardOp.Kind.STICKY_NOTE).add(x, y).text(textArea.getText())));
                 canvasPane.getChildren().remove(textArea);
                 event.consume();
             }
@@ -810,95 +1432,6 @@ public class WhiteboardController {
         textArea.requestFocus();
     }
 
-    private void drawData(String content) {
-        try {
-            String[] params = content.split(",");
-            double startX = Double.parseDouble(params[0]);
-            double startY = Double.parseDouble(params[1]);
-            double endX = Double.parseDouble(params[2]);
-            double endY = Double.parseDouble(params[3]);
-            Color color = Color.valueOf(params[4]);
-            graphicsContext.setStroke(color);
-            graphicsContext.setLineWidth(2.0);
-            graphicsContext.beginPath();
-            graphicsContext.moveTo(startX, startY);
-            graphicsContext.lineTo(endX, endY);
-            graphicsContext.stroke();
-        } catch (Exception e) {
-            System.err.println("Error drawing data: " + content);
-        }
-    }
-
-    private void eraseData(String content) {
-        try {
-            String[] params = content.split(",");
-            double x = Double.parseDouble(params[0]);
-            double y = Double.parseDouble(params[1]);
-            double size = Double.parseDouble(params[2]);
-            graphicsContext.clearRect(x - size / 2, y - size / 2, size, size);
-        } catch (Exception e) {
-            System.err.println("Error erasing data: " + content);
-        }
-    }
-
-    private void drawRectangle(String content) {
-        try {
-            String[] params = content.split(",");
-            double x = Double.parseDouble(params[0]);
-            double y = Double.parseDouble(params[1]);
-            double width = Double.parseDouble(params[2]);
-            double height = Double.parseDouble(params[3]);
-            Color color = Color.valueOf(params[4]);
-            graphicsContext.setStroke(color);
-            graphicsContext.setLineWidth(2.0);
-            graphicsContext.strokeRect(x, y, width, height);
-        } catch (Exception e) {
-            System.err.println("Error drawing rectangle: " + content);
-        }
-    }
-
-    private void drawOval(String content) {
-        try {
-            String[] params = content.split(",");
-            double x = Double.parseDouble(params[0]);
-            double y = Double.parseDouble(params[1]);
-            double width = Double.parseDouble(params[2]);
-            double height = Double.parseDouble(params[3]);
-            Color color = Color.valueOf(params[4]);
-            graphicsContext.setStroke(color);
-            graphicsContext.setLineWidth(2.0);
-            graphicsContext.strokeOval(x, y, width, height);
-        } catch (Exception e) {
-            System.err.println("Error drawing oval: " + content);
-        }
-    }
-
-    private void drawStickyNote(String content) {
-        try {
-            String[] params = content.split(",", 3);
-            double x = Double.parseDouble(params[0]);
-            double y = Double.parseDouble(params[1]);
-            String text = params[2];
-            double width = 150;
-            double height = 100;
-            graphicsContext.setFill(Color.web("#FFFFE0"));
-            graphicsContext.setStroke(Color.DARKGRAY);
-            graphicsContext.setLineWidth(1.0);
-            graphicsContext.fillRect(x, y, width, height);
-            graphicsContext.strokeRect(x, y, width, height);
-            graphicsContext.setFill(Color.BLACK);
-            graphicsContext.setFont(new Font("System", 14));
-            String[] lines = text.split("\n");
-            for(int i = 0; i < lines.length; i++) {
-                if (i < 5) {
-                    graphicsContext.fillText(lines[i], x + 5, y + 20 + (i * 18));
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error drawing sticky note: " + content);
-        }
-    }
-    
     // ==================== SCREEN SHARING METHODS ====================
     
     /**
@@ -942,9 +1475,10 @@ public class WhiteboardController {
         try {
             // Get capture settings
             int intervalMs = getFpsInterval();
+            ScreenQuality quality = ScreenQuality.of(qualityComboBox != null ? qualityComboBox.getValue() : null);
             
             // Start capturing with callback
-            screenCaptureService.startCapturing(intervalMs, this::sendScreenshot);
+            screenCaptureService.startCapturing(intervalMs, quality, this::sendScreenshot);
             
             isScreenSharing = true;
             updateScreenSharingButtonStates();
@@ -1022,7 +1556,8 @@ public class WhiteboardController {
     }
     
     /**
-     * Handle screenshot data from other participants.
+     * Handle screenshot data from other participants. Frames are decoded off the JavaFX thread, into an image
+     * per participant that only has the changed pixels uploaded.
      */
     private void handleScreenshotData(String data) {
         try {
@@ -1030,11 +1565,13 @@ public class WhiteboardController {
             if (parts.length >= 3) {
                 String userId = parts[1];
                 String base64Image = parts[2];
-                
-                Image image = ScreenCaptureService.base64ToImage(base64Image);
-                if (image != null) {
-                    displayParticipantScreen(userId, image);
+                if (stoppedSharing.contains(userId)) {
+                    return; // Sent before the announcement, which overtook it on the control lane
                 }
+                
+                screenReceivers.computeIfAbsent(userId,
+                        k -> new ScreenReceiver(image -> displayParticipantScreen(userId, image)))
+                        .submit(base64Image);
             }
         } catch (Exception e) {
             System.err.println("Error handling screenshot data: " + e.getMessage());
@@ -1051,7 +1588,10 @@ public class WhiteboardController {
                 String userId = parts[1];
                 boolean sharing = Boolean.parseBoolean(parts[2]);
                 
-                if (!sharing) {
+                if (sharing) {
+                    stoppedSharing.remove(userId);
+                } else {
+                    stoppedSharing.add(userId);
                     removeParticipantScreen(userId);
                 }
             }
@@ -1093,6 +1633,10 @@ public class WhiteboardController {
      * Remove a participant's shared screen.
      */
     private void removeParticipantScreen(String userId) {
+        ScreenReceiver receiver = screenReceivers.remove(userId);
+        if (receiver != null) {
+            receiver.close();
+        }
         ImageView imageView = participantScreens.remove(userId);
         if (imageView != null && sharedScreensContainer != null) {
             // Find and remove the container (VBox with label and image)
@@ -1158,6 +1702,9 @@ public class WhiteboardController {
         if (isScreenSharing) {
             handleStopScreenSharing();
         }
+        screenReceivers.values().forEach(ScreenReceiver::close);
+        screenReceivers.clear();
+        stoppedSharing.clear();
         screenCaptureService.cleanup();
     }
     
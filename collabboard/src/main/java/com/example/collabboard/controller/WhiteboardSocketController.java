@@ -31,6 +31,8 @@ public class WhiteboardSocketController {
     public String handleAction(@DestinationVariable String roomCode, String data) {
         // The server's job is simple: it receives the data and immediately sends it
         // back out to everyone in the same room. It acts as a message relay or broker.
+        // That includes the sender, which has already applied its own operations and
+        // recognizes them by their op id, so it drops them.
         // You could add logic here to save the data to a database if you wanted to persist the drawings.
         
         // Log screen sharing messages for debugging (but don't log the actual image data)
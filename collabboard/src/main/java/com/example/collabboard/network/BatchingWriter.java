@@ -0,0 +1,76 @@
+package com.example.collabboard.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Drains an {@link OutboundQueue} into a blocking socket stream.
+ * After the first message of a batch arrives it keeps collecting until the {@link FlushPolicy} window closes,
+ * then hands the whole batch to the socket with one write.
+ */
+class BatchingWriter implements Runnable {
+    private final OutboundQueue queue;
+    private final OutputStream out;
+    private final FlushPolicy policy;
+    private final FlushStats stats;
+    private final Runnable onFailure;
+    private final byte[] batch;
+    private volatile boolean binary;
+    private boolean sequenced;
+
+    BatchingWriter(OutboundQueue queue, OutputStream out, FlushPolicy policy, FlushStats stats, Runnable onFailure) {
+        this.queue = queue;
+        this.out = out;
+        this.policy = policy;
+        this.stats = stats;
+        this.onFailure = onFailure;
+        this.batch = new byte[policy.getMaxBatchBytes()];
+    }
+
+    /**
+     * Switches to binary frames for every message written from now on.
+     */
+    void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Message message;
+            while ((message = queue.take()) != null) {
+                long deadline = System.nanoTime() + policy.getWindowNanos();
+                int length = 0;
+                int count = 0;
+                long written = 0;
+                do {
+                    byte[] bytes = message.encode(binary, sequenced);
+                    // Everything after the host's CAPS_OK reply goes out in the granted form.
+                    binary |= message.grants(BinaryCodec.CAPABILITY);
+                    sequenced |= message.grants(ReplayBuffer.CAPABILITY);
+                    if (message.grants(ChunkAssembler.CAPABILITY)) {
+                        queue.enableChunking(ChunkAssembler.CHUNK_SIZE);
+                    }
+                    if (length + bytes.length > batch.length) {
+                        out.write(batch, 0, length);
+                        length = 0;
+                    }
+                    if (bytes.length > batch.length) {
+                        out.write(bytes); // Screen frames and other large messages skip the copy
+                    } else {
+                        System.arraycopy(bytes, 0, batch, length, bytes.length);
+                        length += bytes.length;
+                    }
+                    count++;
+                    written += bytes.length;
+                    // A chunked frame keeps the queue busy; end the batch with the window anyway.
+                } while (System.nanoTime() < deadline && (message = queue.poll(deadline)) != null);
+                out.write(batch, 0, length);
+                out.flush();
+                stats.record(count, written);
+            }
+        } catch (IOException | InterruptedException e) {
+            onFailure.run();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.collabboard.network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Length-prefixed binary framing for LAN sessions.
+ * <p>
+ * A frame is {@code [opcode:1][payload length:varint][payload]}. Opcodes are below 0x09, so the first byte of a
+ * frame can never be confused with the first byte of a newline-delimited text message and both forms can be
+ * mixed on one connection. Pen segments, stroke point batches, eraser dabs and shapes get compact typed payloads
+ * with float32 coordinates and packed RGBA colors; everything else travels as a UTF-8 {@link #OP_TEXT} frame.
+ * The op id a board operation ends with, "@&lt;id&gt;", follows the fields of a typed payload as ASCII.
+ * <p>
+ * Typed payloads are only used when the text is in the canonical {@code %.2f} form the whiteboard produces,
+ * so {@link #decode} always gives back exactly the text that was encoded.
+ * <p>
+ * An {@link #OP_SEQ} frame wraps another frame together with the host's relay sequence number, see
+ * {@link ReplayBuffer}.
+ */
+final class BinaryCodec {
+    static final int OP_TEXT = 0x01;
+    static final int OP_DRAW = 0x02;
+    static final int OP_ERASE = 0x03;
+    static final int OP_RECTANGLE = 0x04;
+    static final int OP_OVAL = 0x05;
+    static final int OP_SEQ = 0x06;
+    static final int OP_STROKE_POINTS = 0x07;
+
+    /** Capability a client announces with "CAPS:BIN2"; the host confirms with "CAPS_OK:BIN2". */
+    static final String CAPABILITY = "BIN2";
+
+    /** Upper bound for a single frame, protects against reading garbage as a huge length. */
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    // Largest magnitude whose hundredths survive the round trip through a float32.
+    private static final long MAX_CENTS = 10_000_000L;
+
+    private BinaryCodec() {
+    }
+
+    static boolean isOpcode(int firstByte) {
+        return firstByte >= OP_TEXT && firstByte <= OP_STROKE_POINTS;
+    }
+
+    // --- Encoding ---
+
+    /**
+     * Encodes a protocol message as a binary frame.
+     */
+    static byte[] encode(String text) {
+        byte[] typed = encodeTyped(text);
+        if (typed != null) {
+            return typed;
+        }
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[1 + varintSize(utf8.length) + utf8.length];
+        int pos = writeHeader(frame, OP_TEXT, utf8.length);
+        System.arraycopy(utf8, 0, frame, pos, utf8.length);
+        return frame;
+    }
+
+    private static byte[] encodeTyped(String text) {
+        if (text.startsWith("STROKE_POINTS:")) {
+            return encodeStrokePoints(text);
+        }
+        int opcode;
+        int prefix;
+        int numbers;
+        boolean colored;
+        if (text.startsWith("DRAW:")) {
+            opcode = OP_DRAW; prefix = 5; numbers = 4; colored = true;
+        } else if (text.startsWith("ERASE:")) {
+            opcode = OP_ERASE; prefix = 6; numbers = 3; colored = false;
+        } else if (text.startsWith("RECTANGLE:")) {
+            opcode = OP_RECTANGLE; prefix = 10; numbers = 4; colored = true;
+        } else if (text.startsWith("OVAL:")) {
+            opcode = OP_OVAL; prefix = 5; numbers = 4; colored = true;
+        } else {
+            return null;
+        }
+
+        // The fields end where the op id starts
+        int fieldsEnd = text.indexOf('@', prefix);
+        if (fieldsEnd < 0) {
+            fieldsEnd = text.length();
+        } else if (fieldsEnd == text.length() - 1) {
+            return null; // An empty op id would not survive the round trip
+        }
+        for (int i = fieldsEnd + 1; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) {
+                return null;
+            }
+        }
+        int opIdLength = Math.max(0, text.length() - fieldsEnd - 1);
+        int payloadLength = numbers * 4 + (colored ? 4 : 0) + opIdLength;
+        byte[] frame = new byte[1 + varintSize(payloadLength) + payloadLength];
+        int pos = writeHeader(frame, opcode, payloadLength);
+        int cursor = prefix;
+        for (int i = 0; i < numbers; i++) {
+            int end = text.indexOf(',', cursor);
+            boolean last = i == numbers - 1 && !colored;
+            if (last) {
+                end = fieldsEnd;
+            }
+            if (end < 0 || end > fieldsEnd) {
+                return null;
+            }
+            long cents = parseCents(text, cursor, end);
+            if (cents == Long.MIN_VALUE) {
+                return null;
+            }
+            pos = writeInt(frame, pos, Float.floatToIntBits(toFloat(cents, text.charAt(cursor) == '-')));
+            cursor = end + 1;
+        }
+        if (colored) {
+            long rgba = parseColor(text, cursor, fieldsEnd);
+            if (rgba < 0) {
+                return null;
+            }
+            pos = writeInt(frame, pos, (int) rgba);
+        }
+        for (int i = fieldsEnd + 1; i < text.length(); i++) {
+            frame[pos++] = (byte) text.charAt(i);
+        }
+        return frame;
+    }
+
+    /**
+     * "STROKE_POINTS:id,x,y,x,y..." becomes {@code [id length:varint][id][float32 coordinates]}.
+     */
+    private static byte[] encodeStrokePoints(String text) {
+        int idStart = 14;
+        int idEnd = text.indexOf(',', idStart);
+        if (idEnd < 0) {
+            return null;
+        }
+        int numbers = 0;
+        for (int i = idEnd; i < text.length(); i++) {
+            if (text.charAt(i) == ',') {
+                numbers++;
+            }
+        }
+        int idLength = idEnd - idStart;
+        for (int i = idStart; i < idEnd; i++) {
+            if (text.charAt(i) > 0x7F) {
+                return null;
+            }
+        }
+        int payloadLength = varintSize(idLength) + idLength + numbers * 4;
+        byte[] frame = new byte[1 + varintSize(payloadLength) + payloadLength];
+        int pos = writeHeader(frame, OP_STROKE_POINTS, payloadLength);
+        int value = idLength;
+        while ((value & ~0x7F) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        for (int i = idStart; i < idEnd; i++) {
+            frame[pos++] = (byte) text.charAt(i);
+        }
+        int cursor = idEnd + 1;
+        for (int i = 0; i < numbers; i++) {
+            int end = text.indexOf(',', cursor);
+            if (end < 0) {
+                end = text.length();
+            }
+            long cents = parseCents(text, cursor, end);
+            if (cents == Long.MIN_VALUE) {
+                return null;
+            }
+            pos = writeInt(frame, pos, Float.floatToIntBits(toFloat(cents, text.charAt(cursor) == '-')));
+            cursor = end + 1;
+        }
+        return frame;
+    }
+
+    /**
+     * Parses a canonical "%.2f" number into hundredths.
+     * @return The value in hundredths, or Long.MIN_VALUE if the text is not in canonical form.
+     */
+    private static long parseCents(String text, int start, int end) {
+        boolean negative = start < end && text.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        int dot = end - 3;
+        if (dot <= i || text.charAt(dot) != '.') {
+            return Long.MIN_VALUE;
+        }
+        if (dot - i > 1 && text.charAt(i) == '0') {
+            return Long.MIN_VALUE; // leading zeros would not survive the round trip
+        }
+        long cents = 0;
+        for (int j = i; j < end; j++) {
+            if (j == dot) {
+                continue;
+            }
+            char c = text.charAt(j);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            cents = cents * 10 + (c - '0');
+            if (cents > MAX_CENTS) {
+                return Long.MIN_VALUE;
+            }
+        }
+        return negative ? -cents : cents;
+    }
+
+    private static float toFloat(long cents, boolean negative) {
+        float value = cents / 100f;
+        // Keep "-0.00" distinguishable from "0.00"
+        return negative && cents == 0 ? -0.0f : value;
+    }
+
+    /**
+     * Parses JavaFX's Color.toString() form, "0xrrggbbaa".
+     * @return The packed RGBA value, or -1 if the text is not in that form.
+     */
+    private static long parseColor(String text, int start, int end) {
+        if (end - start != 10 || text.charAt(start) != '0' || text.charAt(start + 1) != 'x') {
+            return -1;
+        }
+        long rgba = 0;
+        for (int i = start + 2; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0 || Character.isUpperCase(text.charAt(i))) {
+                return -1;
+            }
+            rgba = (rgba << 4) | digit;
+        }
+        return rgba;
+    }
+
+    // --- Decoding ---
+
+    /**
+     * Turns a frame payload back into the protocol text it was encoded from.
+     */
+    static String decode(int opcode, byte[] payload, int offset, int length) {
+        if (opcode == OP_TEXT) {
+            return new String(payload, offset, length, StandardCharsets.UTF_8);
+        }
+        if (opcode == OP_STROKE_POINTS) {
+            return decodeStrokePoints(payload, offset, length);
+        }
+        StringBuilder text = new StringBuilder(64);
+        int numbers;
+        boolean colored;
+        switch (opcode) {
+            case OP_DRAW: text.append("DRAW:"); numbers = 4; colored = true; break;
+            case OP_ERASE: text.append("ERASE:"); numbers = 3; colored = false; break;
+            case OP_RECTANGLE: text.append("RECTANGLE:"); numbers = 4; colored = true; break;
+            case OP_OVAL: text.append("OVAL:"); numbers = 4; colored = true; break;
+            default: throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+        int fieldsLength = numbers * 4 + (colored ? 4 : 0);
+        if (length < fieldsLength) {
+            throw new IllegalArgumentException("Bad payload length " + length + " for opcode " + opcode);
+        }
+        int pos = offset;
+        for (int i = 0; i < numbers; i++) {
+            if (i > 0) {
+                text.append(',');
+            }
+            appendFixed2(text, Float.intBitsToFloat(readInt(payload, pos)));
+            pos += 4;
+        }
+        if (colored) {
+            text.append(",0x");
+            int rgba = readInt(payload, pos);
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                text.append(Character.forDigit((rgba >>> shift) & 0xF, 16));
+            }
+        }
+        if (length > fieldsLength) {
+            text.append('@').append(new String(payload, offset + fieldsLength, length - fieldsLength,
+                    StandardCharsets.US_ASCII));
+        }
+        return text.toString();
+    }
+
+    private static String decodeStrokePoints(byte[] payload, int offset, int length) {
+        int end = offset + length;
+        int idLength = 0;
+        int shift = 0;
+        int pos = offset;
+        int b;
+        do {
+            if (pos >= end || shift > 28) {
+                throw new IllegalArgumentException("Bad stroke id length");
+            }
+            b = payload[pos++] & 0xFF;
+            idLength |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (idLength < 0 || idLength > end - pos || (end - pos - idLength) % 4 != 0) {
+            throw new IllegalArgumentException("Bad payload length " + length + " for opcode " + OP_STROKE_POINTS);
+        }
+        StringBuilder text = new StringBuilder(14 + idLength + (end - pos) * 2);
+        text.append("STROKE_POINTS:").append(new String(payload, pos, idLength, StandardCharsets.US_ASCII));
+        for (pos += idLength; pos < end; pos += 4) {
+            text.append(',');
+            appendFixed2(text, Float.intBitsToFloat(readInt(payload, pos)));
+        }
+        return text.toString();
+    }
+
+    private static void appendFixed2(StringBuilder text, float value) {
+        if (value < 0 || (value == 0 && Float.floatToRawIntBits(value) != 0)) {
+            text.append('-');
+            value = -value;
+        }
+        long cents = Math.round((double) value * 100);
+        text.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            text.append('0');
+        }
+        text.append(fraction);
+    }
+
+    /**
+     * Wraps a frame into an {@link #OP_SEQ} frame: {@code [OP_SEQ][length][sequence:varint][frame]}.
+     */
+    static byte[] wrapSequence(long sequence, byte[] frame) {
+        int payloadLength = varlongSize(sequence) + frame.length;
+        byte[] wrapped = new byte[1 + varintSize(payloadLength) + payloadLength];
+        int pos = writeHeader(wrapped, OP_SEQ, payloadLength);
+        long value = sequence;
+        while ((value & ~0x7FL) != 0) {
+            wrapped[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        wrapped[pos++] = (byte) value;
+        System.arraycopy(frame, 0, wrapped, pos, frame.length);
+        return wrapped;
+    }
+
+    /**
+     * Unwraps the payload of an {@link #OP_SEQ} frame.
+     * @return The inner message, carrying the sequence number.
+     */
+    static Message unwrapSequence(byte[] payload, int offset, int length) {
+        int end = offset + length;
+        long sequence = 0;
+        int shift = 0;
+        int pos = offset;
+        int b;
+        do {
+            if (pos >= end || shift > 63) {
+                throw new IllegalArgumentException("Bad sequence number");
+            }
+            b = payload[pos++] & 0xFF;
+            sequence |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        int innerStart = pos;
+        int opcode = payload[pos++] & 0xFF;
+        int innerLength = 0;
+        shift = 0;
+        do {
+            if (pos >= end || shift > 28) {
+                throw new IllegalArgumentException("Bad inner frame header");
+            }
+            b = payload[pos++] & 0xFF;
+            innerLength |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (opcode == OP_SEQ || innerLength != end - pos) {
+            throw new IllegalArgumentException("Bad inner frame");
+        }
+        String text = decode(opcode, payload, pos, innerLength);
+        return new Message(text, Arrays.copyOfRange(payload, innerStart, end)).sequenced(sequence);
+    }
+
+    // --- Primitives ---
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    static int varlongSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes opcode and varint payload length at the start of the frame.
+     * @return The offset where the payload starts.
+     */
+    static int writeHeader(byte[] frame, int opcode, int payloadLength) {
+        frame[0] = (byte) opcode;
+        int pos = 1;
+        int value = payloadLength;
+        while ((value & ~0x7F) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int writeInt(byte[] target, int pos, int value) {
+        target[pos] = (byte) (value >>> 24);
+        target[pos + 1] = (byte) (value >>> 16);
+        target[pos + 2] = (byte) (value >>> 8);
+        target[pos + 3] = (byte) value;
+        return pos + 4;
+    }
+
+    private static int readInt(byte[] source, int pos) {
+        return ((source[pos] & 0xFF) << 24) | ((source[pos + 1] & 0xFF) << 16)
+                | ((source[pos + 2] & 0xFF) << 8) | (source[pos + 3] & 0xFF);
+    }
+}
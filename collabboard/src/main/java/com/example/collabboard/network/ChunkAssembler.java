@@ -0,0 +1,83 @@
+package com.example.collabboard.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits bulk messages into "CHUNK:&lt;stream&gt;:&lt;more&gt;:&lt;piece&gt;" messages and puts them back together.
+ * Chunks of one message stay in order, but messages of higher {@link Lane}s can be sent between them.
+ * Chunking is hop-by-hop on LAN connections, negotiated with the {@link #CAPABILITY} capability; on the cloud
+ * relay the chunks of several senders interleave on one topic, which the stream id keeps apart.
+ */
+class ChunkAssembler {
+    static final String CAPABILITY = "CHUNK1";
+    static final String PREFIX = "CHUNK:";
+    /** Characters of payload per chunk, well below the default STOMP message size limit. */
+    static final int CHUNK_SIZE = 16 * 1024;
+    // Caps the memory held by streams whose end never arrives.
+    private static final int MAX_OPEN_STREAMS = 16;
+
+    private static final String INSTANCE = UUID.randomUUID().toString().substring(0, 8);
+    private static final AtomicLong nextStream = new AtomicLong();
+
+    private final Map<String, StringBuilder> open = new HashMap<>();
+
+    /**
+     * @return The chunk messages for the text; the last one carries the message's sequence number.
+     */
+    static List<Message> split(Message message, int chunkSize) {
+        String text = message.text();
+        String stream = INSTANCE + "-" + nextStream.incrementAndGet();
+        List<Message> chunks = new ArrayList<>(text.length() / chunkSize + 1);
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + chunkSize);
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--; // Keep surrogate pairs together
+            }
+            boolean last = end == text.length();
+            Message chunk = new Message(PREFIX + stream + ":" + (last ? 0 : 1) + ":" + text.substring(start, end));
+            chunks.add(last ? chunk.sequenced(message.sequence()) : chunk);
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The message itself if it is not a chunk, the reassembled message after its last chunk, otherwise null.
+     */
+    synchronized Message accept(Message message) {
+        String text = message.text();
+        if (!text.startsWith(PREFIX)) {
+            return message;
+        }
+        int streamEnd = text.indexOf(':', PREFIX.length());
+        if (streamEnd < 0 || streamEnd + 3 > text.length() || text.charAt(streamEnd + 2) != ':') {
+            return null; // Malformed
+        }
+        String stream = text.substring(PREFIX.length(), streamEnd);
+        boolean more = text.charAt(streamEnd + 1) == '1';
+        StringBuilder partial = open.get(stream);
+        if (partial == null) {
+            if (open.size() >= MAX_OPEN_STREAMS) {
+                open.clear();
+            }
+            partial = new StringBuilder(more ? CHUNK_SIZE * 4 : text.length());
+            open.put(stream, partial);
+        }
+        partial.append(text, streamEnd + 3, text.length());
+        if (partial.length() > BinaryCodec.MAX_FRAME_LENGTH) {
+            open.remove(stream);
+            return null;
+        }
+        if (more) {
+            return null;
+        }
+        open.remove(stream);
+        return new Message(partial.toString()).sequenced(message.sequence());
+    }
+}
@@ -2,21 +2,51 @@ package com.example.collabboard.network;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class Client implements Runnable {
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 8000;
+    private static final int MAX_RECONNECT_ATTEMPTS = 10;
+
     private final String hostIp;
     private final int port;
-    private Socket socket;
-    private PrintWriter writer;
+    private final String username;
+    private final boolean binaryProtocol;
+    private final boolean resumable;
+    private final FlushPolicy flushPolicy;
+    private final FlushStats flushStats = new FlushStats();
+    private final Object outboundLock = new Object();
+    private OutboundQueue outbound = new OutboundQueue(SlowConsumerPolicy.defaults());
+    private volatile Socket socket;
+    private volatile BatchingWriter writer;
+    private volatile boolean stopped;
+    private FrameReader reader;
+    // Last relay sequence number received per lane; only touched by the reader thread.
+    private final long[] lastSequence = new long[Lane.values().length];
+    private boolean sequenced;
     private final Consumer<String> onDataReceived;
     private final Runnable onSuccess;
     private final Consumer<Exception> onFailure;
 
-    
-    public Client(String hostIp, int port, Consumer<String> onDataReceived, Runnable onSuccess, Consumer<Exception> onFailure) {
+    /**
+     * @param username Name announced to the host with IDENTIFY.
+     * @param binaryProtocol Whether to ask the host for {@link BinaryCodec} frames. Hosts that do not
+     *                       understand the request keep talking text, so this is safe to leave on.
+     * @param resumable Whether to ask the host for sequence numbers and resume after a dropped connection.
+     * @param flushPolicy How outgoing messages are batched into socket writes.
+     */
+    public Client(String hostIp, int port, String username, boolean binaryProtocol, boolean resumable, FlushPolicy flushPolicy, Consumer<String> onDataReceived, Runnable onSuccess, Consumer<Exception> onFailure) {
         this.hostIp = hostIp;
         this.port = port;
+        this.username = username;
+        this.binaryProtocol = binaryProtocol;
+        this.resumable = resumable;
+        this.flushPolicy = flushPolicy;
         this.onDataReceived = onDataReceived;
         this.onSuccess = onSuccess;
         this.onFailure = onFailure;
@@ -25,32 +55,155 @@ public class Client implements Runnable {
     @Override
     public void run() {
         try {
-           
-            socket = new Socket(hostIp, port);
-            writer = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            
-            onSuccess.run();
-
-            String message;
-            while ((message = reader.readLine()) != null) {
-                onDataReceived.accept(message);
-            }
+            connect();
         } catch (IOException e) {
-            
             System.err.println("Failed to connect to host: " + e.getMessage());
             onFailure.accept(e);
+            outbound.close();
+            return;
+        }
+        onSuccess.run();
+
+        while (!stopped) {
+            try {
+                Message message;
+                while ((message = reader.next()) != null) {
+                    receive(message);
+                }
+            } catch (IOException e) {
+                // Connection dropped
+            }
+            closeSocket(socket);
+            replaceOutbound();
+            if (stopped || !reconnect()) {
+                break;
+            }
+        }
+        synchronized (outboundLock) {
+            outbound.close();
+        }
+    }
+
+    private void receive(Message message) {
+        if (message.text().startsWith("CAPS_OK:")) {
+            // The host reads both forms, so from here on our messages can go out as frames.
+            if (message.grants(BinaryCodec.CAPABILITY)) {
+                writer.setBinary(true);
+            }
+            if (message.grants(ChunkAssembler.CAPABILITY)) {
+                synchronized (outboundLock) {
+                    outbound.enableChunking(ChunkAssembler.CHUNK_SIZE);
+                }
+            }
+            return;
+        }
+        if (message.sequence() > 0) {
+            lastSequence[message.lane().ordinal()] = message.sequence();
+            sequenced = true;
+        }
+        if ("YOU_WERE_KICKED".equals(message.text())) {
+            stopped = true; // Do not come back on our own
+        }
+        onDataReceived.accept(message.text());
+    }
+
+    /**
+     * Opens a connection and starts its writer. The handshake is written before anything queued, so messages
+     * typed while the connection was down follow it. After a drop, a client that has received sequence numbers
+     * resumes where it left off instead of joining from scratch.
+     */
+    private void connect() throws IOException {
+        Socket newSocket = new Socket(hostIp, port);
+        // Batching is done by the writer, so Nagle would only add delay on top of the flush window.
+        newSocket.setTcpNoDelay(true);
+        socket = newSocket;
+        reader = new FrameReader(new BufferedInputStream(newSocket.getInputStream()));
+        OutputStream out = newSocket.getOutputStream();
+
+        List<String> capabilities = new ArrayList<>();
+        if (binaryProtocol) {
+            capabilities.add(BinaryCodec.CAPABILITY);
+        }
+        if (resumable) {
+            capabilities.add(ReplayBuffer.CAPABILITY);
+        }
+        capabilities.add(ChunkAssembler.CAPABILITY);
+        if (sequenced) {
+            String resumePoint = Arrays.stream(lastSequence).mapToObj(Long::toString).collect(Collectors.joining(","));
+            out.write(new Message("RESUME:" + resumePoint + ":" + String.join(",", capabilities) + ":" + username).line());
+        } else {
+            out.write(new Message("IDENTIFY:" + username).line());
+            out.write(new Message("CAPS:" + String.join(",", capabilities)).line());
+        }
+        out.flush();
+
+        synchronized (outboundLock) {
+            writer = new BatchingWriter(outbound, out, flushPolicy, flushStats, () -> closeSocket(newSocket));
+        }
+        Thread writerThread = new Thread(writer, "lan-client-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Retries the connection with exponential backoff.
+     * @return true once connected again, false if the host stayed unreachable or the client was shut down.
+     */
+    private boolean reconnect() {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; attempt <= MAX_RECONNECT_ATTEMPTS && !stopped; attempt++) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            try {
+                connect();
+                System.out.println("Reconnected to host after " + attempt + " attempt(s).");
+                return true;
+            } catch (IOException e) {
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        if (!stopped) {
+            System.err.println("Lost connection to host.");
         }
+        return false;
     }
 
+    /**
+     * Moves unsent messages to a fresh queue for the next connection and stops the old writer.
+     */
+    private void replaceOutbound() {
+        synchronized (outboundLock) {
+            OutboundQueue previous = outbound;
+            outbound = new OutboundQueue(SlowConsumerPolicy.defaults());
+            previous.drainTo(outbound::offer);
+            previous.close();
+        }
+    }
+
+    /**
+     * Queues a message for the host. Returns immediately; the writer thread sends it with the next batch.
+     * While the connection is being re-established the message waits for the new connection.
+     */
     public void sendMessage(String message) {
-        if (writer != null) {
-            writer.println(message);
+        synchronized (outboundLock) {
+            if (writer != null && !outbound.offer(new Message(message))) {
+                // The host has stopped reading; reconnecting resumes the session from what it did receive
+                System.err.println("Host is not keeping up, reconnecting: " + outbound.stats(hostIp));
+                closeSocket(socket);
+            }
         }
     }
 
     public void shutdown() {
+        stopped = true;
+        closeSocket(socket);
+    }
+
+    private static void closeSocket(Socket socket) {
         try {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
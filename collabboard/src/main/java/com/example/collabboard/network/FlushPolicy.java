@@ -0,0 +1,33 @@
+package com.example.collabboard.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how outgoing LAN messages are batched into socket writes.
+ * Messages produced within one window (typically a display frame) are sent with a single write,
+ * so a pen stroke becomes a handful of TCP segments instead of one per mouse event.
+ * The window is also the latency cap: no message waits longer than that before it is written.
+ */
+public class FlushPolicy {
+    private final int windowMillis;
+    private final int maxBatchBytes;
+
+    /**
+     * @param windowMillis How long to gather messages after the first one; 0 writes every message immediately.
+     * @param maxBatchBytes Size of the batch buffer; a fuller batch is written out early.
+     */
+    public FlushPolicy(int windowMillis, int maxBatchBytes) {
+        this.windowMillis = windowMillis;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public static FlushPolicy defaults() {
+        return new FlushPolicy(8, 64 * 1024);
+    }
+
+    public int getWindowMillis() { return windowMillis; }
+
+    public long getWindowNanos() { return TimeUnit.MILLISECONDS.toNanos(windowMillis); }
+
+    public int getMaxBatchBytes() { return maxBatchBytes; }
+}
@@ -0,0 +1,59 @@
+package com.example.collabboard.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts batched socket flushes so the effect of the {@link FlushPolicy} can be observed.
+ * Thread-safe; one instance is shared by all connections of a host.
+ */
+public class FlushStats {
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // Rate sampling, guarded by this
+    private long sampleStartNanos = System.nanoTime();
+    private long sampleStartFlushes;
+    private double flushesPerSecond;
+
+    void record(int messageCount, long byteCount) {
+        long total = flushes.incrementAndGet();
+        messages.addAndGet(messageCount);
+        bytes.addAndGet(byteCount);
+        sample(total);
+    }
+
+    private synchronized void sample(long totalFlushes) {
+        long now = System.nanoTime();
+        long elapsed = now - sampleStartNanos;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            flushesPerSecond = (totalFlushes - sampleStartFlushes) * 1e9 / elapsed;
+            sampleStartNanos = now;
+            sampleStartFlushes = totalFlushes;
+        }
+    }
+
+    public long getFlushes() { return flushes.get(); }
+
+    public long getMessages() { return messages.get(); }
+
+    public long getBytes() { return bytes.get(); }
+
+    public double getMessagesPerFlush() {
+        long count = flushes.get();
+        return count == 0 ? 0 : (double) messages.get() / count;
+    }
+
+    /**
+     * @return Flushes per second over the last completed one-second sample.
+     */
+    public synchronized double getFlushesPerSecond() {
+        return flushesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d flushes, %.1f messages/flush, %.1f flushes/s", getFlushes(), getMessagesPerFlush(), getFlushesPerSecond());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.collabboard.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a LAN connection that may carry newline-delimited text messages, {@link BinaryCodec} frames, or both.
+ * The first byte of each message tells the two apart. Used by the blocking connections;
+ * the selector threads do the same framing incrementally in {@link NioPeer}.
+ */
+class FrameReader {
+    private final InputStream in;
+    private byte[] buffer = new byte[1024];
+    private final ChunkAssembler chunks = new ChunkAssembler();
+
+    /**
+     * @param in A buffered stream; this reader pulls one byte at a time for text lines.
+     */
+    FrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return The next message, with chunked messages already put back together, or null at the end of the stream.
+     */
+    Message next() throws IOException {
+        Message message;
+        do {
+            message = read();
+            if (message == null) {
+                return null;
+            }
+            message = chunks.accept(message);
+        } while (message == null);
+        return message;
+    }
+
+    private Message read() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        if (BinaryCodec.isOpcode(first)) {
+            return readFrame(first);
+        }
+        return readLine(first);
+    }
+
+    private Message readFrame(int opcode) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed inside a frame header");
+            }
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        if (length < 0 || length > BinaryCodec.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] frame = new byte[1 + BinaryCodec.varintSize(length) + length];
+        int headerLength = BinaryCodec.writeHeader(frame, opcode, length);
+        int read = in.readNBytes(frame, headerLength, length);
+        if (read < length) {
+            throw new EOFException("Connection closed inside a frame");
+        }
+        try {
+            if (opcode == BinaryCodec.OP_SEQ) {
+                return BinaryCodec.unwrapSequence(frame, headerLength, length);
+            }
+            return new Message(BinaryCodec.decode(opcode, frame, headerLength, length), frame);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed frame", e);
+        }
+    }
+
+    private Message readLine(int first) throws IOException {
+        int length = 0;
+        int b = first;
+        while (b >= 0 && b != '\n') {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) b;
+            b = in.read();
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        return Message.parseLine(new String(buffer, 0, length, StandardCharsets.UTF_8));
+    }
+}
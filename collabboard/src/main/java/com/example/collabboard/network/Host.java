@@ -3,23 +3,57 @@ package com.example.collabboard.network;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public class Host implements Runnable {
     private final int port;
+    private final int ioThreads;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final FlushPolicy flushPolicy;
+    private final FlushStats flushStats = new FlushStats();
+    private final OperationLog operationLog;
+    private final ReplayBuffer replayBuffer;
+    // Held while a message is numbered, logged and fanned out, and while a participant joins, so every
+    // participant sees the relayed messages in sequence order and a newcomer gets each one exactly once.
+    private final Object relayLock = new Object();
     private ServerSocket serverSocket;
-    private final Map<PrintWriter, String> clients = new ConcurrentHashMap<>();
+    private SelectorServer selectorServer;
+    private final Map<Peer, String> clients = new ConcurrentHashMap<>();
     private final Consumer<String> onDataReceived;
 
     public Host(int port, Consumer<String> onDataReceived) {
+        this(port, onDataReceived, 0, SlowConsumerPolicy.defaults(), FlushPolicy.defaults(), 5000, 4096);
+    }
+
+    /**
+     * @param port The TCP port to listen on.
+     * @param onDataReceived Callback for every message that passes through the host.
+     * @param ioThreads Number of selector threads serving all clients. 0 keeps the thread-per-client mode.
+     * @param slowConsumerPolicy What to do with participants whose outbound queue fills up.
+     * @param flushPolicy How outgoing messages are batched into socket writes.
+     * @param snapshotInterval Board operations between two compactions of the late-joiner snapshot.
+     * @param replayCapacity Relayed messages kept for participants that resume after a dropped connection.
+     */
+    public Host(int port, Consumer<String> onDataReceived, int ioThreads, SlowConsumerPolicy slowConsumerPolicy, FlushPolicy flushPolicy, int snapshotInterval, int replayCapacity) {
         this.port = port;
         this.onDataReceived = onDataReceived;
+        this.ioThreads = ioThreads;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.flushPolicy = flushPolicy;
+        this.operationLog = new OperationLog(snapshotInterval);
+        this.replayBuffer = new ReplayBuffer(replayCapacity);
     }
 
     @Override
     public void run() {
+        if (ioThreads > 0) {
+            runNonBlocking();
+            return;
+        }
         try {
             serverSocket = new ServerSocket(port);
             while (!serverSocket.isClosed()) {
@@ -31,8 +65,97 @@ public class Host implements Runnable {
         }
     }
 
-    public void addClient(PrintWriter writer, String username) {
-        clients.put(writer, username);
+    private void runNonBlocking() {
+        try {
+            selectorServer = new SelectorServer(port, ioThreads, this);
+            selectorServer.run();
+        } catch (IOException e) {
+            System.out.println("Host server shut down.");
+        }
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(slowConsumerPolicy);
+    }
+
+    FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * @return Batched write counters summed over all participants.
+     */
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
+
+    /**
+     * Handles the first line a new connection sends.
+     * @return true if the peer identified itself and was registered, false if it should be dropped.
+     */
+    boolean identify(Peer peer, String identifyMessage) {
+        if (identifyMessage == null) {
+            return false;
+        }
+        if (identifyMessage.startsWith("IDENTIFY:")) {
+            addClient(peer, identifyMessage.substring(9));
+            return true;
+        }
+        if (identifyMessage.startsWith("RESUME:")) {
+            // RESUME:<last sequence per lane>:<capabilities>:<username>
+            String[] parts = identifyMessage.split(":", 4);
+            if (parts.length == 4) {
+                try {
+                    resumeClient(peer, parts[3], ReplayBuffer.parseResumePoint(parts[1]), parts[2]);
+                    return true;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    void addClient(Peer peer, String username) {
+        synchronized (relayLock) {
+            // The newcomer gets the board before anything relayed after it joined.
+            for (Message message : operationLog.syncMessages()) {
+                peer.send(message);
+            }
+            clients.put(peer, username);
+        }
+        broadcastUserList();
+    }
+
+    /**
+     * Re-admits a participant whose connection dropped, sending only the messages it missed.
+     * Falls back to the late-joiner snapshot if those are no longer in the replay buffer.
+     */
+    private void resumeClient(Peer peer, String username, long[] lastSequence, String capabilities) {
+        synchronized (relayLock) {
+            // The old connection may not have noticed yet that it is gone.
+            clients.entrySet().removeIf(entry -> {
+                if (entry.getValue().equals(username)) {
+                    entry.getKey().disconnect();
+                    return true;
+                }
+                return false;
+            });
+            // The capabilities of the old connection apply from the first replayed message on.
+            String granted = grant(capabilities);
+            if (granted != null) {
+                peer.send(new Message(granted));
+            }
+            List<Message> missed = replayBuffer.since(lastSequence, username);
+            if (missed == null) {
+                System.out.println("Replay buffer no longer covers " + username + ", sending a snapshot instead.");
+                missed = operationLog.syncMessages();
+            }
+            for (Message message : missed) {
+                peer.send(message);
+            }
+            clients.put(peer, username);
+        }
         broadcastUserList();
     }
 
@@ -42,36 +165,84 @@ public class Host implements Runnable {
     }
 
     public void broadcast(String message) {
-        onDataReceived.accept(message);
-        clients.keySet().forEach(writer -> writer.println(message));
+        forwardMessage(new Message(message), null);
     }
 
-    public void forwardMessage(String message, PrintWriter sender) {
-        onDataReceived.accept(message);
-        clients.forEach((writer, username) -> {
-            if (writer != sender) {
-                writer.println(message);
+    /**
+     * Handles a message read from a participant after it identified itself.
+     */
+    void receive(Message message, Peer sender) {
+        String text = message.text();
+        if (text.startsWith("CAPS:")) {
+            // Protocol negotiation stays between this participant and the host.
+            String granted = grant(text.substring(5));
+            if (granted != null) {
+                sender.send(new Message(granted));
             }
-        });
+            return;
+        }
+        forwardMessage(message, sender);
+    }
+
+    /**
+     * @return The CAPS_OK reply for the requested capabilities this host supports, or null if there are none.
+     */
+    private static String grant(String requested) {
+        List<String> granted = new ArrayList<>();
+        for (String capability : requested.split(",")) {
+            if ((capability.equals(BinaryCodec.CAPABILITY) || capability.equals(ReplayBuffer.CAPABILITY)
+                    || capability.equals(ChunkAssembler.CAPABILITY)) && !granted.contains(capability)) {
+                granted.add(capability);
+            }
+        }
+        return granted.isEmpty() ? null : "CAPS_OK:" + String.join(",", granted);
+    }
+
+    void forwardMessage(Message message, Peer sender) {
+        onDataReceived.accept(message.text());
+        synchronized (relayLock) {
+            operationLog.append(message);
+            Message sequenced = replayBuffer.record(message, sender != null ? clients.get(sender) : null);
+            clients.forEach((peer, username) -> {
+                if (peer != sender) {
+                    peer.send(sequenced);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Outbound queue statistics for every connected participant.
+     */
+    public List<PeerStats> getClientStats() {
+        List<PeerStats> stats = new ArrayList<>();
+        clients.forEach((peer, username) -> stats.add(peer.outbound().stats(username)));
+        return stats;
     }
 
     public void kickUser(String usernameToKick) {
-        PrintWriter writerToKick = null;
-        for (Map.Entry<PrintWriter, String> entry : clients.entrySet()) {
+        Peer peerToKick = null;
+        for (Map.Entry<Peer, String> entry : clients.entrySet()) {
             if (entry.getValue().equals(usernameToKick)) {
-                writerToKick = entry.getKey();
+                peerToKick = entry.getKey();
                 break;
             }
         }
-        if (writerToKick != null) {
-            writerToKick.println("YOU_WERE_KICKED");
-            removeClient(writerToKick);
+        if (peerToKick != null) {
+            peerToKick.send(new Message("YOU_WERE_KICKED"));
+            removeClient(peerToKick);
         }
     }
 
-    public void removeClient(PrintWriter writer) {
-        clients.remove(writer);
-        broadcastUserList();
+    void removeClient(Peer peer) {
+        String username = clients.remove(peer);
+        if (username != null) {
+            PeerStats stats = peer.outbound().stats(username);
+            if (stats.getDropped() > 0) {
+                System.out.println("LAN participant left after falling behind: " + stats);
+            }
+            broadcastUserList();
+        }
     }
 
     public void shutdown() {
@@ -79,47 +250,82 @@ public class Host implements Runnable {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (selectorServer != null) {
+                selectorServer.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // (shutdown method is the same)
-
-    private static class ClientHandler implements Runnable {
+    private static class ClientHandler implements Runnable, Peer {
         private final Socket clientSocket;
         private final Host host;
-        private PrintWriter writer;
+        private final OutboundQueue outbound;
 
         public ClientHandler(Socket socket, Host host) {
             this.clientSocket = socket;
             this.host = host;
+            this.outbound = host.newOutboundQueue();
+        }
+
+        @Override
+        public void send(Message message) {
+            if (!outbound.offer(message)) {
+                System.out.println("Disconnecting slow LAN participant: " + outbound.stats(clientSocket.getRemoteSocketAddress().toString()));
+                closeSocket();
+            }
+        }
+
+        @Override
+        public OutboundQueue outbound() {
+            return outbound;
+        }
+
+        @Override
+        public void disconnect() {
+            closeSocket();
         }
 
         @Override
         public void run() {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-                this.writer = new PrintWriter(clientSocket.getOutputStream(), true);
-
-                String identifyMessage = reader.readLine();
-                if (identifyMessage != null && identifyMessage.startsWith("IDENTIFY:")) {
-                    String username = identifyMessage.substring(9);
-                    host.addClient(this.writer, username);
-                } else {
+            try {
+                // Batching is done by the writer, so Nagle would only add delay on top of the flush window.
+                clientSocket.setTcpNoDelay(true);
+                BatchingWriter writer = new BatchingWriter(outbound, clientSocket.getOutputStream(),
+                        host.flushPolicy, host.flushStats, this::closeSocket);
+                Thread writerThread = new Thread(writer, "lan-writer-" + clientSocket.getPort());
+                writerThread.setDaemon(true);
+                writerThread.start();
+            } catch (IOException e) {
+                closeSocket();
+                return;
+            }
+            try (InputStream in = new BufferedInputStream(clientSocket.getInputStream())) {
+                FrameReader reader = new FrameReader(in);
+                Message identifyMessage = reader.next();
+                if (identifyMessage == null || !host.identify(this, identifyMessage.text())) {
                     return; // Invalid connection
                 }
 
-                String message;
-                while ((message = reader.readLine()) != null) {
-                    host.forwardMessage(message, this.writer);
+                Message message;
+                while ((message = reader.next()) != null) {
+                    host.receive(message, this);
                 }
             } catch (IOException e) {
                 // Client disconnected
             } finally {
-                if (writer != null) {
-                    host.removeClient(writer);
-                }
+                outbound.close();
+                host.removeClient(this);
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                // Already closed
             }
         }
     }
-}
\ No newline at end of file
+}
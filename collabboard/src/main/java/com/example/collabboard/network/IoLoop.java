@@ -0,0 +1,163 @@
+package com.example.collabboard.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread of the non-blocking LAN host.
+ * All reads and writes of its connections happen here, through a pair of direct buffers
+ * that are shared by every connection of this loop. Writes are deferred by the host's
+ * {@link FlushPolicy} window so that everything queued within one window leaves in one write.
+ */
+class IoLoop implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Host host;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<NioPeer> pendingFlushes = new ConcurrentLinkedQueue<>();
+    // Peers waiting for their flush window to close. The window is fixed, so arrival order is deadline order.
+    private final ArrayDeque<NioPeer> scheduledFlushes = new ArrayDeque<>();
+    private final long flushWindowNanos;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private volatile boolean running = true;
+
+    IoLoop(Host host, String name) throws IOException {
+        this.host = host;
+        this.selector = Selector.open();
+        this.flushWindowNanos = host.getFlushPolicy().getWindowNanos();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands a freshly accepted channel to this loop. Safe to call from any thread.
+     */
+    void register(SocketChannel channel) {
+        pendingRegistrations.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to write out whatever the peer has queued. Safe to call from any thread.
+     */
+    void requestFlush(NioPeer peer) {
+        pendingFlushes.add(peer);
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long timeout = millisUntilNextFlush();
+                if (timeout < 0) {
+                    selector.select();
+                } else if (timeout == 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(timeout);
+                }
+                registerPending();
+                schedulePending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioPeer peer = (NioPeer) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            peer.read(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            peer.write(writeBuffer);
+                        }
+                    } catch (IOException e) {
+                        // Client disconnected
+                        peer.close();
+                    }
+                }
+                flushDue();
+            }
+        } catch (IOException e) {
+            System.err.println("LAN I/O loop failed: " + e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pendingRegistrations.poll()) != null) {
+            NioPeer peer = new NioPeer(channel, this, host);
+            try {
+                peer.attach(channel.register(selector, SelectionKey.OP_READ, peer));
+            } catch (ClosedChannelException e) {
+                peer.close();
+            }
+        }
+    }
+
+    private void schedulePending() {
+        NioPeer peer;
+        long deadline = System.nanoTime() + flushWindowNanos;
+        while ((peer = pendingFlushes.poll()) != null) {
+            peer.setFlushDeadline(deadline);
+            scheduledFlushes.add(peer);
+        }
+    }
+
+    private void flushDue() {
+        long now = System.nanoTime();
+        while (!scheduledFlushes.isEmpty() && scheduledFlushes.peek().getFlushDeadline() - now <= 0) {
+            NioPeer peer = scheduledFlushes.poll();
+            try {
+                peer.write(writeBuffer);
+            } catch (IOException e) {
+                peer.close();
+            }
+        }
+    }
+
+    /**
+     * @return Milliseconds until the earliest flush window closes, 0 if one already has, -1 if none is pending.
+     */
+    private long millisUntilNextFlush() {
+        if (scheduledFlushes.isEmpty()) {
+            return -1;
+        }
+        long remaining = scheduledFlushes.peek().getFlushDeadline() - System.nanoTime();
+        return remaining <= 0 ? 0 : Math.max(1, (remaining + 999_999) / 1_000_000);
+    }
+
+    private void closeAll() {
+        try {
+            // The room is going away, so the channels are closed without user list updates.
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.collabboard.network;
+
+/**
+ * Priority classes for outgoing messages, highest first. An {@link OutboundQueue} always drains a higher lane
+ * before a lower one, so a pen stroke never waits behind a screen frame. Order is kept within a lane only,
+ * which is why the messages of a stroke share one lane. Packed board operations are the exception: a loaded
+ * board's BOARD_SNAPSHOT and the late-joiner sync are bulk, sent in chunks like a screen frame, and merge into
+ * the board whenever they arrive.
+ */
+enum Lane {
+    /** Session control: identification, capabilities, participants, locking, kicks. */
+    CONTROL,
+    /** Board operations, where latency is what the user feels. */
+    INTERACTIVE,
+    /** Chat messages. */
+    CHAT,
+    /** Screen frames, board snapshots, the late-joiner sync and their chunks; split up so they can be preempted. */
+    BULK;
+
+    static Lane of(String text) {
+        if (text.startsWith("SCREEN_SHARE:") || text.startsWith(ChunkAssembler.PREFIX)
+                || text.startsWith(OperationLog.SNAPSHOT_PREFIX) || text.startsWith(OperationLog.SYNC_PREFIX)
+                || text.startsWith(OperationLog.SYNC_TAIL_PREFIX)) {
+            return BULK;
+        }
+        if (text.startsWith("CHAT:")) {
+            return CHAT;
+        }
+        if (text.startsWith("IDENTIFY:") || text.startsWith("RESUME:") || text.startsWith("CAPS")
+                || text.startsWith("USER_LIST:") || text.startsWith("SCREEN_SHARE_STATUS:")
+                || text.equals("LOCK_BOARD") || text.equals("UNLOCK_BOARD") || text.equals("YOU_WERE_KICKED")) {
+            return CONTROL;
+        }
+        return INTERACTIVE;
+    }
+}
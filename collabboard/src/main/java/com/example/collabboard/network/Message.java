@@ -0,0 +1,157 @@
+package com.example.collabboard.network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A protocol message on its way to one or more LAN participants.
+ * The encoded bytes are produced once and shared by every outbound queue the message is put on.
+ * Messages relayed by the host carry a sequence number, which participants that negotiated
+ * {@link ReplayBuffer#CAPABILITY} receive as a "SEQ:&lt;n&gt;:" prefix or an {@link BinaryCodec#OP_SEQ} frame.
+ */
+final class Message {
+    private final String text;
+    private final long sequence;
+    private byte[] line;
+    private byte[] frame;
+    private byte[] sequencedLine;
+    private byte[] sequencedFrame;
+    private Lane lane;
+    private List<Message> chunks;
+
+    Message(String text) {
+        this(text, null, 0);
+    }
+
+    /**
+     * A message that arrived as a binary frame; the frame is relayed as-is to binary participants.
+     */
+    Message(String text, byte[] frame) {
+        this(text, frame, 0);
+    }
+
+    private Message(String text, byte[] frame, long sequence) {
+        this.text = text;
+        this.frame = frame;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return The same message numbered with the host's relay sequence.
+     */
+    Message sequenced(long sequence) {
+        return new Message(text, frame, sequence);
+    }
+
+    /**
+     * Parses a text line that may carry a "SEQ:&lt;n&gt;:" prefix.
+     */
+    static Message parseLine(String line) {
+        if (line.startsWith("SEQ:")) {
+            int end = line.indexOf(':', 4);
+            if (end > 4) {
+                try {
+                    return new Message(line.substring(end + 1)).sequenced(Long.parseLong(line.substring(4, end)));
+                } catch (NumberFormatException e) {
+                    // Not a sequence prefix after all
+                }
+            }
+        }
+        return new Message(line);
+    }
+
+    String text() {
+        return text;
+    }
+
+    /**
+     * @return The host's relay sequence number, or 0 for messages that are not part of the relayed stream.
+     */
+    long sequence() {
+        return sequence;
+    }
+
+    Lane lane() {
+        Lane cached = lane;
+        if (cached == null) {
+            cached = Lane.of(text);
+            lane = cached;
+        }
+        return cached;
+    }
+
+    /**
+     * @return The message split into {@link ChunkAssembler} chunks; computed once and shared by every queue.
+     */
+    synchronized List<Message> chunks(int chunkSize) {
+        if (chunks == null) {
+            chunks = ChunkAssembler.split(this, chunkSize);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The bytes to write for a connection in the given modes.
+     */
+    byte[] encode(boolean binary, boolean sequenced) {
+        if (!sequenced || sequence == 0) {
+            return binary ? frame() : line();
+        }
+        if (binary) {
+            if (sequencedFrame == null) {
+                sequencedFrame = BinaryCodec.wrapSequence(sequence, frame());
+            }
+            return sequencedFrame;
+        }
+        if (sequencedLine == null) {
+            byte[] prefix = ("SEQ:" + sequence + ":").getBytes(StandardCharsets.UTF_8);
+            byte[] body = line();
+            byte[] encoded = Arrays.copyOf(prefix, prefix.length + body.length);
+            System.arraycopy(body, 0, encoded, prefix.length, body.length);
+            sequencedLine = encoded;
+        }
+        return sequencedLine;
+    }
+
+    /**
+     * @return The UTF-8 encoding of the message followed by a newline.
+     */
+    byte[] line() {
+        byte[] encoded = line;
+        if (encoded == null) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            encoded = Arrays.copyOf(bytes, bytes.length + 1);
+            encoded[bytes.length] = '\n';
+            line = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * @return The message as a {@link BinaryCodec} frame.
+     */
+    byte[] frame() {
+        byte[] encoded = frame;
+        if (encoded == null) {
+            encoded = BinaryCodec.encode(text);
+            frame = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * @return true for a host reply to CAPS that grants the capability; the connection switches after this message.
+     */
+    boolean grants(String capability) {
+        return text.startsWith("CAPS_OK:") && Arrays.asList(text.substring(8).split(",")).contains(capability);
+    }
+
+    boolean isScreenFrame() {
+        return text.startsWith("SCREEN_SHARE:");
+    }
+
+    boolean isDrawSegment() {
+        return text.startsWith("DRAW:") || text.startsWith("STROKE_POINTS:");
+    }
+}
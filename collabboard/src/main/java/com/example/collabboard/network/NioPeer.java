@@ -0,0 +1,300 @@
+package com.example.collabboard.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connection served by an {@link IoLoop}.
+ * Incoming bytes are split into newline-terminated text messages and {@link BinaryCodec} frames, the same way
+ * {@link FrameReader} does for blocking connections; outgoing messages are queued by any thread and written by
+ * the loop thread when the socket accepts them.
+ */
+class NioPeer implements Peer {
+    private final SocketChannel channel;
+    private final IoLoop loop;
+    private final Host host;
+    private SelectionKey key;
+
+    // Inbound state, only touched by the loop thread.
+    private byte[] inbound = new byte[1024];
+    private int inboundLength;
+    private int textScanPosition;
+    private boolean identified;
+    private boolean closed;
+
+    // Outbound state. The queue is filled by any thread, the rest belongs to the loop thread.
+    private final OutboundQueue outbound;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean disconnectRequested;
+    private volatile boolean closeRequested;
+    private final ArrayDeque<byte[]> unwritten = new ArrayDeque<>();
+    private final ChunkAssembler chunks = new ChunkAssembler();
+    private int headOffset;
+    private boolean binaryMode;
+    private boolean sequencedMode;
+    private long flushDeadline;
+    private int stagedMessages;
+    private long stagedBytes;
+
+    NioPeer(SocketChannel channel, IoLoop loop, Host host) {
+        this.channel = channel;
+        this.loop = loop;
+        this.host = host;
+        this.outbound = host.newOutboundQueue();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public void send(Message message) {
+        if (!outbound.offer(message)) {
+            // Closing belongs to the loop thread; it picks this up on the next flush.
+            disconnectRequested = true;
+        }
+        if (flushRequested.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
+    }
+
+    @Override
+    public OutboundQueue outbound() {
+        return outbound;
+    }
+
+    @Override
+    public void disconnect() {
+        closeRequested = true;
+        if (flushRequested.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
+    }
+
+    /**
+     * Reads what is available and dispatches every complete text line or binary frame.
+     */
+    void read(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        buffer.flip();
+        ensureInboundCapacity(inboundLength + read);
+        buffer.get(inbound, inboundLength, read);
+        inboundLength += read;
+
+        int start = 0;
+        while (start < inboundLength && !closed) {
+            int consumed = BinaryCodec.isOpcode(inbound[start] & 0xFF) ? parseFrame(start) : parseLine(start);
+            if (consumed == 0) {
+                break; // Incomplete, wait for more bytes
+            }
+            start += consumed;
+        }
+        if (start > 0 && !closed) {
+            System.arraycopy(inbound, start, inbound, 0, inboundLength - start);
+            inboundLength -= start;
+            textScanPosition = Math.max(0, textScanPosition - start);
+        }
+    }
+
+    private int parseLine(int start) {
+        for (int i = Math.max(start, textScanPosition); i < inboundLength; i++) {
+            if (inbound[i] == '\n') {
+                int end = i;
+                if (end > start && inbound[end - 1] == '\r') {
+                    end--;
+                }
+                textScanPosition = 0;
+                onMessage(new Message(new String(inbound, start, end - start, StandardCharsets.UTF_8)));
+                return i + 1 - start;
+            }
+        }
+        textScanPosition = inboundLength;
+        return 0;
+    }
+
+    private int parseFrame(int start) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int pos = start + 1;
+        while (true) {
+            if (pos >= inboundLength) {
+                return 0;
+            }
+            int b = inbound[pos++] & 0xFF;
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift >= 35) {
+                throw new IOException("Invalid frame header");
+            }
+        }
+        if (length < 0 || length > BinaryCodec.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (inboundLength - pos < length) {
+            return 0;
+        }
+        byte[] frame = Arrays.copyOfRange(inbound, start, pos + length);
+        String text;
+        try {
+            text = BinaryCodec.decode(inbound[start], inbound, pos, length);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed frame", e);
+        }
+        onMessage(new Message(text, frame));
+        return pos + length - start;
+    }
+
+    private void onMessage(Message received) {
+        Message message = chunks.accept(received);
+        if (message == null) {
+            return; // More chunks to come
+        }
+        if (!identified) {
+            identified = host.identify(this, message.text());
+            if (!identified) {
+                close(); // Invalid connection
+            }
+            return;
+        }
+        host.receive(message, this);
+    }
+
+    long getFlushDeadline() {
+        return flushDeadline;
+    }
+
+    void setFlushDeadline(long flushDeadline) {
+        this.flushDeadline = flushDeadline;
+    }
+
+    /**
+     * Writes queued messages through the shared direct buffer until the socket stops accepting bytes
+     * or one batch has been written; the rest waits for the next turn of the loop, so a participant receiving
+     * screen frames does not starve the other connections of the same loop.
+     */
+    void write(ByteBuffer buffer) throws IOException {
+        if (closed || !key.isValid()) {
+            return;
+        }
+        flushRequested.set(false);
+        if (closeRequested) {
+            close();
+            return;
+        }
+        if (disconnectRequested) {
+            System.out.println("Disconnecting slow LAN participant: " + outbound.stats(String.valueOf(channel.getRemoteAddress())));
+            close();
+            return;
+        }
+        int maxBatchBytes = host.getFlushPolicy().getMaxBatchBytes();
+        long written = 0;
+        while (true) {
+            if (written >= maxBatchBytes) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (unwritten.isEmpty()) {
+                // Only pull from the bounded queue once the socket has taken everything pulled before,
+                // so a stalled participant backs up into the queue where the slow-consumer policy applies,
+                // and pull at most one batch, so higher lanes can overtake the rest of a chunked frame.
+                Message message;
+                while (stagedBytes < maxBatchBytes && (message = outbound.poll()) != null) {
+                    stage(message);
+                }
+                if (unwritten.isEmpty()) {
+                    break;
+                }
+                host.getFlushStats().record(stagedMessages, stagedBytes);
+                stagedMessages = 0;
+                stagedBytes = 0;
+            }
+            buffer.clear();
+            int offset = headOffset;
+            for (byte[] message : unwritten) {
+                int length = Math.min(buffer.remaining(), message.length - offset);
+                buffer.put(message, offset, length);
+                offset = 0;
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+            }
+            buffer.flip();
+            int count = channel.write(buffer);
+            written += count;
+            consume(count);
+            if (buffer.hasRemaining()) {
+                // The socket is full, continue when the selector reports it writable again.
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private void stage(Message message) {
+        byte[] bytes = message.encode(binaryMode, sequencedMode);
+        unwritten.add(bytes);
+        stagedMessages++;
+        stagedBytes += bytes.length;
+        // Everything after the host's CAPS_OK reply goes out in the granted form.
+        binaryMode |= message.grants(BinaryCodec.CAPABILITY);
+        sequencedMode |= message.grants(ReplayBuffer.CAPABILITY);
+        if (message.grants(ChunkAssembler.CAPABILITY)) {
+            outbound.enableChunking(ChunkAssembler.CHUNK_SIZE);
+        }
+    }
+
+    private void consume(int written) {
+        while (written > 0) {
+            byte[] head = unwritten.peek();
+            int left = head.length - headOffset;
+            if (written >= left) {
+                unwritten.poll();
+                headOffset = 0;
+                written -= left;
+            } else {
+                headOffset += written;
+                written = 0;
+            }
+        }
+    }
+
+    private void ensureInboundCapacity(int capacity) {
+        if (capacity > inbound.length) {
+            inbound = Arrays.copyOf(inbound, Math.max(capacity, inbound.length * 2));
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.close();
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        if (identified) {
+            host.removeClient(this);
+        }
+    }
+}
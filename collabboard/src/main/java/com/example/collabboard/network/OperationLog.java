@@ -0,0 +1,301 @@
+package com.example.collabboard.network;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The host's authoritative record of the board, used to bring late joiners up to date.
+ * <p>
+ * Board operations are appended to a tail as they are relayed. Every {@code snapshotInterval} operations the
+ * tail is folded into a compacted state the same way the whiteboard's document merges them: each object once by
+ * op id, only the latest DELETE or RESTORE per object, and nothing a later CLEAR removed. A newcomer receives
+ * BOARD_SYNC with the snapshot, then BOARD_SYNC_TAIL with the operations after it, instead of a replay of every
+ * operation since the room was opened. Both are packed like a BOARD_SNAPSHOT, deflated and base64 encoded, and
+ * are bulk messages: they go out in chunks between the strokes and chat of everyone else. Operations merge in any
+ * order, so the newcomer applies them on top of whatever it already has, whenever they arrive. The packed
+ * snapshot is cached, so a burst of joiners only pays for it once.
+ * <p>
+ * A pen stroke arrives as STROKE_BEGIN, STROKE_POINTS batches and STROKE_END; the log keeps it as one
+ * "STROKE:width,color,x,y,...@id" operation, the same object the whiteboard adds for it. A BOARD_SNAPSHOT, the
+ * operations of a loaded board deflated into one message, is unpacked into its operations.
+ */
+class OperationLog {
+    /** Separates the operations inside a snapshot; never appears in a protocol line. */
+    static final char OPERATION_SEPARATOR = '\u001e';
+    /** "BOARD_SNAPSHOT:&lt;count&gt;:&lt;base64 of the deflated operations&gt;", see the whiteboard's BoardSnapshot. */
+    static final String SNAPSHOT_PREFIX = "BOARD_SNAPSHOT:";
+    /** Prefixes of the late-joiner sync, packed the same way as a BOARD_SNAPSHOT. */
+    static final String SYNC_PREFIX = "BOARD_SYNC:";
+    static final String SYNC_TAIL_PREFIX = "BOARD_SYNC_TAIL:";
+    // Same bound as the whiteboard puts on an inflated snapshot
+    private static final int MAX_SNAPSHOT_BYTES = 16 * 1024 * 1024;
+    // Uncompressed operations per sync message, the size of a BoardSnapshot; a larger board takes several
+    private static final int MAX_SYNC_RAW_BYTES = 8 * 1024 * 1024;
+
+    private final int snapshotInterval;
+    // Compacted state, by order key of the op id as in BoardDocument: the objects, and the latest DELETE or
+    // RESTORE of each; the latest CLEAR removed everything before it
+    private final Map<Long, String> objects = new LinkedHashMap<>();
+    private final Map<Long, String> visibility = new HashMap<>();
+    private long clearKey = -1;
+    private String clear;
+    private final ArrayList<String> tail = new ArrayList<>();
+    private List<Message> snapshot;
+    // Pen strokes still being drawn, by stroke id: the STROKE_BEGIN text and the points received since.
+    private final Map<String, String[]> openStrokes = new LinkedHashMap<>();
+
+    OperationLog(int snapshotInterval) {
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+    }
+
+    // Strokes whose STROKE_END never comes, e.g. because the participant dropped, are forgotten past this.
+    private static final int MAX_OPEN_STROKES = 256;
+
+    static boolean isBoardOperation(String text) {
+        return text.startsWith("DRAW:") || text.startsWith("STROKE:") || text.startsWith("ERASE:")
+                || text.startsWith("RECTANGLE:") || text.startsWith("OVAL:") || text.startsWith("STICKY_NOTE:")
+                || text.startsWith("DELETE:") || text.startsWith("RESTORE:") || text.startsWith("CLEAR:");
+    }
+
+    synchronized void append(Message message) {
+        String text = message.text();
+        if (text.startsWith(SNAPSHOT_PREFIX)) {
+            String operations = unpackSnapshot(text);
+            int start = 0;
+            while (operations != null && start < operations.length()) {
+                int end = operations.indexOf(OPERATION_SEPARATOR, start);
+                if (end < 0) {
+                    end = operations.length();
+                }
+                appendOperation(operations.substring(start, end));
+                start = end + 1;
+            }
+            return;
+        }
+        if (text.startsWith("STROKE_")) {
+            text = trackStroke(text);
+        }
+        if (text != null) {
+            appendOperation(text);
+        }
+    }
+
+    private void appendOperation(String text) {
+        if (!isBoardOperation(text)) {
+            return;
+        }
+        tail.add(text);
+        if (tail.size() >= snapshotInterval) {
+            compact();
+        }
+    }
+
+    /**
+     * @return The operations of a BOARD_SNAPSHOT, separated by {@link #OPERATION_SEPARATOR}, or null if it is
+     *         malformed.
+     */
+    private static String unpackSnapshot(String text) {
+        int countEnd = text.indexOf(':', SNAPSHOT_PREFIX.length());
+        if (countEnd < 0) {
+            return null;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64.getDecoder().decode(text.substring(countEnd + 1)));
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if ((n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary()))
+                        || inflated.size() + n > MAX_SNAPSHOT_BYTES) {
+                    return null;
+                }
+                inflated.write(buffer, 0, n);
+            }
+            return inflated.toString(StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException | DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return The finished "STROKE:" operation for a STROKE_END, otherwise null.
+     */
+    private String trackStroke(String text) {
+        if (text.startsWith("STROKE_BEGIN:")) {
+            // STROKE_BEGIN:id,width,color,x,y
+            int idEnd = text.indexOf(',');
+            if (idEnd > 0) {
+                if (openStrokes.size() >= MAX_OPEN_STROKES) {
+                    Iterator<String> oldest = openStrokes.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                openStrokes.put(text.substring(13, idEnd), new String[]{text, ""});
+            }
+        } else if (text.startsWith("STROKE_POINTS:")) {
+            int idEnd = text.indexOf(',');
+            String[] stroke = idEnd > 0 ? openStrokes.get(text.substring(14, idEnd)) : null;
+            if (stroke != null) {
+                stroke[1] = stroke[1].concat(text.substring(idEnd));
+            }
+        } else if (text.startsWith("STROKE_END:")) {
+            String[] stroke = openStrokes.remove(text.substring(11));
+            if (stroke != null) {
+                String begin = stroke[0];
+                return "STROKE:" + begin.substring(begin.indexOf(',') + 1) + stroke[1] + "@" + text.substring(11);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * BOARD_SYNC carries the compacted state, the CLEAR first; BOARD_SYNC_TAIL carries the operations after it.
+     * Each is "&lt;prefix&gt;&lt;count&gt;:&lt;base64&gt;" like a BOARD_SNAPSHOT, split into several messages past
+     * 8 MB of operations.
+     * @return The messages that recreate the current board: the snapshot first, then the operations after it,
+     *         then the strokes in progress.
+     */
+    synchronized List<Message> syncMessages() {
+        if (snapshot == null) {
+            List<String> operations = new ArrayList<>(objects.size() + visibility.size() + 1);
+            if (clear != null) {
+                operations.add(clear);
+            }
+            operations.addAll(objects.values());
+            operations.addAll(visibility.values());
+            snapshot = pack(SYNC_PREFIX, operations);
+        }
+        List<Message> messages = new ArrayList<>(snapshot);
+        messages.addAll(pack(SYNC_TAIL_PREFIX, tail));
+        // Strokes being drawn right now continue with the next STROKE_POINTS the newcomer receives.
+        openStrokes.forEach((id, stroke) -> {
+            messages.add(new Message(stroke[0]));
+            if (!stroke[1].isEmpty()) {
+                messages.add(new Message("STROKE_POINTS:" + id + stroke[1]));
+            }
+        });
+        return messages;
+    }
+
+    /**
+     * Deflates operations into "&lt;prefix&gt;&lt;count&gt;:&lt;base64&gt;" messages, at least one.
+     */
+    private static List<Message> pack(String prefix, List<String> operations) {
+        List<Message> messages = new ArrayList<>(1);
+        byte[] buffer = new byte[64 * 1024];
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(buffer.length);
+        int next = 0;
+        do {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            int count = 0;
+            long rawBytes = 0;
+            try {
+                while (next < operations.size() && rawBytes < MAX_SYNC_RAW_BYTES) {
+                    byte[] utf8 = operations.get(next++).getBytes(StandardCharsets.UTF_8);
+                    if (count > 0) {
+                        pending.write(OPERATION_SEPARATOR);
+                    }
+                    pending.writeBytes(utf8);
+                    count++;
+                    rawBytes += utf8.length + 1;
+                    if (pending.size() >= buffer.length) {
+                        deflate(deflater, pending, deflated, buffer);
+                    }
+                }
+                deflate(deflater, pending, deflated, buffer);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflated.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } finally {
+                deflater.end();
+            }
+            messages.add(new Message(prefix + count + ":" + Base64.getEncoder().encodeToString(deflated.toByteArray())));
+        } while (next < operations.size());
+        return messages;
+    }
+
+    private static void deflate(Deflater deflater, ByteArrayOutputStream pending, ByteArrayOutputStream deflated,
+                                byte[] buffer) {
+        deflater.setInput(pending.toByteArray());
+        while (!deflater.needsInput()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        pending.reset();
+    }
+
+    private void compact() {
+        for (String operation : tail) {
+            apply(operation);
+        }
+        tail.clear();
+        snapshot = null;
+    }
+
+    // Same merge as BoardDocument.apply; operations without a valid op id are dropped, as the whiteboard does
+    private void apply(String operation) {
+        int at = operation.lastIndexOf('@');
+        long key = at > 0 ? key(operation, at + 1, operation.length()) : -1;
+        if (key <= clearKey) {
+            return;
+        }
+        if (operation.startsWith("CLEAR:")) {
+            clearKey = key;
+            clear = operation;
+            objects.keySet().removeIf(object -> object < key);
+            visibility.keySet().removeIf(object -> object < key);
+        } else if (operation.startsWith("DELETE:") || operation.startsWith("RESTORE:")) {
+            int colon = operation.indexOf(':');
+            long target = key(operation, colon + 1, at);
+            String latest = visibility.get(target);
+            if (target > clearKey && (latest == null || key(latest, latest.lastIndexOf('@') + 1, latest.length()) < key)) {
+                visibility.put(target, operation);
+            }
+        } else {
+            objects.putIfAbsent(key, operation);
+        }
+    }
+
+    /**
+     * @return The order key of the op id "&lt;participant&gt;-&lt;clock&gt;" in {@code text[start, end)}, see
+     *         BoardDocument, or -1 if it is not one.
+     */
+    private static long key(String text, int start, int end) {
+        int dash = text.indexOf('-', start);
+        if (dash <= start || dash > start + 8 || dash >= end - 1 || end - dash - 1 > 9) {
+            return -1;
+        }
+        long participant = 0;
+        for (int i = start; i < dash; i++) {
+            char c = text.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            participant = participant * 16 + digit;
+        }
+        long clock = 0;
+        for (int i = dash + 1; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            clock = clock * 10 + (c - '0');
+        }
+        return clock > Integer.MAX_VALUE ? -1 : (clock << 32) | participant;
+    }
+}
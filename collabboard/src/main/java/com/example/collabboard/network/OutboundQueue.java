@@ -0,0 +1,262 @@
+package com.example.collabboard.network;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue of messages waiting to be written to one participant.
+ * Producers never block: when the queue is full the {@link SlowConsumerPolicy} decides what to shed,
+ * so a single slow participant cannot hold up the senders or the other participants.
+ * <p>
+ * Messages are kept in one FIFO per {@link Lane} and handed out highest lane first. Once chunking is enabled,
+ * bulk messages are handed out one {@link ChunkAssembler} chunk at a time, so anything queued in a higher lane
+ * overtakes the rest of a screen frame.
+ */
+class OutboundQueue {
+    private final SlowConsumerPolicy policy;
+    private final ArrayDeque<Message>[] lanes;
+    private int size;
+    private int chunkSize;
+    // Chunks of the bulk message currently being handed out.
+    private List<Message> bulkChunks;
+    private int nextChunk;
+    private int maxDepth;
+    private long dropped;
+    private long coalesced;
+    private long lost;
+    private boolean closed;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OutboundQueue(SlowConsumerPolicy policy) {
+        this.policy = policy;
+        this.lanes = new ArrayDeque[Lane.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Hands out bulk messages longer than the chunk size as chunks from now on.
+     * Called once the other side has confirmed it can reassemble them.
+     */
+    synchronized void enableChunking(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Queues a message, shedding older work if the queue is full. Only screen frames are ever dropped: any other
+     * message that does not fit is refused, since the participant would miss part of the board without knowing.
+     * @return false if the participant must be disconnected, because a message other than a screen frame did not
+     * fit or it has lost enough screen frames.
+     */
+    synchronized boolean offer(Message message) {
+        if (closed) {
+            return true;
+        }
+        if (size >= policy.getCapacity() && !makeRoom()) {
+            dropped++;
+            if (!message.isScreenFrame()) {
+                return false;
+            }
+            lost++;
+            int threshold = policy.getDisconnectThreshold();
+            return threshold <= 0 || lost < threshold;
+        }
+        lanes[message.lane().ordinal()].addLast(message);
+        size++;
+        maxDepth = Math.max(maxDepth, size);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Waits for the next message. Used by the dedicated writer thread of a blocking connection.
+     * @return The next message, or null once the queue has been closed.
+     */
+    synchronized Message take() throws InterruptedException {
+        while (isEmpty() && !closed) {
+            wait();
+        }
+        return closed ? null : next();
+    }
+
+    /**
+     * Waits for the next message until the deadline passes.
+     * @param deadlineNanos A {@link System#nanoTime()} value.
+     * @return The next message, or null if the deadline passed or the queue was closed.
+     */
+    synchronized Message poll(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while (isEmpty() && !closed && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+            wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+        }
+        return closed ? null : next();
+    }
+
+    /**
+     * @return The next message without waiting, or null if there is none. Used by the selector threads.
+     */
+    synchronized Message poll() {
+        return closed ? null : next();
+    }
+
+    /**
+     * Hands every whole queued message to the consumer, in lane order. A bulk message that is partly
+     * handed out as chunks is dropped. Used to carry unsent messages over to a new connection.
+     */
+    synchronized void drainTo(Consumer<Message> consumer) {
+        bulkChunks = null;
+        for (ArrayDeque<Message> lane : lanes) {
+            Message message;
+            while ((message = lane.pollFirst()) != null) {
+                consumer.accept(message);
+            }
+        }
+        size = 0;
+    }
+
+    synchronized void close() {
+        closed = true;
+        for (ArrayDeque<Message> lane : lanes) {
+            lane.clear();
+        }
+        size = 0;
+        bulkChunks = null;
+        notifyAll();
+    }
+
+    synchronized PeerStats stats(String username) {
+        return new PeerStats(username, size, maxDepth, dropped, coalesced);
+    }
+
+    private boolean isEmpty() {
+        return size == 0 && bulkChunks == null;
+    }
+
+    private Message next() {
+        for (int i = 0; i < lanes.length; i++) {
+            if (i == Lane.BULK.ordinal() && bulkChunks != null) {
+                return nextChunk();
+            }
+            Message message = lanes[i].pollFirst();
+            if (message != null) {
+                size--;
+                if (i == Lane.BULK.ordinal() && chunkSize > 0 && message.text().length() > chunkSize) {
+                    bulkChunks = message.chunks(chunkSize);
+                    nextChunk = 0;
+                    return nextChunk();
+                }
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private Message nextChunk() {
+        Message chunk = bulkChunks.get(nextChunk++);
+        if (nextChunk == bulkChunks.size()) {
+            bulkChunks = null;
+        }
+        return chunk;
+    }
+
+    private boolean makeRoom() {
+        if (policy.isDropOldestFrames() && dropOldestFrame()) {
+            return true;
+        }
+        return policy.isCoalesceDraws() && coalesceDraws();
+    }
+
+    private boolean dropOldestFrame() {
+        Iterator<Message> iterator = lanes[Lane.BULK.ordinal()].iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isScreenFrame()) {
+                iterator.remove();
+                size--;
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merges runs of queued pen segments that continue each other into single segments or point batches.
+     * The lagging participant sees a slightly simplified stroke instead of falling further behind.
+     */
+    private boolean coalesceDraws() {
+        ArrayDeque<Message> queue = lanes[Lane.INTERACTIVE.ordinal()];
+        int before = queue.size();
+        ArrayDeque<Message> merged = new ArrayDeque<>(before);
+        Message previous = null;
+        for (Message message : queue) {
+            if (previous != null) {
+                String joined = joinSegments(previous, message);
+                if (joined != null) {
+                    // The merged segment stands in for the later one in the relayed sequence.
+                    previous = new Message(joined).sequenced(message.sequence());
+                    continue;
+                }
+                merged.addLast(previous);
+            }
+            previous = message;
+        }
+        if (previous != null) {
+            merged.addLast(previous);
+        }
+        if (merged.size() == before) {
+            return false;
+        }
+        coalesced += before - merged.size();
+        size -= before - merged.size();
+        queue.clear();
+        queue.addAll(merged);
+        return true;
+    }
+
+    /**
+     * Joins "DRAW:x1,y1,x2,y2,color" segments where the second starts at the end of the first,
+     * and consecutive "STROKE_POINTS:id,..." batches of the same stroke.
+     * @return The merged message text, or null if the messages cannot be merged.
+     */
+    static String joinSegments(Message first, Message second) {
+        if (!first.isDrawSegment() || !second.isDrawSegment()) {
+            return null;
+        }
+        String a = first.text();
+        String b = second.text();
+        if (a.startsWith("STROKE_POINTS:") || b.startsWith("STROKE_POINTS:")) {
+            int aId = a.indexOf(',');
+            int bId = b.indexOf(',');
+            boolean sameStroke = a.startsWith("STROKE_POINTS:") && b.startsWith("STROKE_POINTS:")
+                    && aId > 0 && aId == bId && a.regionMatches(0, b, 0, aId);
+            return sameStroke ? a + b.substring(bId) : null;
+        }
+        int aMid = nthComma(a, 2);
+        int aColor = nthComma(a, 4);
+        int bMid = nthComma(b, 2);
+        int bColor = nthComma(b, 4);
+        if (aMid < 0 || aColor < 0 || bMid < 0 || bColor < 0) {
+            return null;
+        }
+        boolean continues = a.regionMatches(aMid + 1, b, 5, aColor - aMid - 1) && bMid - 5 == aColor - aMid - 1;
+        boolean sameColor = a.regionMatches(aColor, b, bColor, a.length() - aColor) && a.length() - aColor == b.length() - bColor;
+        if (!continues || !sameColor) {
+            return null;
+        }
+        return a.substring(0, aMid + 1) + b.substring(bMid + 1);
+    }
+
+    private static int nthComma(String text, int n) {
+        int index = -1;
+        for (int i = 0; i < n; i++) {
+            index = text.indexOf(',', index + 1);
+            if (index < 0) {
+                return -1;
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.collabboard.network;
+
+/**
+ * A participant connected to the LAN {@link Host}.
+ * Implementations hide whether the connection is served by its own thread
+ * or by one of the shared selector threads.
+ */
+interface Peer {
+
+    /**
+     * Queues a message for delivery to this participant.
+     * Must never block the calling thread on the network. A participant that falls too far
+     * behind according to the host's {@link SlowConsumerPolicy} disconnects itself, and catches up when it
+     * resumes or joins again.
+     */
+    void send(Message message);
+
+    /**
+     * @return The participant's outbound queue, for lag statistics.
+     */
+    OutboundQueue outbound();
+
+    /**
+     * Closes the connection without waiting for queued messages. Used when the participant
+     * has resumed its session on a new connection.
+     */
+    void disconnect();
+}
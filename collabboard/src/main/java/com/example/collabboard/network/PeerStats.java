@@ -0,0 +1,36 @@
+package com.example.collabboard.network;
+
+/**
+ * A point-in-time view of one participant's outbound queue, used to spot who is lagging.
+ */
+public class PeerStats {
+    private final String username;
+    private final int queueDepth;
+    private final int maxQueueDepth;
+    private final long dropped;
+    private final long coalesced;
+
+    public PeerStats(String username, int queueDepth, int maxQueueDepth, long dropped, long coalesced) {
+        this.username = username;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.dropped = dropped;
+        this.coalesced = coalesced;
+    }
+
+    public String getUsername() { return username; }
+
+    public int getQueueDepth() { return queueDepth; }
+
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+
+    public long getDropped() { return dropped; }
+
+    public long getCoalesced() { return coalesced; }
+
+    @Override
+    public String toString() {
+        return username + " [queued=" + queueDepth + ", max=" + maxQueueDepth
+                + ", dropped=" + dropped + ", coalesced=" + coalesced + "]";
+    }
+}
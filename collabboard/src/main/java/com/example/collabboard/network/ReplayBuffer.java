@@ -0,0 +1,110 @@
+package com.example.collabboard.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Numbers every message the host relays and keeps the most recent ones, so a participant whose connection
+ * dropped can send "RESUME:&lt;last sequences&gt;:&lt;capabilities&gt;:&lt;username&gt;" and get only what it missed.
+ * Participants opt in with the {@link #CAPABILITY} capability.
+ * <p>
+ * Messages of the {@link Lane#BULK} lane are numbered but not kept, so the buffer holds a bounded number of small
+ * messages. Screen frames are superseded by the next frame anyway. A board snapshot cannot be skipped, so a
+ * participant that missed one gets the operation log's snapshot instead of a replay.
+ */
+class ReplayBuffer {
+    static final String CAPABILITY = "SEQ1";
+    // Stands in for a bulk message that was not kept but must not be missed
+    private static final Message NOT_KEPT = new Message("");
+
+    private final Message[] messages;
+    private final String[] senders;
+    private final long firstSequence;
+    private long nextSequence;
+
+    /**
+     * @param capacity Number of relayed messages kept for replay.
+     */
+    ReplayBuffer(int capacity) {
+        this.messages = new Message[Math.max(1, capacity)];
+        this.senders = new String[messages.length];
+        // A random start keeps the numbers of a restarted host from overlapping the ones a client remembers.
+        this.firstSequence = ThreadLocalRandom.current().nextLong(1, 1L << 40);
+        this.nextSequence = firstSequence;
+    }
+
+    /**
+     * Numbers a message about to be relayed and keeps it for replay.
+     * @param sender Username of the participant that sent it, or null for the host.
+     * @return The numbered message to hand to the outbound queues.
+     */
+    synchronized Message record(Message message, String sender) {
+        Message sequenced = message.sequenced(nextSequence);
+        int slot = slot(nextSequence);
+        if (message.lane() != Lane.BULK) {
+            messages[slot] = sequenced;
+        } else {
+            messages[slot] = message.isScreenFrame() ? null : NOT_KEPT;
+        }
+        senders[slot] = sender;
+        nextSequence++;
+        return sequenced;
+    }
+
+    /**
+     * Parses the resume point of a RESUME message: the last sequence number received in each {@link Lane},
+     * comma separated and 0 for lanes nothing arrived in. A single number applies to every lane.
+     */
+    static long[] parseResumePoint(String text) {
+        String[] parts = text.split(",");
+        long[] lastSequence = new long[Lane.values().length];
+        for (int i = 0; i < lastSequence.length; i++) {
+            lastSequence[i] = Long.parseLong(parts[parts.length == 1 ? 0 : i]);
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Lanes are written in priority order, so a participant can hold a newer message of one lane while an older
+     * one of a lower lane was still queued. Replay therefore starts after the oldest per-lane position and skips
+     * what each lane has already delivered.
+     * @param lastSequence The last sequence number the participant received, per {@link Lane}.
+     * @param username The resuming participant; its own messages are not sent back to it.
+     * @return The messages relayed since, or null if they are no longer all in the buffer or include a board
+     *         snapshot.
+     */
+    synchronized List<Message> since(long[] lastSequence, String username) {
+        long resumePoint = Long.MAX_VALUE;
+        for (long last : lastSequence) {
+            if (last > 0) {
+                resumePoint = Math.min(resumePoint, last);
+            }
+        }
+        long oldest = Math.max(firstSequence, nextSequence - messages.length);
+        if (resumePoint < oldest - 1 || resumePoint >= nextSequence) {
+            return null;
+        }
+        List<Message> missed = new ArrayList<>();
+        for (long sequence = resumePoint + 1; sequence < nextSequence; sequence++) {
+            int slot = slot(sequence);
+            Message message = messages[slot];
+            if (message == NOT_KEPT) {
+                if (sequence > lastSequence[Lane.BULK.ordinal()] && !username.equals(senders[slot])) {
+                    return null;
+                }
+                continue;
+            }
+            // A fresh user list follows the resume anyway.
+            if (message != null && sequence > lastSequence[message.lane().ordinal()]
+                    && !username.equals(senders[slot]) && !message.text().startsWith("USER_LIST:")) {
+                missed.add(message);
+            }
+        }
+        return missed;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % messages.length);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.collabboard.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking transport for the LAN {@link Host}.
+ * The host thread only accepts connections; every accepted socket is handed to one of
+ * a fixed number of {@link IoLoop}s, so the thread count does not grow with the room size.
+ */
+class SelectorServer {
+    private final int port;
+    private final IoLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+
+    SelectorServer(int port, int ioThreads, Host host) throws IOException {
+        this.port = port;
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop(host, "lan-io-" + i);
+        }
+    }
+
+    /**
+     * Accepts connections until {@link #close()} is called. Runs on the host thread.
+     */
+    void run() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                // Writes are batched per flush window, so Nagle would only add delay.
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                // Round-robin keeps the participants spread evenly over the I/O threads.
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } finally {
+            close();
+        }
+    }
+
+    void close() throws IOException {
+        if (serverChannel != null && serverChannel.isOpen()) {
+            serverChannel.close();
+        }
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.collabboard.network;
+
+/**
+ * Decides what happens when a participant cannot keep up with the messages the host sends to it.
+ * Every participant gets an outbound queue of {@code capacity} messages. When it is full the host
+ * first drops the oldest queued screen frames, then merges queued pen segments. If that frees nothing, a new
+ * screen frame is dropped, but any other message disconnects the participant, which then resumes or rejoins
+ * from a snapshot instead of silently missing part of the board. Once {@code disconnectThreshold} screen frames
+ * have been dropped the participant is disconnected as well.
+ */
+public class SlowConsumerPolicy {
+    private final int capacity;
+    private final boolean dropOldestFrames;
+    private final boolean coalesceDraws;
+    private final int disconnectThreshold;
+
+    /**
+     * @param capacity Maximum number of queued messages per participant.
+     * @param dropOldestFrames Whether queued SCREEN_SHARE frames may be discarded to make room.
+     * @param coalesceDraws Whether chained DRAW segments may be merged to make room.
+     * @param disconnectThreshold Dropped screen frames after which the participant is disconnected; 0 never
+     *                            disconnects for screen frames alone.
+     */
+    public SlowConsumerPolicy(int capacity, boolean dropOldestFrames, boolean coalesceDraws, int disconnectThreshold) {
+        this.capacity = capacity;
+        this.dropOldestFrames = dropOldestFrames;
+        this.coalesceDraws = coalesceDraws;
+        this.disconnectThreshold = disconnectThreshold;
+    }
+
+    public static SlowConsumerPolicy defaults() {
+        return new SlowConsumerPolicy(1024, true, true, 256);
+    }
+
+    public int getCapacity() { return capacity; }
+
+    public boolean isDropOldestFrames() { return dropOldestFrames; }
+
+    public boolean isCoalesceDraws() { return coalesceDraws; }
+
+    public int getDisconnectThreshold() { return disconnectThreshold; }
+}
@@ -15,6 +15,8 @@ import java.util.function.Consumer;
 /**
  * A client that connects to a STOMP-based WebSocket server (like the one in Spring).
  * It handles connecting, subscribing to a topic, and sending messages.
+ * Outgoing messages go through a prioritized {@link OutboundQueue} drained by a sender thread, so strokes and
+ * chat overtake screen frames, which are sent in {@link ChunkAssembler} chunks.
  */
 public class StompClient {
 
@@ -25,6 +27,8 @@ public class StompClient {
     private final Consumer<Exception> onFailure;
 
     private StompSession stompSession;
+    private final OutboundQueue outbound = new OutboundQueue(SlowConsumerPolicy.defaults());
+    private final ChunkAssembler chunks = new ChunkAssembler();
 
     public StompClient(String serverUrl, String roomCode, Consumer<String> onDataReceived, Runnable onSuccess, Consumer<Exception> onFailure) {
         this.serverUrl = serverUrl;
@@ -53,6 +57,7 @@ public class StompClient {
                     // Once connected, subscribe to the room's topic to receive messages.
                     session.subscribe("/topic/board/" + roomCode, this);
                     System.out.println("Subscribed to /topic/board/" + roomCode);
+                    startSender(session);
 
                     // Trigger the success callback to notify the UI.
                     onSuccess.run();
@@ -61,7 +66,10 @@ public class StompClient {
                 @Override
                 public void handleFrame(StompHeaders headers, Object payload) {
                     // This method is called whenever a message is received on the subscribed topic.
-                    onDataReceived.accept((String) payload);
+                    Message message = chunks.accept(new Message((String) payload));
+                    if (message != null) {
+                        onDataReceived.accept(message.text());
+                    }
                 }
 
                 @Override
@@ -83,13 +91,36 @@ public class StompClient {
     }
 
     /**
-     * Sends a message to the server for the current room.
+     * Starts the thread that sends queued messages, highest lane first, one chunk of a screen frame at a time.
+     */
+    private void startSender(StompSession session) {
+        outbound.enableChunking(ChunkAssembler.CHUNK_SIZE);
+        Thread sender = new Thread(() -> {
+            try {
+                Message message;
+                while ((message = outbound.take()) != null && session.isConnected()) {
+                    // Sends the message to the destination that the @MessageMapping in the server controller is listening to.
+                    session.send("/app/board/" + roomCode, message.text());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                System.err.println("STOMP send failed: " + e.getMessage());
+            }
+        }, "stomp-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Queues a message for the server for the current room. Returns immediately.
      * @param data The message payload (e.g., drawing or chat data).
      */
     public void sendMessage(String data) {
-        if (stompSession != null && stompSession.isConnected()) {
-            // Sends the message to the destination that the @MessageMapping in the server controller is listening to.
-            stompSession.send("/app/board/" + roomCode, data);
+        if (stompSession != null && stompSession.isConnected() && !outbound.offer(new Message(data))) {
+            System.err.println("STOMP server is not keeping up, disconnecting: " + outbound.stats(roomCode));
+            disconnect();
+            onFailure.accept(new Exception("Server stopped keeping up with outgoing messages"));
         }
     }
 
@@ -97,6 +128,7 @@ public class StompClient {
      * Disconnects from the WebSocket server.
      */
     public void disconnect() {
+        outbound.close();
         if (stompSession != null && stompSession.isConnected()) {
             stompSession.disconnect();
         }
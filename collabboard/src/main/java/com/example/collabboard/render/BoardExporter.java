@@ -0,0 +1,473 @@
+package com.example.collabboard.render;
+
+import com.example.collabboard.board.BoardDocument;
+import javafx.application.Platform;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Exports the board as an image at any resolution, off the FX thread.
+ * <p>
+ * The board is copied when the export starts and then rendered from that copy with Java2D, so it can be as
+ * large as the resolution asks for rather than what fits on screen, and drawing on the board goes on meanwhile.
+ * The image is cut into tiles of {@code tileSize} pixels that are rendered in parallel on a fork-join pool.
+ * <p>
+ * A PNG is written as it is rendered: each band, a row of tiles, is filtered and deflated on its own on the pool
+ * and appended to the file in order, as part of one zlib stream. Only a few bands are in memory at a time, so
+ * a poster at print resolution needs no more than {@code memoryBytes}. A JPEG has to be encoded in one piece and
+ * is refused when the whole image does not fit into that budget.
+ */
+public final class BoardExporter {
+    /** Pixels of the image per board unit are dpi / SCREEN_DPI. */
+    public static final double SCREEN_DPI = 96;
+    // Space around the drawing, in board units
+    private static final double PADDING = 20;
+    private static final int MAX_DIMENSION = 65_536;
+    private static final float JPEG_QUALITY = 0.92f;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    public enum Format {
+        PNG, JPEG
+    }
+
+    /**
+     * A running export. The callbacks given to {@link #export} tell how it goes.
+     */
+    public static final class Export {
+        private volatile boolean cancelled;
+        private volatile ImageWriter writer;
+
+        /**
+         * Stops the export as soon as possible and deletes what was written; it then completes with a
+         * {@link CancellationException}.
+         */
+        public void cancel() {
+            cancelled = true;
+            ImageWriter current = writer;
+            if (current != null) {
+                current.abort();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException("Export cancelled");
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+    private final long memoryBytes;
+
+    /**
+     * @param tileSize Width and height of the tiles rendered at a time, in pixels.
+     * @param threads Threads rendering and encoding, 0 for one per core.
+     * @param memoryBytes Pixels held in memory at a time, at most.
+     */
+    public BoardExporter(int tileSize, int threads, long memoryBytes) {
+        this.pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        this.tileSize = Math.max(16, tileSize);
+        this.memoryBytes = Math.max(16L * 1024 * 1024, memoryBytes);
+    }
+
+    /**
+     * Starts exporting the visible objects of the board, with some padding, on a white background. Must be
+     * called from the FX thread, and the callbacks are run there.
+     * @param dpi Resolution; the board at 100% zoom is SCREEN_DPI.
+     * @param onProgress Gets the part done, between 0 and 1, whenever another percent is done.
+     * @param onDone Gets null once the file is complete, or what made the export fail, which is a
+     *               {@link CancellationException} after {@link Export#cancel()}. A failed export leaves no file.
+     * @throws IllegalArgumentException if the board is empty or the image would be too large.
+     */
+    public Export export(BoardDocument board, Path file, Format format, double dpi,
+                         DoubleConsumer onProgress, Consumer<Throwable> onDone) {
+        FrozenBoard frozen = new FrozenBoard(board);
+        double[] extent = frozen.extent();
+        if (extent == null) {
+            throw new IllegalArgumentException("The board is empty");
+        }
+        double scale = dpi / SCREEN_DPI;
+        double originX = extent[0] - PADDING;
+        double originY = extent[1] - PADDING;
+        long width = (long) Math.ceil((extent[2] + PADDING - originX) * scale);
+        long height = (long) Math.ceil((extent[3] + PADDING - originY) * scale);
+        if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("Image of " + width + "x" + height + " pixels is too large");
+        }
+        if (format == Format.JPEG && width * height * 4 > memoryBytes) {
+            throw new IllegalArgumentException("Image of " + width + "x" + height
+                    + " pixels is too large for JPEG, export it as PNG or at a lower resolution");
+        }
+
+        Export export = new Export();
+        Job job = new Job(export, frozen, scale, originX, originY, (int) width, (int) height, onProgress);
+        Thread thread = new Thread(() -> {
+            Throwable failure = null;
+            try {
+                if (format == Format.PNG) {
+                    writePng(job, file);
+                } else {
+                    writeJpeg(job, file);
+                }
+                export.checkCancelled();
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (Exception | OutOfMemoryError e) {
+                failure = e;
+            }
+            if (failure != null) {
+                if (export.isCancelled()) {
+                    failure = new CancellationException("Export cancelled");
+                }
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Could not delete incomplete export: " + e.getMessage());
+                }
+            }
+            Throwable result = failure;
+            Platform.runLater(() -> onDone.accept(result));
+        }, "board-export");
+        thread.setDaemon(true);
+        thread.start();
+        return export;
+    }
+
+    /**
+     * One export: the board copy, where it goes in the image, and the progress reported so far.
+     */
+    private static final class Job {
+        final Export export;
+        final FrozenBoard board;
+        final double scale;
+        final double originX;
+        final double originY;
+        final int width;
+        final int height;
+        // How far past its bounds an object draws, including a pixel of anti-aliasing
+        final double margin;
+        private final DoubleConsumer onProgress;
+        private final AtomicInteger percent = new AtomicInteger(-1);
+
+        Job(Export export, FrozenBoard board, double scale, double originX, double originY, int width, int height,
+            DoubleConsumer onProgress) {
+            this.export = export;
+            this.board = board;
+            this.scale = scale;
+            this.originX = originX;
+            this.originY = originY;
+            this.width = width;
+            this.height = height;
+            this.margin = 1 + 1 / scale;
+            this.onProgress = onProgress;
+        }
+
+        void progress(double done) {
+            int now = (int) (done * 100);
+            int before = percent.get();
+            if (now > before && percent.compareAndSet(before, now)) {
+                Platform.runLater(() -> onProgress.accept(now / 100.0));
+            }
+        }
+    }
+
+    /**
+     * Renders the image rectangle that starts at (x, y) into the image, which is the size of the rectangle.
+     */
+    private static void renderTile(Job job, BufferedImage image, int x, int y) {
+        job.export.checkCancelled();
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            // Exact geometry, so lines continue seamlessly into the next tile
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.translate(-x, -y);
+            g.scale(job.scale, job.scale);
+            g.translate(-job.originX, -job.originY);
+            double x0 = job.originX + x / job.scale;
+            double y0 = job.originY + y / job.scale;
+            job.board.paint(g, x0, y0, x0 + image.getWidth() / job.scale, y0 + image.getHeight() / job.scale,
+                    job.margin);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Renders the tiles of the image rows [y, y + image height) in parallel into the image; call from the pool.
+     */
+    private void renderBand(Job job, BufferedImage image, int y) {
+        List<ForkJoinTask<?>> tiles = new ArrayList<>();
+        for (int x = 0; x < job.width; x += tileSize) {
+            BufferedImage tile = image.getSubimage(x, 0, Math.min(tileSize, job.width - x), image.getHeight());
+            int tileX = x;
+            tiles.add(ForkJoinTask.adapt(() -> renderTile(job, tile, tileX, y)));
+        }
+        ForkJoinTask.invokeAll(tiles);
+    }
+
+    // PNG
+
+    /**
+     * A band of the PNG, deflated; together the bands make one zlib stream.
+     */
+    private static final class Band {
+        final byte[] deflated;
+        final long adler;
+        final long rawLength;
+
+        Band(byte[] deflated, long adler, long rawLength) {
+            this.deflated = deflated;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private void writePng(Job job, Path file) throws IOException, ExecutionException, InterruptedException {
+        // Each band in flight holds its pixels, its filtered rows and their deflated form
+        long bytesPerRow = (long) job.width * 8;
+        int bandHeight = (int) Math.max(1, Math.min(tileSize, memoryBytes / 2 / bytesPerRow));
+        int bands = (job.height + bandHeight - 1) / bandHeight;
+        long inFlight = Math.max(2, Math.min(pool.getParallelism() + 1L, memoryBytes / (bytesPerRow * bandHeight)));
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            out.write(PNG_SIGNATURE);
+            byte[] header = new byte[13];
+            putInt(header, 0, job.width);
+            putInt(header, 4, job.height);
+            header[8] = 8; // Bit depth
+            header[9] = 2; // Truecolor
+            writeChunk(out, "IHDR", header);
+            byte[] density = new byte[9];
+            int pixelsPerMetre = (int) Math.round(job.scale * SCREEN_DPI / 0.0254);
+            putInt(density, 0, pixelsPerMetre);
+            putInt(density, 4, pixelsPerMetre);
+            density[8] = 1; // Metres
+            writeChunk(out, "pHYs", density);
+
+            ArrayDeque<Future<Band>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            long adler = 1;
+            for (int band = 0; band < bands; band++) {
+                while (submitted < bands && pending.size() < inFlight) {
+                    int y = submitted * bandHeight;
+                    boolean last = ++submitted == bands;
+                    pending.add(pool.submit(() -> encodeBand(job, y, Math.min(bandHeight, job.height - y), last)));
+                }
+                Band encoded;
+                try {
+                    encoded = pending.remove().get();
+                } catch (ExecutionException | InterruptedException e) {
+                    pending.forEach(f -> f.cancel(false));
+                    throw e;
+                }
+                adler = combineAdler32(adler, encoded.adler, encoded.rawLength);
+                byte[] zlibHeader = band == 0 ? new byte[] {0x78, 0x01} : new byte[0];
+                byte[] checksum = new byte[band == bands - 1 ? 4 : 0];
+                if (checksum.length > 0) {
+                    putInt(checksum, 0, (int) adler);
+                }
+                writeChunk(out, "IDAT", zlibHeader, encoded.deflated, checksum);
+                job.progress((double) (band + 1) / bands);
+            }
+            writeChunk(out, "IEND");
+        }
+    }
+
+    /**
+     * Renders, filters and deflates the image rows [y, y + height). The deflated data ends on a byte boundary
+     * so the next band can follow it, or ends the stream if this is the last band.
+     */
+    private Band encodeBand(Job job, int y, int height, boolean last) {
+        BufferedImage image = new BufferedImage(job.width, height, BufferedImage.TYPE_INT_RGB);
+        renderBand(job, image, y);
+        job.export.checkCancelled();
+
+        // Up filter, which turns the large plain areas of a board into zeros, except for the first row of the
+        // band: it uses Sub so the band does not depend on the one before
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int width = job.width;
+        int rowLength = width * 3 + 1;
+        byte[] raw = new byte[rowLength * height];
+        for (int row = 0; row < height; row++) {
+            int offset = row * rowLength;
+            int pixel = row * width;
+            if (row == 0) {
+                raw[offset++] = 1;
+                int left = 0;
+                for (int x = 0; x < width; x++) {
+                    int rgb = pixels[pixel + x];
+                    raw[offset++] = (byte) ((rgb >> 16) - (left >> 16));
+                    raw[offset++] = (byte) ((rgb >> 8) - (left >> 8));
+                    raw[offset++] = (byte) (rgb - left);
+                    left = rgb;
+                }
+            } else {
+                raw[offset++] = 2;
+                for (int x = 0; x < width; x++) {
+                    int rgb = pixels[pixel + x];
+                    int up = pixels[pixel + x - width];
+                    raw[offset++] = (byte) ((rgb >> 16) - (up >> 16));
+                    raw[offset++] = (byte) ((rgb >> 8) - (up >> 8));
+                    raw[offset++] = (byte) (rgb - up);
+                }
+            }
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 8);
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            deflater.setInput(raw);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflated.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                while (!deflater.needsInput()) {
+                    deflated.write(buffer, 0, deflater.deflate(buffer));
+                }
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    deflated.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Band(deflated.toByteArray(), adler.getValue(), raw.length);
+    }
+
+    /**
+     * The Adler-32 of two byte sequences one after the other, from the checksums of each.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = remainder * sum1 % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[]... parts) throws IOException {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        byte[] word = new byte[4];
+        putInt(word, 0, length);
+        out.write(word);
+        out.write(typeBytes);
+        for (byte[] part : parts) {
+            out.write(part);
+            crc.update(part);
+        }
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    // JPEG
+
+    private void writeJpeg(Job job, Path path) throws IOException, ExecutionException, InterruptedException {
+        BufferedImage image = new BufferedImage(job.width, job.height, BufferedImage.TYPE_INT_RGB);
+        int rows = (job.height + tileSize - 1) / tileSize;
+        AtomicInteger rowsDone = new AtomicInteger();
+        // Rendering is the first half of the progress, encoding the second
+        pool.submit(() -> {
+            List<ForkJoinTask<?>> bands = new ArrayList<>();
+            for (int y = 0; y < job.height; y += tileSize) {
+                int bandY = y;
+                BufferedImage band = image.getSubimage(0, y, job.width, Math.min(tileSize, job.height - y));
+                bands.add(ForkJoinTask.adapt(() -> {
+                    renderBand(job, band, bandY);
+                    job.progress(0.5 * rowsDone.incrementAndGet() / rows);
+                }));
+            }
+            ForkJoinTask.invokeAll(bands);
+        }).get();
+        job.export.checkCancelled();
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+            @Override public void imageStarted(ImageWriter source, int imageIndex) { }
+            @Override public void imageProgress(ImageWriter source, float percentageDone) {
+                job.progress(0.5 + percentageDone / 200);
+            }
+            @Override public void imageComplete(ImageWriter source) { }
+            @Override public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) { }
+            @Override public void thumbnailProgress(ImageWriter source, float percentageDone) { }
+            @Override public void thumbnailComplete(ImageWriter source) { }
+            @Override public void writeAborted(ImageWriter source) { }
+        });
+        try (OutputStream file = Files.newOutputStream(path);
+             ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            job.export.writer = writer;
+            if (!job.export.isCancelled()) {
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+        } finally {
+            job.export.writer = null;
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.example.collabboard.render;
+
+import com.example.collabboard.board.BoardDocument;
+import com.example.collabboard.board.IndexList;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.transform.Transform;
+import javafx.stage.Window;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws a {@link BoardDocument} as an unbounded, tiled board. Must be used from the FX thread.
+ * <p>
+ * The board is cut into square tiles of {@code tileSize} screen pixels at the current zoom. Each tile is its own
+ * canvas, rasterized on demand from the objects the board's spatial index finds in it, and the tiles sit in a
+ * {@link #tileLayer()} that is translated by the scroll position. Panning therefore only moves that layer and
+ * rasterizes the tiles that come into view; only the tiles on screen plus a {@link TileCache} of recently shown
+ * ones are kept, under a byte budget. Zooming rasterizes the board again at the new scale instead of magnifying
+ * pixels.
+ * <p>
+ * New objects at the end of the board are drawn straight into the tiles they touch. An object that belongs below
+ * others, or one that was deleted or restored, repaints only its bounding box: each tile keeps its last few raster
+ * checkpoints, taken every {@code checkpointInterval} objects drawn into it or once drawing them took
+ * {@code checkpointRenderMillis}, so a repaint restores the newest checkpoint below the change and replays only the
+ * objects after it that overlap the box.
+ * <p>
+ * Strokes that are still being drawn are not part of the board; they go onto the overlay canvas above the tiles,
+ * which the renderer clears and hands back to its painter whenever the view changes.
+ */
+public class BoardRenderer {
+    private static final double SHAPE_LINE_WIDTH = 2.0;
+    // Half the shape line width; a screen pixel of anti-aliasing comes on top, see margin()
+    private static final double MARGIN = SHAPE_LINE_WIDTH / 2;
+    private static final Color STICKY_NOTE_FILL = Color.web("#FFFFE0");
+    private static final Font STICKY_NOTE_FONT = new Font("System", 14);
+
+    private final Canvas overlay;
+    private final GraphicsContext overlayGraphics;
+    private final Group tileLayer = new Group();
+    private final BoardDocument board;
+    private final TileCache tiles;
+    private final int tileSize;
+    private final int checkpointInterval;
+    private final long checkpointRenderNanos;
+    private final Runnable overlayPainter;
+    private final IndexList visible = new IndexList();
+
+    // Screen pixel of the zoomed board at the top left corner of the view, and screen pixels per board unit
+    private double scrollX;
+    private double scrollY;
+    private double zoom = 1.0;
+    // Tiles on screen, inclusive; empty until the first layout
+    private int firstColumn;
+    private int firstRow;
+    private int lastColumn = -1;
+    private int lastRow = -1;
+
+    // Board region a partial repaint is confined to; erasing must not reach past it
+    private double clipMinX = Double.NEGATIVE_INFINITY;
+    private double clipMinY = Double.NEGATIVE_INFINITY;
+    private double clipMaxX = Double.POSITIVE_INFINITY;
+    private double clipMaxY = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param overlay The canvas in front of the tiles that receives input and shows strokes in progress; its size
+     *                is the size of the view.
+     * @param tileSize Side of a tile in screen pixels.
+     * @param checkpointInterval Objects drawn into a tile between two of its checkpoints.
+     * @param checkpointRenderMillis Drawing time after which a tile is checkpointed even before the interval.
+     * @param tileBudgetBytes Memory all tiles and checkpoints together may use.
+     * @param overlayPainter Draws the strokes in progress onto the overlay in board coordinates, after the
+     *                       renderer cleared it.
+     */
+    public BoardRenderer(Canvas overlay, BoardDocument board, int tileSize, int checkpointInterval,
+                         int checkpointRenderMillis, long tileBudgetBytes, Runnable overlayPainter) {
+        this.overlay = overlay;
+        this.overlayGraphics = overlay.getGraphicsContext2D();
+        this.board = board;
+        this.tiles = new TileCache(tileBudgetBytes);
+        this.tileSize = Math.max(64, tileSize);
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.checkpointRenderNanos = checkpointRenderMillis * 1_000_000L;
+        this.overlayPainter = overlayPainter;
+        // Input goes to the overlay, and the layer must not make its parent as large as the board
+        tileLayer.setMouseTransparent(true);
+        tileLayer.setManaged(false);
+        overlay.widthProperty().addListener((obs, oldVal, newVal) -> updateViewport());
+        overlay.heightProperty().addListener((obs, oldVal, newVal) -> updateViewport());
+    }
+
+    /**
+     * @return The node holding the tiles; it belongs right behind the overlay, in a parent that clips it.
+     */
+    public Node tileLayer() {
+        return tileLayer;
+    }
+
+    // --- Viewport ---
+
+    public double toBoardX(double screenX) {
+        return (screenX + scrollX) / zoom;
+    }
+
+    public double toBoardY(double screenY) {
+        return (screenY + scrollY) / zoom;
+    }
+
+    public double toScreenX(double boardX) {
+        return boardX * zoom - scrollX;
+    }
+
+    public double toScreenY(double boardY) {
+        return boardY * zoom - scrollY;
+    }
+
+    public double zoom() {
+        return zoom;
+    }
+
+    /**
+     * Moves the board by a distance in screen pixels, e.g. the distance the mouse was dragged.
+     */
+    public void pan(double deltaX, double deltaY) {
+        scrollX = Math.rint(scrollX - deltaX);
+        scrollY = Math.rint(scrollY - deltaY);
+        updateViewport();
+    }
+
+    /**
+     * Changes the zoom, keeping the point in the middle of the view where it is.
+     */
+    public void setZoom(double newZoom) {
+        if (newZoom <= 0 || newZoom == zoom) {
+            return;
+        }
+        double centerX = overlay.getWidth() / 2;
+        double centerY = overlay.getHeight() / 2;
+        double boardX = toBoardX(centerX);
+        double boardY = toBoardY(centerY);
+        zoom = newZoom;
+        scrollX = Math.rint(boardX * zoom - centerX);
+        scrollY = Math.rint(boardY * zoom - centerY);
+        // Tiles of the old zoom cannot be reused
+        dropTiles();
+        updateViewport();
+    }
+
+    // --- Board changes ---
+
+    /**
+     * Draws an object just added to the board: straight into the tiles it touches if it is the topmost one,
+     * otherwise by repainting its box, since objects above it have to stay on top.
+     */
+    public void drawInserted(int index) {
+        if (index < board.size() - 1) {
+            repaint(index);
+            return;
+        }
+        double margin = margin();
+        double x0 = board.minX(index) - margin, y0 = board.minY(index) - margin;
+        double x1 = board.maxX(index) + margin, y1 = board.maxY(index) + margin;
+        List<TileCache.Tile> stale = null;
+        for (TileCache.Tile tile : tiles.tiles()) {
+            if (!tile.intersects(x0, y0, x1, y1)) {
+                continue;
+            }
+            if (!tile.visible) {
+                // Cheaper to rasterize again should it ever come back into view
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(tile);
+                continue;
+            }
+            long start = System.nanoTime();
+            drawObject(tile.graphics, index);
+            tile.objectsSinceCheckpoint++;
+            tile.nanosSinceCheckpoint += System.nanoTime() - start;
+            checkpointIfDue(tile);
+        }
+        removeAll(stale);
+        tiles.trim();
+    }
+
+    /**
+     * Repaints the bounding box of the object at {@code index}, e.g. after it was deleted or restored.
+     */
+    public void repaint(int index) {
+        double margin = margin();
+        redrawRegion(board.minX(index) - margin, board.minY(index) - margin,
+                board.maxX(index) + margin, board.maxY(index) + margin);
+    }
+
+    /**
+     * Repaints a rectangle of the board, given in board coordinates, in every tile on screen it touches.
+     */
+    public void redrawRegion(double minX, double minY, double maxX, double maxY) {
+        List<TileCache.Tile> stale = null;
+        for (TileCache.Tile tile : tiles.tiles()) {
+            if (!tile.intersects(minX, minY, maxX, maxY)) {
+                continue;
+            }
+            if (tile.visible) {
+                redrawRegion(tile, minX, minY, maxX, maxY);
+            } else {
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(tile);
+            }
+        }
+        removeAll(stale);
+        tiles.trim();
+    }
+
+    /**
+     * Rasterizes the view from scratch, e.g. after a snapshot of the board was loaded.
+     */
+    public void redraw() {
+        dropTiles();
+        updateViewport();
+    }
+
+    /**
+     * Drops every tile, e.g. after the board was cleared.
+     */
+    public void reset() {
+        redraw();
+    }
+
+    /**
+     * Clears the overlay and lets the painter draw the strokes in progress again.
+     */
+    public void repaintOverlay() {
+        overlayGraphics.setTransform(1, 0, 0, 1, 0, 0);
+        overlayGraphics.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        overlayGraphics.setTransform(zoom, 0, 0, zoom, -scrollX, -scrollY);
+        overlayPainter.run();
+    }
+
+    /**
+     * @return What is on screen, without the overlay, on white.
+     */
+    public WritableImage snapshot() {
+        SnapshotParameters parameters = new SnapshotParameters();
+        // In the coordinates of the layer's parent, where the view starts at the origin
+        parameters.setViewport(new Rectangle2D(0, 0, overlay.getWidth(), overlay.getHeight()));
+        return tileLayer.snapshot(parameters, new WritableImage((int) overlay.getWidth(), (int) overlay.getHeight()));
+    }
+
+    // --- Tiles ---
+
+    /**
+     * Moves the tile layer to the scroll position, shows the tiles that came into view, rasterizing those that are
+     * not cached, and takes off those that left it.
+     */
+    private void updateViewport() {
+        double width = overlay.getWidth();
+        double height = overlay.getHeight();
+        tileLayer.setTranslateX(-scrollX);
+        tileLayer.setTranslateY(-scrollY);
+        int columnFrom = (int) Math.floor(scrollX / tileSize);
+        int rowFrom = (int) Math.floor(scrollY / tileSize);
+        int columnTo = (int) Math.floor((scrollX + Math.max(width, 1) - 1) / tileSize);
+        int rowTo = (int) Math.floor((scrollY + Math.max(height, 1) - 1) / tileSize);
+        if (columnFrom != firstColumn || rowFrom != firstRow || columnTo != lastColumn || rowTo != lastRow) {
+            firstColumn = columnFrom;
+            firstRow = rowFrom;
+            lastColumn = columnTo;
+            lastRow = rowTo;
+            for (TileCache.Tile tile : tiles.tiles()) {
+                if (tile.visible && !onScreen(tile)) {
+                    tile.visible = false;
+                    tileLayer.getChildren().remove(tile.canvas);
+                }
+            }
+            for (int row = rowFrom; row <= rowTo; row++) {
+                for (int column = columnFrom; column <= columnTo; column++) {
+                    TileCache.Tile tile = tiles.get(column, row);
+                    if (tile == null) {
+                        tile = new TileCache.Tile(column, row, tileSize, zoom, outputScale());
+                        tiles.put(tile);
+                        rasterize(tile);
+                    }
+                    if (!tile.visible) {
+                        tile.visible = true;
+                        tileLayer.getChildren().add(tile.canvas);
+                    }
+                }
+            }
+            tiles.trim();
+        }
+        repaintOverlay();
+    }
+
+    private boolean onScreen(TileCache.Tile tile) {
+        return tile.column >= firstColumn && tile.column <= lastColumn && tile.row >= firstRow && tile.row <= lastRow;
+    }
+
+    private void dropTiles() {
+        tiles.clear();
+        tileLayer.getChildren().clear();
+        firstColumn = 0;
+        firstRow = 0;
+        lastColumn = -1;
+        lastRow = -1;
+    }
+
+    private void removeAll(List<TileCache.Tile> stale) {
+        if (stale != null) {
+            for (TileCache.Tile tile : stale) {
+                tiles.remove(tile);
+            }
+        }
+    }
+
+    /**
+     * Draws everything on the board that touches a new tile.
+     */
+    private void rasterize(TileCache.Tile tile) {
+        long start = System.nanoTime();
+        tile.graphics.setTransform(zoom, 0, 0, zoom, -(double) tile.column * tileSize, -(double) tile.row * tileSize);
+        double margin = margin();
+        tile.objectsSinceCheckpoint = drawVisible(tile.graphics, 0,
+                tile.minX - margin, tile.minY - margin, tile.maxX + margin, tile.maxY + margin);
+        tile.nanosSinceCheckpoint = System.nanoTime() - start;
+        checkpointIfDue(tile);
+    }
+
+    /**
+     * Repaints the part of a tile inside a board rectangle: clears it, restores it from the newest usable checkpoint
+     * and draws the objects after that checkpoint which overlap it, clipped to the rectangle.
+     */
+    private void redrawRegion(TileCache.Tile tile, double minX, double minY, double maxX, double maxY) {
+        // Whole pixels of the tile, so anti-aliased edges are repainted completely
+        double x0 = Math.max(0, Math.floor((minX - tile.minX) * zoom));
+        double y0 = Math.max(0, Math.floor((minY - tile.minY) * zoom));
+        double x1 = Math.min(tileSize, Math.ceil((maxX - tile.minX) * zoom));
+        double y1 = Math.min(tileSize, Math.ceil((maxY - tile.minY) * zoom));
+        if (x1 <= x0 || y1 <= y0) {
+            return;
+        }
+        long start = System.nanoTime();
+        GraphicsContext g = tile.graphics;
+        g.save();
+        g.setTransform(1, 0, 0, 1, 0, 0);
+        g.beginPath();
+        g.rect(x0, y0, x1 - x0, y1 - y0);
+        g.clip();
+        clipMinX = tile.minX + x0 / zoom;
+        clipMinY = tile.minY + y0 / zoom;
+        clipMaxX = tile.minX + x1 / zoom;
+        clipMaxY = tile.minY + y1 / zoom;
+        try {
+            g.clearRect(x0, y0, x1 - x0, y1 - y0);
+            int from = 0;
+            TileCache.Checkpoint checkpoint = newestValidCheckpoint(tile);
+            if (checkpoint != null) {
+                double scale = checkpoint.scale;
+                g.drawImage(checkpoint.image, x0 * scale, y0 * scale, (x1 - x0) * scale, (y1 - y0) * scale,
+                        x0, y0, x1 - x0, y1 - y0);
+                from = checkpoint.position;
+            }
+            g.setTransform(zoom, 0, 0, zoom, -(double) tile.column * tileSize, -(double) tile.row * tileSize);
+            double margin = margin();
+            int drawn = drawVisible(g, from, clipMinX - margin, clipMinY - margin, clipMaxX + margin, clipMaxY + margin);
+            tile.objectsSinceCheckpoint = Math.max(tile.objectsSinceCheckpoint, drawn);
+        } finally {
+            g.restore();
+            clipMinX = Double.NEGATIVE_INFINITY;
+            clipMinY = Double.NEGATIVE_INFINITY;
+            clipMaxX = Double.POSITIVE_INFINITY;
+            clipMaxY = Double.POSITIVE_INFINITY;
+        }
+        tile.nanosSinceCheckpoint += System.nanoTime() - start;
+        checkpointIfDue(tile);
+    }
+
+    /**
+     * A checkpoint holds the objects before its position as they were drawn then. It is stale once an object was
+     * inserted among them, one of them was deleted or restored, or a CLEAR removed them (ids are never reused);
+     * stale ones are dropped. A change above the position of an older checkpoint leaves that one usable.
+     * @return The newest checkpoint of the tile that is not stale, or null.
+     */
+    private TileCache.Checkpoint newestValidCheckpoint(TileCache.Tile tile) {
+        List<TileCache.Checkpoint> checkpoints = tile.checkpoints;
+        double scale = outputScale();
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            TileCache.Checkpoint checkpoint = checkpoints.get(i);
+            int position = checkpoint.position;
+            if (position <= board.size() && board.id(position - 1) == checkpoint.lastId
+                    && board.lowestChangedSince(checkpoint.revision) >= position && checkpoint.scale == scale) {
+                tiles.removeCheckpoints(tile, i + 1);
+                return checkpoint;
+            }
+        }
+        tiles.removeCheckpoints(tile, 0);
+        return null;
+    }
+
+    /**
+     * Draws the visible objects from position {@code from} on that overlap the rectangle, in board order.
+     * @return How many were drawn.
+     */
+    private int drawVisible(GraphicsContext g, int from, double minX, double minY, double maxX, double maxY) {
+        board.query(minX, minY, maxX, maxY, visible);
+        int drawn = 0;
+        for (int i = 0; i < visible.size(); i++) {
+            int index = visible.get(i);
+            if (index >= from) {
+                drawObject(g, index);
+                drawn++;
+            }
+        }
+        visible.clear();
+        return drawn;
+    }
+
+    private void checkpointIfDue(TileCache.Tile tile) {
+        if (board.size() == 0 || (tile.objectsSinceCheckpoint < checkpointInterval && tile.nanosSinceCheckpoint < checkpointRenderNanos)) {
+            return;
+        }
+        double scale = outputScale();
+        int pixels = (int) Math.ceil(tileSize * scale);
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        // Device pixels, so restoring from the checkpoint does not blur the tile
+        parameters.setTransform(Transform.scale(scale, scale));
+        WritableImage image = tiles.recycleCheckpoint(tile, pixels);
+        image = tile.canvas.snapshot(parameters, image != null ? image : new WritableImage(pixels, pixels));
+        tiles.addCheckpoint(tile, new TileCache.Checkpoint(image, board.size(), board.id(board.size() - 1),
+                board.revision(), scale));
+        tile.objectsSinceCheckpoint = 0;
+        tile.nanosSinceCheckpoint = 0;
+    }
+
+    /**
+     * @return How far, in board units, drawing an object can reach past its bounding box.
+     */
+    private double margin() {
+        return MARGIN + 1 / zoom;
+    }
+
+    private double outputScale() {
+        Window window = overlay.getScene() != null ? overlay.getScene().getWindow() : null;
+        return window != null ? window.getOutputScaleX() : 1.0;
+    }
+
+    private void erase(GraphicsContext g, double x, double y, double size) {
+        double x0 = Math.max(x - size / 2, clipMinX);
+        double y0 = Math.max(y - size / 2, clipMinY);
+        double x1 = Math.min(x + size / 2, clipMaxX);
+        double y1 = Math.min(y + size / 2, clipMaxY);
+        if (x1 > x0 && y1 > y0) {
+            g.clearRect(x0, y0, x1 - x0, y1 - y0);
+        }
+    }
+
+    /**
+     * Draws one object straight from the document's columns, without parsing or allocating
+     * (sticky note lines aside).
+     */
+    private void drawObject(GraphicsContext g, int index) {
+        float[] coords = board.coords();
+        int c = board.coordStart(index);
+        switch (board.kind(index)) {
+            case DRAW:
+                g.setStroke(board.color(index));
+                g.setLineWidth(SHAPE_LINE_WIDTH);
+                g.beginPath();
+                g.moveTo(coords[c], coords[c + 1]);
+                g.lineTo(coords[c + 2], coords[c + 3]);
+                g.stroke();
+                break;
+            case STROKE:
+                if (board.coordLength(index) < 2) {
+                    break;
+                }
+                g.setStroke(board.color(index));
+                g.setLineWidth(board.width(index));
+                g.beginPath();
+                g.moveTo(coords[c], coords[c + 1]);
+                int end = c + board.coordLength(index);
+                for (int i = c + 2; i + 1 < end; i += 2) {
+                    g.lineTo(coords[i], coords[i + 1]);
+                }
+                g.stroke();
+                break;
+            case ERASE:
+                for (int i = c; i + 1 < c + board.coordLength(index); i += 2) {
+                    erase(g, coords[i], coords[i + 1], board.width(index));
+                }
+                break;
+            case RECTANGLE:
+                g.setStroke(board.color(index));
+                g.setLineWidth(SHAPE_LINE_WIDTH);
+                g.strokeRect(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]);
+                break;
+            case OVAL:
+                g.setStroke(board.color(index));
+                g.setLineWidth(SHAPE_LINE_WIDTH);
+                g.strokeOval(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]);
+                break;
+            case STICKY_NOTE:
+                drawStickyNote(g, coords[c], coords[c + 1], board.text(index));
+                break;
+            default:
+                break; // Stroke messages, DELETE, RESTORE and CLEAR never become objects
+        }
+    }
+
+    private void drawStickyNote(GraphicsContext g, double x, double y, String text) {
+        double width = BoardDocument.STICKY_NOTE_WIDTH;
+        double height = BoardDocument.STICKY_NOTE_HEIGHT;
+        g.setFill(STICKY_NOTE_FILL);
+        g.setStroke(Color.DARKGRAY);
+        g.setLineWidth(1.0);
+        g.fillRect(x, y, width, height);
+        g.strokeRect(x, y, width, height);
+        // Text stays inside the note, so the note's bounds cover everything it draws
+        g.save();
+        g.beginPath();
+        g.rect(x, y, width, height);
+        g.clip();
+        g.setFill(Color.BLACK);
+        g.setFont(STICKY_NOTE_FONT);
+        int lineStart = 0;
+        for (int i = 0; i < 5 && lineStart <= text.length(); i++) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            g.fillText(text.substring(lineStart, lineEnd), x + 5, y + 20 + (i * 18));
+            lineStart = lineEnd + 1;
+        }
+        g.restore();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.collabboard.render;
+
+import com.example.collabboard.board.BoardDocument;
+import com.example.collabboard.board.BoardOp;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A copy of the visible objects of a board, taken on the FX thread, that any number of threads can then paint
+ * with Java2D while the board itself keeps changing. Drawing matches {@link BoardRenderer}; only the pixels of
+ * erased spots are white instead of transparent.
+ */
+final class FrozenBoard {
+    private static final float SHAPE_LINE_WIDTH = 2.0f;
+    private static final Color STICKY_NOTE_FILL = new Color(0xFF, 0xFF, 0xE0);
+    private static final Font STICKY_NOTE_FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 14);
+
+    private final int size;
+    private final BoardOp.Kind[] kinds;
+    private final Color[] colors;
+    private final float[] widths;
+    private final int[] coordStarts;
+    private final int[] coordLengths;
+    private final float[] coords;
+    private final String[] texts;
+    private final float[] bounds;
+
+    /**
+     * Copies the board; must be called from the FX thread.
+     */
+    FrozenBoard(BoardDocument board) {
+        int visible = 0;
+        int coordCount = 0;
+        for (int i = 0; i < board.size(); i++) {
+            if (!board.isHidden(i)) {
+                visible++;
+                coordCount += board.coordLength(i);
+            }
+        }
+        size = visible;
+        kinds = new BoardOp.Kind[visible];
+        colors = new Color[visible];
+        widths = new float[visible];
+        coordStarts = new int[visible];
+        coordLengths = new int[visible];
+        coords = new float[coordCount];
+        texts = new String[visible];
+        bounds = new float[visible * 4];
+        float[] source = board.coords();
+        int n = 0;
+        int c = 0;
+        for (int i = 0; i < board.size(); i++) {
+            if (board.isHidden(i)) {
+                continue;
+            }
+            kinds[n] = board.kind(i);
+            int rgba = board.rgba(i);
+            colors[n] = new Color(rgba >>> 24, (rgba >>> 16) & 0xFF, (rgba >>> 8) & 0xFF, rgba & 0xFF);
+            widths[n] = board.width(i);
+            coordStarts[n] = c;
+            coordLengths[n] = board.coordLength(i);
+            System.arraycopy(source, board.coordStart(i), coords, c, board.coordLength(i));
+            c += board.coordLength(i);
+            texts[n] = board.text(i);
+            bounds[n * 4] = board.minX(i);
+            bounds[n * 4 + 1] = board.minY(i);
+            bounds[n * 4 + 2] = board.maxX(i);
+            bounds[n * 4 + 3] = board.maxY(i);
+            n++;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return minX, minY, maxX, maxY of everything on the board, or null if it is empty.
+     */
+    double[] extent() {
+        if (size == 0) {
+            return null;
+        }
+        double[] extent = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = 0; i < size; i++) {
+            extent[0] = Math.min(extent[0], bounds[i * 4]);
+            extent[1] = Math.min(extent[1], bounds[i * 4 + 1]);
+            extent[2] = Math.max(extent[2], bounds[i * 4 + 2]);
+            extent[3] = Math.max(extent[3], bounds[i * 4 + 3]);
+        }
+        return extent;
+    }
+
+    /**
+     * Paints the objects that reach into the board rectangle, oldest first, onto a white background. The graphics
+     * must already map board coordinates to its pixels.
+     * @param margin How far past its bounding box drawing an object can reach, in board units.
+     */
+    void paint(Graphics2D g, double x0, double y0, double x1, double y1, double margin) {
+        g.setColor(Color.WHITE);
+        g.fill(new Rectangle2D.Double(x0, y0, x1 - x0, y1 - y0));
+        for (int i = 0; i < size; i++) {
+            int b = i * 4;
+            if (bounds[b] - margin <= x1 && bounds[b + 2] + margin >= x0
+                    && bounds[b + 1] - margin <= y1 && bounds[b + 3] + margin >= y0) {
+                paintObject(g, i);
+            }
+        }
+    }
+
+    private void paintObject(Graphics2D g, int index) {
+        int c = coordStarts[index];
+        switch (kinds[index]) {
+            case DRAW:
+                stroke(g, colors[index], SHAPE_LINE_WIDTH,
+                        new Line2D.Float(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]));
+                break;
+            case STROKE:
+                if (coordLengths[index] < 2) {
+                    break;
+                }
+                Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, coordLengths[index] / 2);
+                path.moveTo(coords[c], coords[c + 1]);
+                int end = c + coordLengths[index];
+                for (int i = c + 2; i + 1 < end; i += 2) {
+                    path.lineTo(coords[i], coords[i + 1]);
+                }
+                stroke(g, colors[index], widths[index], path);
+                break;
+            case ERASE:
+                float size = widths[index];
+                g.setColor(Color.WHITE);
+                for (int i = c; i + 1 < c + coordLengths[index]; i += 2) {
+                    g.fill(new Rectangle2D.Float(coords[i] - size / 2, coords[i + 1] - size / 2, size, size));
+                }
+                break;
+            case RECTANGLE:
+                stroke(g, colors[index], SHAPE_LINE_WIDTH,
+                        new Rectangle2D.Float(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]));
+                break;
+            case OVAL:
+                stroke(g, colors[index], SHAPE_LINE_WIDTH,
+                        new Ellipse2D.Float(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]));
+                break;
+            case STICKY_NOTE:
+                paintStickyNote(g, coords[c], coords[c + 1], texts[index]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void stroke(Graphics2D g, Color color, float width, Shape shape) {
+        // The JavaFX defaults the tiles are drawn with
+        g.setStroke(new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10f));
+        g.setColor(color);
+        g.draw(shape);
+    }
+
+    private static void paintStickyNote(Graphics2D g, float x, float y, String text) {
+        Rectangle2D.Float note = new Rectangle2D.Float(x, y, (float) BoardDocument.STICKY_NOTE_WIDTH,
+                (float) BoardDocument.STICKY_NOTE_HEIGHT);
+        g.setColor(STICKY_NOTE_FILL);
+        g.fill(note);
+        g.setStroke(new BasicStroke(1f));
+        g.setColor(Color.DARK_GRAY);
+        g.draw(note);
+        Shape clip = g.getClip();
+        g.clip(note);
+        g.setColor(Color.BLACK);
+        g.setFont(STICKY_NOTE_FONT);
+        String[] lines = text != null ? text.split("\n", -1) : new String[0];
+        for (int i = 0; i < Math.min(5, lines.length); i++) {
+            g.drawString(lines[i], x + 5, y + 20 + i * 18);
+        }
+        g.setClip(clip);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.collabboard.render;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The rasterized tiles of the board at the current zoom, kept under a byte budget. Tiles on screen are never
+ * evicted; of the others the one shown least recently goes first, so memory follows the viewport instead of the
+ * extent of the board.
+ */
+class TileCache {
+
+    /**
+     * A square of the board, {@code size} screen pixels wide, drawn into its own canvas. Tile (column, row) shows
+     * the board rectangle that starts at (column, row) * size / zoom.
+     * <p>
+     * A tile also keeps up to {@link TileCache#MAX_CHECKPOINTS} raster checkpoints, oldest first: copies of its
+     * pixels once the first {@link TileCache.Checkpoint#position} objects of the board were drawn. Repainting part
+     * of the tile restores the newest one below the change and only replays what came after it, so undoing an
+     * object that others have drawn over does not replay the tile from the start.
+     */
+    static final class Tile {
+        final int column;
+        final int row;
+        // Board rectangle the tile covers
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        final Canvas canvas;
+        final GraphicsContext graphics;
+        final long canvasBytes;
+        boolean visible;
+
+        final List<Checkpoint> checkpoints = new ArrayList<>(MAX_CHECKPOINTS);
+        // Objects drawn, and the time spent drawing them, since the checkpoint
+        int objectsSinceCheckpoint;
+        long nanosSinceCheckpoint;
+
+        Tile(int column, int row, int size, double zoom, double scale) {
+            this.column = column;
+            this.row = row;
+            this.minX = (double) column * size / zoom;
+            this.minY = (double) row * size / zoom;
+            this.maxX = (double) (column + 1) * size / zoom;
+            this.maxY = (double) (row + 1) * size / zoom;
+            this.canvas = new Canvas(size, size);
+            this.canvas.setLayoutX((double) column * size);
+            this.canvas.setLayoutY((double) row * size);
+            this.graphics = canvas.getGraphicsContext2D();
+            long pixels = (long) Math.ceil(size * scale);
+            this.canvasBytes = pixels * pixels * 4;
+        }
+
+        boolean intersects(double x0, double y0, double x1, double y1) {
+            return minX <= x1 && maxX >= x0 && minY <= y1 && maxY >= y0;
+        }
+
+        long bytes() {
+            long bytes = canvasBytes;
+            for (Checkpoint checkpoint : checkpoints) {
+                bytes += checkpoint.bytes();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * The pixels of a tile once the first {@code position} objects of the board were drawn into it.
+     */
+    static final class Checkpoint {
+        final WritableImage image;
+        final int position;
+        // Id of the object before the position, and the board revision, when the copy was taken
+        final int lastId;
+        final long revision;
+        final double scale;
+
+        Checkpoint(WritableImage image, int position, int lastId, long revision, double scale) {
+            this.image = image;
+            this.position = position;
+            this.lastId = lastId;
+            this.revision = revision;
+            this.scale = scale;
+        }
+
+        long bytes() {
+            return (long) image.getWidth() * (long) image.getHeight() * 4;
+        }
+    }
+
+    // Checkpoints per tile; with the checkpoint interval this bounds how far back a repaint finds one
+    static final int MAX_CHECKPOINTS = 4;
+
+    private final long budgetBytes;
+    // Access order, so the first entry is the least recently used one
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+
+    /**
+     * @param budgetBytes Upper bound for the pixels of the tiles and their checkpoints together, as long as the
+     *                    tiles on screen fit into it.
+     */
+    TileCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return The tile, marked as just used, or null if it is not cached.
+     */
+    Tile get(int column, int row) {
+        return tiles.get(key(column, row));
+    }
+
+    void put(Tile tile) {
+        Tile replaced = tiles.put(key(tile.column, tile.row), tile);
+        if (replaced != null) {
+            usedBytes -= replaced.bytes();
+        }
+        usedBytes += tile.bytes();
+    }
+
+    void remove(Tile tile) {
+        if (tiles.remove(key(tile.column, tile.row)) != null) {
+            usedBytes -= tile.bytes();
+        }
+    }
+
+    /**
+     * Adds the newest checkpoint of a cached tile, replacing those at or above its position; beyond
+     * {@link #MAX_CHECKPOINTS} the oldest is dropped.
+     */
+    void addCheckpoint(Tile tile, Checkpoint checkpoint) {
+        usedBytes -= tile.bytes();
+        List<Checkpoint> checkpoints = tile.checkpoints;
+        while (!checkpoints.isEmpty() && checkpoints.get(checkpoints.size() - 1).position >= checkpoint.position) {
+            checkpoints.remove(checkpoints.size() - 1);
+        }
+        if (checkpoints.size() == MAX_CHECKPOINTS) {
+            checkpoints.remove(0);
+        }
+        checkpoints.add(checkpoint);
+        usedBytes += tile.bytes();
+    }
+
+    /**
+     * Drops the checkpoints of a cached tile from {@code from} on, e.g. once they are stale.
+     */
+    void removeCheckpoints(Tile tile, int from) {
+        usedBytes -= tile.bytes();
+        tile.checkpoints.subList(from, tile.checkpoints.size()).clear();
+        usedBytes += tile.bytes();
+    }
+
+    /**
+     * Makes room for a new checkpoint of a cached tile: if it has {@link #MAX_CHECKPOINTS}, the oldest is dropped.
+     * @return The pixels of the dropped checkpoint if they are {@code pixels} wide, to copy the new one into; or null.
+     */
+    WritableImage recycleCheckpoint(Tile tile, int pixels) {
+        if (tile.checkpoints.size() < MAX_CHECKPOINTS) {
+            return null;
+        }
+        Checkpoint oldest = tile.checkpoints.remove(0);
+        usedBytes -= oldest.bytes();
+        return oldest.image.getWidth() == pixels ? oldest.image : null;
+    }
+
+    /**
+     * All cached tiles; iterating does not count as use. Removing through the iterator is not accounted, use
+     * {@link #remove} instead.
+     */
+    Collection<Tile> tiles() {
+        return tiles.values();
+    }
+
+    /**
+     * Evicts tiles that are not on screen, least recently used first, until the cache fits its budget. If the tiles
+     * on screen alone do not fit, their older checkpoints go next, down to the newest one each.
+     */
+    void trim() {
+        Iterator<Tile> iterator = tiles.values().iterator();
+        while (usedBytes > budgetBytes && iterator.hasNext()) {
+            Tile tile = iterator.next();
+            if (!tile.visible) {
+                iterator.remove();
+                usedBytes -= tile.bytes();
+            }
+        }
+        for (Tile tile : tiles.values()) {
+            while (usedBytes > budgetBytes && tile.checkpoints.size() > 1) {
+                usedBytes -= tile.checkpoints.remove(0).bytes();
+            }
+        }
+    }
+
+    void clear() {
+        tiles.clear();
+        usedBytes = 0;
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+}
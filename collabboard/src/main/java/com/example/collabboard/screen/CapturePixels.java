@@ -0,0 +1,34 @@
+package com.example.collabboard.screen;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads the pixels of a captured image for the encoders.
+ */
+final class CapturePixels {
+
+    private CapturePixels() {
+    }
+
+    /**
+     * @param scratch Where to copy the pixels if they cannot be used in place; a new array if it does not fit.
+     * @return The pixels of the image as RGB ints, row by row, the top byte undefined. A plain int image, as a
+     * screen capture usually is, is not copied.
+     */
+    static int[] of(BufferedImage image, int[] scratch) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == width
+                && image.getRaster().getSampleModelTranslateX() == 0
+                && image.getRaster().getSampleModelTranslateY() == 0) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        int[] pixels = scratch != null && scratch.length == width * height ? scratch : new int[width * height];
+        return image.getRGB(0, 0, width, height, pixels, 0, width);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.collabboard.screen;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A captured screen as RGB ints, handed from the capture stage to the encode stage. Frames are pooled: the capture
+ * stage copies each screenshot into a frame the encode stage is done with, so the pixel arrays are allocated once
+ * per screen size rather than once per frame.
+ */
+public final class CapturedFrame {
+    private int[] pixels = new int[0];
+    private int width;
+    private int height;
+    private long capturedNanos;
+
+    /**
+     * Copies a screenshot into the frame, reusing its pixels when the size has not changed.
+     */
+    public void copyFrom(BufferedImage image, long capturedNanos) {
+        width = image.getWidth();
+        height = image.getHeight();
+        if (pixels.length != width * height) {
+            pixels = new int[width * height];
+        }
+        int[] read = CapturePixels.of(image, pixels);
+        if (read != pixels) {
+            System.arraycopy(read, 0, pixels, 0, width * height);
+        }
+        this.capturedNanos = capturedNanos;
+    }
+
+    /**
+     * The frame as RGB ints, row by row, the top byte undefined.
+     */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * {@link System#nanoTime()} when the screenshot was taken.
+     */
+    public long capturedNanos() {
+        return capturedNanos;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.collabboard.screen;
+
+/**
+ * Hands items from one stage of the screen sharing pipeline to the next, holding only the latest one: an item
+ * offered while the one before is still waiting replaces it, so a slow stage skips frames instead of falling
+ * further behind.
+ */
+public final class LatestSlot<T> {
+    private T item;
+    private boolean closed;
+
+    /**
+     * @return The item that was waiting and is now dropped, or null.
+     */
+    public synchronized T offer(T item) {
+        T replaced = this.item;
+        this.item = item;
+        notifyAll();
+        return replaced;
+    }
+
+    /**
+     * Waits for an item and takes it.
+     * @return The item, or null once the slot is closed.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (item == null && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        T taken = item;
+        item = null;
+        return taken;
+    }
+
+    /**
+     * Wakes the stage waiting in {@link #take()}; nothing can be taken afterwards.
+     * @return The item that was waiting, or null.
+     */
+    public synchronized T close() {
+        closed = true;
+        notifyAll();
+        T left = item;
+        item = null;
+        return left;
+    }
+}
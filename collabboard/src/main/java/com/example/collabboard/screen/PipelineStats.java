@@ -0,0 +1,89 @@
+package com.example.collabboard.screen;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times the capture, encode and send stages of screen sharing, and counts the frames each skipped because it was
+ * still busy with an earlier one, so the stage that limits the frame rate can be observed.
+ * Thread-safe; each stage records from its own thread.
+ */
+public class PipelineStats {
+
+    public enum Stage { CAPTURE, ENCODE, SEND }
+
+    private final AtomicLong[] frames = counters();
+    private final AtomicLong[] nanos = counters();
+    private final AtomicLong[] dropped = counters();
+    private final AtomicLong latencyNanos = new AtomicLong();
+
+    private static AtomicLong[] counters() {
+        AtomicLong[] counters = new AtomicLong[Stage.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    /**
+     * Records a frame done by a stage that started on it at {@code startNanos}.
+     */
+    public void record(Stage stage, long startNanos) {
+        frames[stage.ordinal()].incrementAndGet();
+        nanos[stage.ordinal()].addAndGet(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a frame replaced by a newer one before the stage got to it.
+     */
+    public void drop(Stage stage) {
+        dropped[stage.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * Records a frame sent, captured at {@code capturedNanos}.
+     */
+    public void sent(long capturedNanos) {
+        latencyNanos.addAndGet(System.nanoTime() - capturedNanos);
+    }
+
+    public long getFrames(Stage stage) { return frames[stage.ordinal()].get(); }
+
+    public long getDropped(Stage stage) { return dropped[stage.ordinal()].get(); }
+
+    public double getAverageMillis(Stage stage) {
+        long count = getFrames(stage);
+        return count == 0 ? 0 : nanos[stage.ordinal()].get() / 1e6 / count;
+    }
+
+    /**
+     * @return Average time from capture to sending, for the frames sent.
+     */
+    public double getAverageLatencyMillis() {
+        long count = getFrames(Stage.SEND);
+        return count == 0 ? 0 : latencyNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return The stage that takes longest per frame.
+     */
+    public Stage getBottleneck() {
+        Stage slowest = Stage.CAPTURE;
+        for (Stage stage : Stage.values()) {
+            if (getAverageMillis(stage) > getAverageMillis(slowest)) {
+                slowest = stage;
+            }
+        }
+        return slowest;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            text.append(String.format("%s %.1f ms x %d (%d skipped), ", stage.name().toLowerCase(),
+                    getAverageMillis(stage), getFrames(stage), getDropped(stage)));
+        }
+        return text.append(String.format("%.1f ms capture to send, bottleneck %s", getAverageLatencyMillis(),
+                getBottleneck().name().toLowerCase())).toString();
+    }
+}
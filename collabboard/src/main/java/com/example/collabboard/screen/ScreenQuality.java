@@ -0,0 +1,38 @@
+package com.example.collabboard.screen;
+
+/**
+ * The quality presets offered for screen sharing: the resolution frames are scaled down to and how lossy their
+ * pixels are encoded.
+ */
+public enum ScreenQuality {
+    LOW("480p", 480, 0.6f),
+    MEDIUM("720p", 720, 0.75f),
+    HIGH("1080p", 1080, 0.85f),
+    ULTRA("4K", 2160, 0.92f);
+
+    private final String label;
+    /** Frames taller than this are scaled down to it. */
+    public final int maxHeight;
+    /** JPEG quality of the tiles, between 0 and 1. */
+    public final float jpegQuality;
+
+    ScreenQuality(String label, int maxHeight, float jpegQuality) {
+        this.label = label;
+        this.maxHeight = maxHeight;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * @return The preset named in a choice such as "Medium (720p)", MEDIUM if there is none.
+     */
+    public static ScreenQuality of(String choice) {
+        if (choice != null) {
+            for (ScreenQuality quality : values()) {
+                if (choice.contains(quality.label)) {
+                    return quality;
+                }
+            }
+        }
+        return MEDIUM;
+    }
+}
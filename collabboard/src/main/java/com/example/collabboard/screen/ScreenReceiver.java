@@ -0,0 +1,116 @@
+package com.example.collabboard.screen;
+
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Receives one participant's shared screen: payloads are decoded in order on a thread of the receiver's own, straight
+ * into the pixels of a {@link ScreenSurface}, so the FX thread only uploads the regions that changed.
+ * <p>
+ * Takes tile diff frames, video frames and the whole images older versions send. When the thread falls more than
+ * {@link #MAX_QUEUED} payloads behind, the waiting ones are dropped; the decoders then skip to the next keyframe.
+ */
+public final class ScreenReceiver implements AutoCloseable {
+    static final int MAX_QUEUED = 8;
+
+    private final ScreenSurface surface;
+    private final LinkedBlockingQueue<String> payloads = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    // Receiver thread only
+    private TileDiffDecoder tiles;
+    private VideoDecoder video;
+    private int[] imagePixels = new int[0];
+
+    /**
+     * @param onImage Gets the image on the FX thread whenever it is replaced, for a first frame or a new size.
+     */
+    public ScreenReceiver(Consumer<WritableImage> onImage) {
+        this.surface = new ScreenSurface(onImage);
+        this.thread = new Thread(this::receive, "screen-receiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a payload for decoding. Payloads must be submitted from one thread at a time, in the order received.
+     */
+    public void submit(String payload) {
+        if (payloads.size() >= MAX_QUEUED) {
+            payloads.clear();
+        }
+        payloads.add(payload);
+    }
+
+    private void receive() {
+        try {
+            while (true) {
+                String payload = payloads.take();
+                try {
+                    decode(payload);
+                } catch (RuntimeException | IOException e) {
+                    System.err.println("Error handling screenshot data: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            if (tiles != null) {
+                tiles.close();
+            }
+            if (video != null) {
+                video.close();
+            }
+        }
+    }
+
+    private void decode(String payload) throws IOException {
+        if (TileDiffDecoder.isTileDiff(payload)) {
+            if (tiles == null) {
+                tiles = new TileDiffDecoder();
+            }
+            Rectangle changed = tiles.apply(payload);
+            if (changed != null && !changed.isEmpty()) {
+                surface.attach(tiles.pixels(), tiles.width(), tiles.height());
+                surface.changed(changed);
+            }
+        } else if (VideoDecoder.isVideo(payload)) {
+            if (video == null) {
+                video = new VideoDecoder(surface);
+            }
+            video.submit(payload);
+        } else {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(payload)));
+            if (image == null) {
+                throw new IOException("Unknown image format");
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            // Whole images are drawn into the same pixels while the size stays the same
+            imagePixels = image.getRGB(0, 0, width, height,
+                    imagePixels.length == width * height ? imagePixels : new int[width * height], 0, width);
+            for (int i = 0; i < imagePixels.length; i++) {
+                imagePixels[i] |= 0xFF000000;
+            }
+            surface.attach(imagePixels, width, height);
+            surface.changed(new Rectangle(0, 0, width, height));
+        }
+    }
+
+    /**
+     * Stops decoding and showing frames.
+     */
+    @Override
+    public void close() {
+        surface.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.collabboard.screen;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Scales captured frames down to at most {@code maxHeight} pixels, keeping the aspect ratio.
+ * <p>
+ * The frame is first halved, averaging 2x2 pixels, as long as it stays at least as large as the target, and the
+ * rest is done by a single bilinear pass. Halving keeps text legible where bilinear alone would skip pixels, and
+ * costs one pass over ints each time. The images and buffers are reused from frame to frame, so the scaled frame
+ * is only valid until the next call.
+ */
+public final class ScreenScaler {
+    private static final DirectColorModel RGB = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    private final int maxHeight;
+    private int[] pixels;
+    private int[] halfA = new int[0];
+    private int[] halfB = new int[0];
+    private BufferedImage output;
+
+    public ScreenScaler(int maxHeight) {
+        this.maxHeight = Math.max(16, maxHeight);
+    }
+
+    /**
+     * @return The frame scaled down, or the frame itself if it is not taller than the maximum.
+     */
+    public BufferedImage scale(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (height <= maxHeight) {
+            return image;
+        }
+        int targetHeight = maxHeight;
+        int targetWidth = Math.max(1, (int) Math.round((double) width * maxHeight / height));
+
+        pixels = CapturePixels.of(image, pixels);
+        int[] source = pixels;
+        while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+            int[] half = source == halfA ? halfB : halfA;
+            if (half.length < (width / 2) * (height / 2)) {
+                half = new int[(width / 2) * (height / 2)];
+                if (source == halfA) {
+                    halfB = half;
+                } else {
+                    halfA = half;
+                }
+            }
+            halve(source, width, height, half);
+            source = half;
+            width /= 2;
+            height /= 2;
+        }
+
+        if (output == null || output.getWidth() != targetWidth || output.getHeight() != targetHeight) {
+            output = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        if (width == targetWidth && height == targetHeight) {
+            int[] target = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+            System.arraycopy(source, 0, target, 0, width * height);
+            return output;
+        }
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(source, width * height), width, height,
+                width, RGB.getMasks(), null);
+        Graphics2D g = output.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(new BufferedImage(RGB, raster, false, null), 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return output;
+    }
+
+    /**
+     * Writes the image at half its size into the target, each pixel the average of a 2x2 square; an odd last
+     * row or column is left out.
+     */
+    private static void halve(int[] source, int width, int height, int[] target) {
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        for (int y = 0; y < halfHeight; y++) {
+            int top = 2 * y * width;
+            int bottom = top + width;
+            int out = y * halfWidth;
+            for (int x = 0; x < halfWidth; x++) {
+                int a = source[top + 2 * x], b = source[top + 2 * x + 1];
+                int c = source[bottom + 2 * x], d = source[bottom + 2 * x + 1];
+                int r = ((a >> 16 & 0xFF) + (b >> 16 & 0xFF) + (c >> 16 & 0xFF) + (d >> 16 & 0xFF) + 2) >> 2;
+                int g = ((a >> 8 & 0xFF) + (b >> 8 & 0xFF) + (c >> 8 & 0xFF) + (d >> 8 & 0xFF) + 2) >> 2;
+                int bl = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                target[out + x] = r << 16 | g << 8 | bl;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.collabboard.screen;
+
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.awt.Rectangle;
+import java.nio.IntBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Shows a participant's shared screen in an image backed by the decoder's own pixels, through a {@link PixelBuffer},
+ * so frames are neither copied nor allocated to be displayed.
+ * <p>
+ * Decoders write opaque ARGB ints into an array they {@link #attach} and report the region they wrote with
+ * {@link #changed}. The FX thread then asks JavaFX to upload only the regions changed since its last pulse; changes
+ * reported meanwhile are merged, so a viewer that cannot keep up skips intermediate frames. A region written while
+ * the picture is being uploaded may show torn for one frame; it is uploaded again with the next change.
+ */
+public final class ScreenSurface {
+    private final Consumer<WritableImage> onImage;
+
+    // Guarded by this
+    private int[] pixels;
+    private int width;
+    private int height;
+    private final Rectangle dirty = new Rectangle();
+    private boolean updateQueued;
+    private boolean closed;
+
+    // FX thread only
+    private int[] shown;
+    private PixelBuffer<IntBuffer> buffer;
+
+    /**
+     * @param onImage Gets the image on the FX thread whenever it is replaced, for a first frame or a new size; it
+     *                updates in place otherwise.
+     */
+    public ScreenSurface(Consumer<WritableImage> onImage) {
+        this.onImage = onImage;
+    }
+
+    /**
+     * Makes the surface show an array of opaque ARGB ints, row by row, which the decoder keeps drawing into.
+     */
+    public synchronized void attach(int[] pixels, int width, int height) {
+        if (pixels != this.pixels || width != this.width || height != this.height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            dirty.setBounds(0, 0, width, height);
+        }
+    }
+
+    /**
+     * Reports pixels written into the attached array, to be shown at the next pulse. Can be called from any thread.
+     */
+    public void changed(Rectangle region) {
+        synchronized (this) {
+            if (closed || region.isEmpty()) {
+                return;
+            }
+            if (dirty.isEmpty()) {
+                dirty.setBounds(region);
+            } else {
+                dirty.add(region);
+            }
+            if (updateQueued) {
+                return;
+            }
+            updateQueued = true;
+        }
+        Platform.runLater(this::update);
+    }
+
+    private void update() {
+        int[] latest;
+        int latestWidth, latestHeight;
+        Rectangle region;
+        synchronized (this) {
+            updateQueued = false;
+            if (closed || pixels == null || dirty.isEmpty()) {
+                return;
+            }
+            latest = pixels;
+            latestWidth = width;
+            latestHeight = height;
+            region = dirty.intersection(new Rectangle(0, 0, width, height));
+            dirty.setBounds(0, 0, 0, 0);
+        }
+        if (latest != shown || buffer == null || buffer.getWidth() != latestWidth
+                || buffer.getHeight() != latestHeight) {
+            shown = latest;
+            buffer = new PixelBuffer<>(latestWidth, latestHeight, IntBuffer.wrap(latest),
+                    PixelFormat.getIntArgbPreInstance());
+            onImage.accept(new WritableImage(buffer));
+        } else if (!region.isEmpty()) {
+            buffer.updateBuffer(b -> new Rectangle2D(region.x, region.y, region.width, region.height));
+        }
+    }
+
+    /**
+     * Stops showing changes; updates already queued do nothing.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+}
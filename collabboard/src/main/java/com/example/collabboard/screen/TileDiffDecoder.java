@@ -0,0 +1,217 @@
+package com.example.collabboard.screen;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Rebuilds a participant's shared screen from the payloads of a {@link TileDiffEncoder}, patching the changed
+ * tiles into the last frame.
+ * <p>
+ * A frame that does not follow the one applied last, because one was dropped on the way or we joined late, is
+ * ignored until the next keyframe, so the picture is never patched on top of the wrong frame.
+ */
+public final class TileDiffDecoder {
+    // Refuses frames larger than any screen
+    private static final int MAX_DIMENSION = 16_384;
+
+    private final Inflater inflater = new Inflater();
+    private int[] pixels = new int[0];
+    private int width;
+    private int height;
+    private int sequence;
+    private boolean synced;
+    private byte[] tileBytes = new byte[0];
+    private ImageReader jpegReader;
+    private BufferedImage atlas;
+
+    /**
+     * @return Whether the payload is a tile diff frame rather than a whole image.
+     */
+    public static boolean isTileDiff(String payload) {
+        return payload.startsWith(TileDiffEncoder.PREFIX);
+    }
+
+    /**
+     * Applies a payload to the picture.
+     * @return The part of the picture that changed, or null if the frame was skipped while waiting for a keyframe.
+     * @throws IllegalArgumentException if the payload is malformed.
+     */
+    public Rectangle apply(String payload) {
+        if (!isTileDiff(payload)) {
+            throw new IllegalArgumentException("Not a tile diff frame");
+        }
+        ByteBuffer frame = ByteBuffer.wrap(Base64.getDecoder().decode(payload.substring(TileDiffEncoder.PREFIX.length())));
+        try {
+            return apply(frame);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            synced = false;
+            throw new IllegalArgumentException("Truncated screen frame", e);
+        } catch (DataFormatException | IOException e) {
+            synced = false;
+            throw new IllegalArgumentException("Corrupt screen frame", e);
+        }
+    }
+
+    private Rectangle apply(ByteBuffer frame) throws DataFormatException, IOException {
+        if (frame.get() != TileDiffEncoder.VERSION) {
+            throw new IllegalArgumentException("Unsupported screen frame version");
+        }
+        int flags = frame.get();
+        boolean keyframe = (flags & TileDiffEncoder.FLAG_KEYFRAME) != 0;
+        boolean jpeg = (flags & TileDiffEncoder.FLAG_JPEG) != 0;
+        int frameSequence = frame.getInt();
+        int frameWidth = frame.getInt();
+        int frameHeight = frame.getInt();
+        int tileSize = frame.getShort() & 0xFFFF;
+        int tiles = frame.getInt();
+        if (frameWidth <= 0 || frameHeight <= 0 || frameWidth > MAX_DIMENSION || frameHeight > MAX_DIMENSION
+                || tileSize == 0) {
+            throw new IllegalArgumentException("Bad screen frame size");
+        }
+        if (!keyframe && (!synced || frameSequence != sequence + 1
+                || frameWidth != width || frameHeight != height)) {
+            return null;
+        }
+        int columns = (frameWidth + tileSize - 1) / tileSize;
+        int rows = (frameHeight + tileSize - 1) / tileSize;
+        if (tiles < 0 || tiles > columns * rows) {
+            throw new IllegalArgumentException("Bad screen frame tile count");
+        }
+        if (frameWidth != width || frameHeight != height) {
+            width = frameWidth;
+            height = frameHeight;
+            pixels = new int[width * height];
+        }
+        synced = false;
+
+        int[] indexes = new int[tiles];
+        for (int i = 0; i < tiles; i++) {
+            indexes[i] = frame.getInt();
+        }
+        int atlasColumns = TileDiffEncoder.atlasColumns(tiles);
+        int[] atlasPixels = null;
+        if (jpeg && tiles > 0) {
+            atlasPixels = readAtlas(frame, atlasColumns * tileSize,
+                    (tiles + atlasColumns - 1) / atlasColumns * tileSize);
+        } else {
+            inflater.reset();
+            inflater.setInput(frame);
+            if (tileBytes.length < tileSize * tileSize * 3) {
+                tileBytes = new byte[tileSize * tileSize * 3];
+            }
+        }
+        int minX = width, minY = height, maxX = 0, maxY = 0;
+        for (int t = 0; t < tiles; t++) {
+            int index = indexes[t];
+            if (index < 0 || index >= columns * rows) {
+                throw new IllegalArgumentException("Bad screen frame tile index");
+            }
+            int x0 = index % columns * tileSize;
+            int y0 = index / columns * tileSize;
+            int x1 = Math.min(x0 + tileSize, width);
+            int y1 = Math.min(y0 + tileSize, height);
+            if (atlasPixels != null) {
+                int stride = atlasColumns * tileSize;
+                int cell = t / atlasColumns * tileSize * stride + t % atlasColumns * tileSize;
+                for (int y = y0; y < y1; y++) {
+                    int from = cell + (y - y0) * stride;
+                    for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                        pixels[i] = 0xFF000000 | atlasPixels[from++];
+                    }
+                }
+            } else {
+                inflateFully((x1 - x0) * (y1 - y0) * 3);
+                int n = 0;
+                for (int y = y0; y < y1; y++) {
+                    int r = 0, g = 0, b = 0;
+                    for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                        r = (r + tileBytes[n++]) & 0xFF;
+                        g = (g + tileBytes[n++]) & 0xFF;
+                        b = (b + tileBytes[n++]) & 0xFF;
+                        pixels[i] = 0xFF000000 | r << 16 | g << 8 | b;
+                    }
+                }
+            }
+            minX = Math.min(minX, x0);
+            minY = Math.min(minY, y0);
+            maxX = Math.max(maxX, x1);
+            maxY = Math.max(maxY, y1);
+        }
+        sequence = frameSequence;
+        synced = true;
+        return tiles == 0 ? new Rectangle() : new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Decodes the JPEG image of the tiles into a reused image of the expected size.
+     * @return Its pixels, row by row.
+     */
+    private int[] readAtlas(ByteBuffer frame, int atlasWidth, int atlasHeight) throws IOException {
+        if (jpegReader == null) {
+            jpegReader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        }
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(frame.array(),
+                frame.arrayOffset() + frame.position(), frame.remaining()))) {
+            jpegReader.setInput(in, true, true);
+            if (jpegReader.getWidth(0) != atlasWidth || jpegReader.getHeight(0) != atlasHeight) {
+                throw new IllegalArgumentException("Bad screen frame tile image");
+            }
+            if (atlas == null || atlas.getWidth() != atlasWidth || atlas.getHeight() != atlasHeight) {
+                atlas = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_RGB);
+            }
+            ImageReadParam param = jpegReader.getDefaultReadParam();
+            param.setDestination(atlas);
+            jpegReader.read(0, param);
+        }
+        return ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+    }
+
+    private void inflateFully(int length) throws DataFormatException {
+        int n = 0;
+        while (n < length) {
+            int inflated = inflater.inflate(tileBytes, n, length - n);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                throw new IllegalArgumentException("Truncated screen frame");
+            }
+            n += inflated;
+        }
+    }
+
+    /**
+     * The picture as opaque ARGB ints, row by row; it is patched in place by {@link #apply}.
+     */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Frees the native memory of the decompressors; the decoder cannot be used afterwards.
+     */
+    public void close() {
+        inflater.end();
+        if (jpegReader != null) {
+            jpegReader.dispose();
+        }
+    }
+}
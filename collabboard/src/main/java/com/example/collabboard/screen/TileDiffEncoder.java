@@ -0,0 +1,475 @@
+package com.example.collabboard.screen;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Turns captured frames into screen share payloads that carry only the tiles that changed since the frame before.
+ * <p>
+ * The frame is cut into square tiles of {@code tileSize} pixels, each compared row by row with the last frame
+ * sent, and only the tiles that differ go out. A keyframe carries every tile; it is sent first, whenever the size
+ * changes and at least every {@code keyframeIntervalMillis}. Frames that change nothing are not sent at all, so
+ * a still screen costs one keyframe per interval.
+ * <p>
+ * Frames are numbered. Screen frames may be dropped on the way to a slow participant, so a receiver applies a
+ * frame only on top of the one numbered just before it and otherwise waits for the next keyframe, see
+ * {@link TileDiffDecoder}. A payload is {@link #PREFIX} and the base64 of, big-endian:
+ * <pre>
+ * header  version:u8, flags:u8 (1 = keyframe, 2 = JPEG), sequence:i32, width:i32, height:i32, tile size:u16,
+ *         tiles:i32
+ * tiles   tile index:i32 per tile, row-major over the frame
+ * pixels  deflate(per tile, per row: R, G, B of each pixel, each minus the same channel of the pixel to its left)
+ *         or with JPEG, one JPEG image of the tiles side by side, {@link #atlasColumns} of them per row
+ * </pre>
+ * The tiles are lossless unless a JPEG quality is given. JPEG tiles are a multiple of 16 pixels, so no JPEG block
+ * spans two tiles, and are encoded together as one image with a reused writer; the comparison stays with the
+ * captured pixels, so the loss does not add up from frame to frame.
+ * <p>
+ * Finding the changed tiles and copying them into the last frame sent stay on the calling thread, which owns the
+ * encoder. With deflate threads, the lossless tiles of a large diff are compressed in contiguous parts at once, the
+ * calling thread taking the first: each part is a raw deflate stream ended by a sync flush, and the parts are joined
+ * in tile order under one zlib header and checksum, so receivers see a single stream as before. JPEG tiles stay on
+ * the calling thread, as they make up a single image for a writer that is not thread-safe.
+ */
+public final class TileDiffEncoder {
+    public static final String PREFIX = "F1:";
+    static final int VERSION = 1;
+    static final int FLAG_KEYFRAME = 1;
+    static final int FLAG_JPEG = 2;
+    static final int HEADER_SIZE = 20;
+    // Fewer tiles than this per part are compressed faster than they are handed to another thread
+    static final int MIN_TILES_PER_PART = 16;
+
+    private final int tileSize;
+    private final long keyframeIntervalNanos;
+    private final float jpegQuality;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] buffer = new byte[64 * 1024];
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(64 * 1024);
+    // The frame as the receivers have it
+    private int[] previous = new int[0];
+    // The pixels of the capture being encoded
+    private int[] current;
+    private int width;
+    private int height;
+    private int sequence;
+    private long lastKeyframe;
+    private volatile boolean keyframeDue = true;
+    private int[] changedTiles = new int[0];
+    private byte[] tileBytes = new byte[0];
+    private ImageWriter jpegWriter;
+    private ImageWriteParam jpegParam;
+    private BufferedImage atlas;
+    // Null when everything is compressed on the calling thread
+    private final ExecutorService deflatePool;
+    private final Part[] parts;
+
+    /**
+     * @param tileSize Width and height of the tiles compared and sent, in pixels.
+     * @param keyframeIntervalMillis Time after which a frame carries every tile again.
+     */
+    public TileDiffEncoder(int tileSize, int keyframeIntervalMillis) {
+        this(tileSize, keyframeIntervalMillis, 0);
+    }
+
+    /**
+     * @param jpegQuality Quality of JPEG tiles, between 0 and 1, or 0 for lossless tiles.
+     */
+    public TileDiffEncoder(int tileSize, int keyframeIntervalMillis, float jpegQuality) {
+        this(tileSize, keyframeIntervalMillis, jpegQuality, 0);
+    }
+
+    /**
+     * @param deflateThreads Threads that compress lossless tiles alongside the calling thread, or 0 for none.
+     */
+    public TileDiffEncoder(int tileSize, int keyframeIntervalMillis, float jpegQuality, int deflateThreads) {
+        this.jpegQuality = Math.min(jpegQuality, 1f);
+        int size = Math.max(8, Math.min(tileSize, 0xFFF0));
+        this.tileSize = this.jpegQuality > 0 ? (size + 15) / 16 * 16 : size;
+        this.keyframeIntervalNanos = Math.max(1, keyframeIntervalMillis) * 1_000_000L;
+        if (this.jpegQuality > 0 || deflateThreads <= 0) {
+            deflatePool = null;
+            parts = new Part[0];
+        } else {
+            deflatePool = Executors.newFixedThreadPool(deflateThreads, task -> {
+                Thread thread = new Thread(task, "screen-deflate");
+                thread.setDaemon(true);
+                return thread;
+            });
+            parts = new Part[deflateThreads + 1];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new Part();
+            }
+        }
+    }
+
+    /**
+     * Makes the next frame a keyframe. Can be called from any thread.
+     */
+    public void requestKeyframe() {
+        keyframeDue = true;
+    }
+
+    /**
+     * @return The payload for a captured frame, or null if nothing changed since the last one.
+     */
+    public String encode(BufferedImage image) {
+        current = CapturePixels.of(image, current);
+        return encode(current, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * @param pixels The frame as RGB ints, row by row; the top byte is ignored.
+     * @return The payload for the frame, or null if nothing changed since the last one.
+     */
+    public String encode(int[] pixels, int width, int height) {
+        long now = System.nanoTime();
+        boolean keyframe = keyframeDue || width != this.width || height != this.height
+                || now - lastKeyframe >= keyframeIntervalNanos;
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            previous = new int[width * height];
+        }
+
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        if (changedTiles.length < columns * rows) {
+            changedTiles = new int[columns * rows];
+        }
+        int changed = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (keyframe || tileChanged(pixels, column, row)) {
+                    changedTiles[changed++] = row * columns + column;
+                }
+            }
+        }
+        if (changed == 0) {
+            return null;
+        }
+
+        frame.reset();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + changed * 4);
+        int flags = (keyframe ? FLAG_KEYFRAME : 0) | (jpegQuality > 0 ? FLAG_JPEG : 0);
+        header.put((byte) VERSION).put((byte) flags).putInt(sequence++)
+                .putInt(width).putInt(height).putShort((short) tileSize).putInt(changed);
+        for (int i = 0; i < changed; i++) {
+            header.putInt(changedTiles[i]);
+        }
+        frame.write(header.array(), 0, header.position());
+
+        if (jpegQuality > 0) {
+            writeJpegTiles(pixels, changed, columns);
+        } else if (deflatePool != null && changed >= 2 * MIN_TILES_PER_PART) {
+            deflateInParts(pixels, changed, columns);
+        } else {
+            if (tileBytes.length == 0) {
+                tileBytes = new byte[tileSize * tileSize * 3];
+            }
+            deflater.reset();
+            for (int i = 0; i < changed; i++) {
+                int column = changedTiles[i] % columns;
+                int row = changedTiles[i] / columns;
+                deflate(tileBytes(pixels, column, row, tileBytes));
+                copyTile(pixels, column, row);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                frame.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        if (keyframe) {
+            keyframeDue = false;
+            lastKeyframe = now;
+        }
+        return PREFIX + Base64.getEncoder().encodeToString(frame.toByteArray());
+    }
+
+    private boolean tileChanged(int[] pixels, int column, int row) {
+        int x0 = column * tileSize;
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min((row + 1) * tileSize, height);
+        for (int y = row * tileSize; y < y1; y++) {
+            int offset = y * width;
+            if (Arrays.mismatch(pixels, offset + x0, offset + x1, previous, offset + x0, offset + x1) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the tile's pixels in wire form into {@code tileBytes}, which holds a whole tile.
+     * @return The byte count.
+     */
+    private int tileBytes(int[] pixels, int column, int row, byte[] tileBytes) {
+        int x0 = column * tileSize;
+        int x1 = Math.min(x0 + tileSize, width);
+        int y0 = row * tileSize;
+        int y1 = Math.min(y0 + tileSize, height);
+        int length = (x1 - x0) * (y1 - y0) * 3;
+        int n = 0;
+        for (int y = y0; y < y1; y++) {
+            int left = 0;
+            for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                int rgb = pixels[i];
+                tileBytes[n++] = (byte) ((rgb >> 16) - (left >> 16));
+                tileBytes[n++] = (byte) ((rgb >> 8) - (left >> 8));
+                tileBytes[n++] = (byte) (rgb - left);
+                left = rgb;
+            }
+        }
+        return length;
+    }
+
+    private void deflate(int length) {
+        deflater.setInput(tileBytes, 0, length);
+        while (!deflater.needsInput()) {
+            frame.write(buffer, 0, deflater.deflate(buffer));
+        }
+    }
+
+    /**
+     * @return How many tiles a row of the JPEG image holds, for a frame of the given number of tiles.
+     */
+    static int atlasColumns(int tiles) {
+        return (int) Math.ceil(Math.sqrt(tiles));
+    }
+
+    /**
+     * Copies the changed tiles side by side into one image and appends it to the frame as JPEG.
+     */
+    private void writeJpegTiles(int[] pixels, int changed, int columns) {
+        int atlasColumns = atlasColumns(changed);
+        int atlasWidth = atlasColumns * tileSize;
+        int atlasHeight = (changed + atlasColumns - 1) / atlasColumns * tileSize;
+        if (atlas == null || atlas.getWidth() < atlasWidth || atlas.getHeight() < atlasHeight) {
+            atlas = new BufferedImage(Math.max(atlasWidth, atlas != null ? atlas.getWidth() : 0),
+                    Math.max(atlasHeight, atlas != null ? atlas.getHeight() : 0), BufferedImage.TYPE_INT_RGB);
+        }
+        int[] atlasPixels = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+        int stride = atlas.getWidth();
+        for (int i = 0; i < changed; i++) {
+            int column = changedTiles[i] % columns;
+            int row = changedTiles[i] / columns;
+            int x0 = column * tileSize;
+            int tileWidth = Math.min(tileSize, width - x0);
+            int y0 = row * tileSize;
+            int y1 = Math.min(y0 + tileSize, height);
+            int cell = i / atlasColumns * tileSize * stride + i % atlasColumns * tileSize;
+            for (int y = y0; y < y1; y++) {
+                System.arraycopy(pixels, y * width + x0, atlasPixels, cell + (y - y0) * stride, tileWidth);
+            }
+            copyTile(pixels, column, row);
+        }
+
+        if (jpegWriter == null) {
+            jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+            jpegParam = jpegWriter.getDefaultWriteParam();
+            jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            jpegParam.setCompressionQuality(jpegQuality);
+        }
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(frame)) {
+            jpegWriter.setOutput(out);
+            jpegWriter.write(null, new IIOImage(atlas.getSubimage(0, 0, atlasWidth, atlasHeight), null, null),
+                    jpegParam);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode screen tiles", e);
+        }
+    }
+
+    /**
+     * Compresses the changed tiles in contiguous parts, one on this thread and the others on the deflate threads,
+     * and appends them to the frame as one zlib stream.
+     */
+    private void deflateInParts(int[] pixels, int changed, int columns) {
+        int count = Math.min(parts.length, changed / MIN_TILES_PER_PART);
+        List<Future<?>> started = new ArrayList<>(count - 1);
+        for (int p = 0; p < count; p++) {
+            parts[p].set(pixels, columns, changed * p / count, changed * (p + 1) / count, p == count - 1);
+            if (p > 0) {
+                started.add(deflatePool.submit(parts[p]));
+            }
+        }
+        RuntimeException failure = null;
+        try {
+            parts[0].run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // The parts are reused by the next frame, so every one must be done before returning
+        boolean interrupted = false;
+        for (Future<?> part : started) {
+            while (true) {
+                try {
+                    part.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("Could not compress screen tiles", e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            // The frame number is spent, so the receivers need a keyframe to go on
+            keyframeDue = true;
+            throw failure;
+        }
+
+        // zlib header for the fastest level, no dictionary
+        frame.write(0x78);
+        frame.write(0x01);
+        long checksum = 1;
+        for (int p = 0; p < count; p++) {
+            Part part = parts[p];
+            frame.writeBytes(part.out.toByteArray());
+            checksum = p == 0 ? part.adler.getValue()
+                    : adler32Combine(checksum, part.adler.getValue(), part.length);
+        }
+        frame.write((int) (checksum >>> 24));
+        frame.write((int) (checksum >>> 16));
+        frame.write((int) (checksum >>> 8));
+        frame.write((int) checksum);
+        for (int i = 0; i < changed; i++) {
+            copyTile(pixels, changedTiles[i] % columns, changedTiles[i] / columns);
+        }
+    }
+
+    /**
+     * @return The Adler-32 of two byte runs one after the other, from the checksum of each and the length of the
+     *         second, as zlib's adler32_combine.
+     */
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = remainder * sum1 % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += (adler1 >>> 16 & 0xFFFF) + (adler2 >>> 16 & 0xFFFF) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * A contiguous run of the changed tiles, compressed as raw deflate with its own buffers. All but the last part
+     * end on a sync flush, at a byte boundary with no final block, so the next part can follow it.
+     */
+    private final class Part implements Runnable {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final byte[] buffer = new byte[16 * 1024];
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        private final Adler32 adler = new Adler32();
+        private byte[] bytes = new byte[0];
+        private long length;
+        private int[] pixels;
+        private int columns;
+        private int from;
+        private int to;
+        private boolean last;
+
+        void set(int[] pixels, int columns, int from, int to, boolean last) {
+            this.pixels = pixels;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+            this.last = last;
+        }
+
+        @Override
+        public void run() {
+            if (bytes.length == 0) {
+                bytes = new byte[tileSize * tileSize * 3];
+            }
+            deflater.reset();
+            out.reset();
+            adler.reset();
+            length = 0;
+            for (int i = from; i < to; i++) {
+                int tileLength = tileBytes(pixels, changedTiles[i] % columns, changedTiles[i] / columns, bytes);
+                adler.update(bytes, 0, tileLength);
+                length += tileLength;
+                deflater.setInput(bytes, 0, tileLength);
+                while (!deflater.needsInput()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        }
+    }
+
+    private void copyTile(int[] pixels, int column, int row) {
+        int x0 = column * tileSize;
+        int tileWidth = Math.min(tileSize, width - x0);
+        int y1 = Math.min((row + 1) * tileSize, height);
+        for (int y = row * tileSize; y < y1; y++) {
+            System.arraycopy(pixels, y * width + x0, previous, y * width + x0, tileWidth);
+        }
+    }
+
+    /**
+     * Frees the native memory of the compressors and stops the deflate threads; the encoder cannot be used
+     * afterwards.
+     */
+    public void close() {
+        deflater.end();
+        if (deflatePool != null) {
+            deflatePool.shutdownNow();
+        }
+        for (Part part : parts) {
+            part.deflater.end();
+        }
+        if (jpegWriter != null) {
+            jpegWriter.dispose();
+        }
+    }
+}
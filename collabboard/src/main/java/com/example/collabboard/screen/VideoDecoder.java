@@ -0,0 +1,208 @@
+package com.example.collabboard.screen;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Base64;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Plays a participant's screen shared by a {@link VideoEncoder}.
+ * <p>
+ * The stream bytes of the frames are fed, in order, to an FFmpeg grabber on a thread of its own, which decodes them
+ * to BGRA and writes each picture into the pixels of a {@link ScreenSurface}, reused for as long as the size stays
+ * the same; pictures decoded before the FX thread has shown the one before replace it.
+ * <p>
+ * A missed frame, a late start or a change of codec or size stops the stream, and decoding starts over with a
+ * fresh grabber at the next keyframe, which carries the stream header.
+ */
+public final class VideoDecoder implements AutoCloseable {
+    private static final byte[] END = new byte[0];
+
+    private final ScreenSurface surface;
+    private StreamInput input;
+    private VideoEncoder.Codec codec;
+    private int width;
+    private int height;
+    private int sequence;
+
+    /**
+     * @param surface Where the decoded pictures are shown.
+     */
+    public VideoDecoder(ScreenSurface surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * @return Whether the payload is a video frame.
+     */
+    public static boolean isVideo(String payload) {
+        return payload.startsWith(VideoEncoder.PREFIX);
+    }
+
+    /**
+     * Queues a frame for decoding. Frames must be submitted from one thread at a time, in the order received.
+     * @throws IllegalArgumentException if the payload is malformed.
+     */
+    public void submit(String payload) {
+        if (!isVideo(payload)) {
+            throw new IllegalArgumentException("Not a video frame");
+        }
+        ByteBuffer frame = ByteBuffer.wrap(Base64.getDecoder().decode(payload.substring(VideoEncoder.PREFIX.length())));
+        if (frame.remaining() < VideoEncoder.HEADER_SIZE || frame.get() != VideoEncoder.VERSION) {
+            throw new IllegalArgumentException("Unsupported video frame");
+        }
+        boolean keyframe = (frame.get() & VideoEncoder.FLAG_KEYFRAME) != 0;
+        int codecIndex = frame.get();
+        int frameSequence = frame.getInt();
+        int frameWidth = frame.getInt();
+        int frameHeight = frame.getInt();
+        if (codecIndex < 0 || codecIndex >= VideoEncoder.Codec.values().length) {
+            throw new IllegalArgumentException("Unknown video codec");
+        }
+        VideoEncoder.Codec frameCodec = VideoEncoder.Codec.values()[codecIndex];
+
+        boolean follows = input != null && frameSequence == sequence + 1 && frameCodec == codec
+                && frameWidth == width && frameHeight == height;
+        if (follows) {
+            // A running stream has had its header already
+            int skip = keyframe ? codec.headerLength : 0;
+            input.add(frame.array(), frame.position() + skip, frame.remaining() - skip);
+        } else if (keyframe) {
+            stopStream();
+            codec = frameCodec;
+            width = frameWidth;
+            height = frameHeight;
+            input = new StreamInput();
+            input.add(frame.array(), frame.position(), frame.remaining());
+            StreamInput started = input;
+            Thread thread = new Thread(() -> decode(started, frameCodec), "screen-video-decoder");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            stopStream(); // Wait for the next keyframe
+        }
+        sequence = frameSequence;
+    }
+
+    private void stopStream() {
+        if (input != null) {
+            input.end();
+            input = null;
+        }
+    }
+
+    /**
+     * Decodes a stream until it ends; runs on the stream's own thread.
+     */
+    private void decode(StreamInput stream, VideoEncoder.Codec codec) {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(stream, 0)) {
+            grabber.setFormat(codec.format);
+            grabber.setPixelFormat(avutil.AV_PIX_FMT_BGRA);
+            // Decode each frame as it arrives instead of buffering to analyze the stream
+            grabber.setOption("fflags", "nobuffer");
+            grabber.setOption("probesize", "32");
+            grabber.setOption("analyzeduration", "0");
+            grabber.start();
+            int[] pixels = new int[0];
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null && !stream.ended) {
+                pixels = publish(frame, pixels);
+            }
+        } catch (FrameGrabber.Exception e) {
+            if (!stream.ended) {
+                System.err.println("Error decoding shared screen: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a decoded picture into the stream's pixels, a new array if its size changed, for the surface to show.
+     * @return The pixels.
+     */
+    private int[] publish(Frame frame, int[] pixels) {
+        int width = frame.imageWidth;
+        int height = frame.imageHeight;
+        if (pixels.length != width * height) {
+            pixels = new int[width * height];
+        }
+        // BGRA bytes read as little-endian ints are ARGB
+        IntBuffer source = ((ByteBuffer) frame.image[0]).duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int y = 0; y < height; y++) {
+            source.position(y * frame.imageStride / 4);
+            source.get(pixels, y * width, width);
+            for (int i = y * width, end = i + width; i < end; i++) {
+                pixels[i] |= 0xFF000000;
+            }
+        }
+        surface.attach(pixels, width, height);
+        surface.changed(new Rectangle(0, 0, width, height));
+        return pixels;
+    }
+
+    /**
+     * Stops decoding.
+     */
+    @Override
+    public void close() {
+        stopStream();
+    }
+
+    /**
+     * The stream bytes of the frames as the grabber reads them, blocking until the next frame is queued.
+     */
+    private static final class StreamInput extends InputStream {
+        private final LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private byte[] chunk = new byte[0];
+        private int position;
+        volatile boolean ended;
+
+        void add(byte[] bytes, int offset, int length) {
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, offset, copy, 0, length);
+            chunks.add(copy);
+        }
+
+        void end() {
+            ended = true;
+            chunks.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position == chunk.length) {
+                if (chunk == END) {
+                    return -1;
+                }
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+                position = 0;
+            }
+            int n = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+    }
+}
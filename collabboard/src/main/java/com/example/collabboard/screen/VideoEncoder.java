@@ -0,0 +1,220 @@
+package com.example.collabboard.screen;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameRecorder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Base64;
+
+/**
+ * Encodes captured frames as a video stream with FFmpeg through JavaCV, on the CPU, as the alternative to
+ * {@link TileDiffEncoder} for screens that change a lot, such as scrolling or video.
+ * <p>
+ * Each frame becomes the stream bytes the encoder produced for it: inter-frame compressed, a keyframe every
+ * {@code keyframeIntervalMillis}, at a target bitrate, tuned for latency (no B-frames, no lookahead). A keyframe
+ * is sent with the stream header, so a viewer can start decoding at any keyframe; like tile diff frames, video
+ * frames are numbered and a viewer that missed one waits for the next keyframe, see {@link VideoDecoder}.
+ * {@link #requestKeyframe()} restarts the encoder, which begins with a keyframe. A payload is {@link #PREFIX} and
+ * the base64 of, big-endian:
+ * <pre>
+ * header  version:u8, flags:u8 (1 = keyframe), codec:u8, sequence:i32, width:i32, height:i32
+ * stream  the stream header if a keyframe, then the encoded frame in the codec's raw stream format
+ * </pre>
+ * Frames are cropped to even dimensions, as 4:2:0 video requires.
+ */
+public final class VideoEncoder implements AutoCloseable {
+    public static final String PREFIX = "V1:";
+    static final int VERSION = 1;
+    static final int FLAG_KEYFRAME = 1;
+    static final int HEADER_SIZE = 15;
+
+    /**
+     * The codecs, by the raw stream format their frames are sent in.
+     */
+    public enum Codec {
+        H264("h264", avcodec.AV_CODEC_ID_H264, 0),
+        VP8("ivf", avcodec.AV_CODEC_ID_VP8, 32);
+
+        final String format;
+        final int codecId;
+        // Bytes the format writes before the first frame
+        final int headerLength;
+
+        Codec(String format, int codecId, int headerLength) {
+            this.format = format;
+            this.codecId = codecId;
+            this.headerLength = headerLength;
+        }
+
+        /**
+         * @return The codec of a configuration value such as "h264", or null if it names none.
+         */
+        public static Codec of(String name) {
+            for (Codec codec : values()) {
+                if (codec.name().equalsIgnoreCase(name)) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Codec codec;
+    private final int frameRate;
+    private final int bitrateKbps;
+    private final int keyframeIntervalFrames;
+    private final ByteArrayOutputStream stream = new ByteArrayOutputStream(256 * 1024);
+    private FFmpegFrameRecorder recorder;
+    private byte[] streamHeader;
+    private Frame frame;
+    private IntBuffer framePixels;
+    private int width;
+    private int height;
+    private int sequence;
+    private volatile boolean keyframeDue;
+    private int[] pixels;
+
+    /**
+     * @param frameRate Frames per second the encoder is fed, for rate control.
+     * @param bitrateKbps Target bitrate.
+     * @param keyframeIntervalMillis Time between keyframes.
+     */
+    public VideoEncoder(Codec codec, int frameRate, int bitrateKbps, int keyframeIntervalMillis) {
+        this.codec = codec;
+        this.frameRate = Math.max(1, frameRate);
+        this.bitrateKbps = Math.max(50, bitrateKbps);
+        this.keyframeIntervalFrames = Math.max(1, keyframeIntervalMillis * this.frameRate / 1000);
+    }
+
+    /**
+     * Makes the next frame a keyframe. Can be called from any thread.
+     */
+    public void requestKeyframe() {
+        keyframeDue = true;
+    }
+
+    /**
+     * @return The payload for a captured frame, or null if the encoder produced nothing for it yet.
+     * @throws FrameRecorder.Exception if FFmpeg fails, e.g. because it has no encoder for the codec.
+     */
+    public String encode(BufferedImage image) throws FrameRecorder.Exception {
+        pixels = CapturePixels.of(image, pixels);
+        return encode(pixels, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * @param pixels The frame as RGB ints, row by row; the top byte is ignored.
+     * @return The payload for the frame, or null if the encoder produced nothing for it yet.
+     * @throws FrameRecorder.Exception if FFmpeg fails, e.g. because it has no encoder for the codec.
+     */
+    public String encode(int[] pixels, int width, int height) throws FrameRecorder.Exception {
+        int evenWidth = width & ~1;
+        int evenHeight = height & ~1;
+        if (recorder == null || keyframeDue || evenWidth != this.width || evenHeight != this.height) {
+            keyframeDue = false;
+            start(evenWidth, evenHeight);
+        }
+
+        framePixels.clear();
+        for (int y = 0; y < this.height; y++) {
+            framePixels.put(pixels, y * width, this.width);
+        }
+        recorder.record(frame, avutil.AV_PIX_FMT_BGR0);
+        byte[] output = stream.toByteArray();
+        stream.reset();
+
+        int start = 0;
+        if (streamHeader == null) {
+            // The first output starts with what the format writes up front
+            if (output.length < codec.headerLength) {
+                stream.write(output, 0, output.length);
+                return null;
+            }
+            streamHeader = new byte[codec.headerLength];
+            System.arraycopy(output, 0, streamHeader, 0, codec.headerLength);
+            start = codec.headerLength;
+        }
+        if (start == output.length) {
+            return null;
+        }
+        boolean keyframe = isKeyframe(output, start);
+        ByteBuffer payload = ByteBuffer.allocate(HEADER_SIZE + (keyframe ? streamHeader.length : 0)
+                + output.length - start);
+        payload.put((byte) VERSION).put((byte) (keyframe ? FLAG_KEYFRAME : 0)).put((byte) codec.ordinal())
+                .putInt(sequence++).putInt(this.width).putInt(this.height);
+        if (keyframe) {
+            payload.put(streamHeader);
+        }
+        payload.put(output, start, output.length - start);
+        return PREFIX + Base64.getEncoder().encodeToString(payload.array());
+    }
+
+    private void start(int width, int height) throws FrameRecorder.Exception {
+        close();
+        this.width = width;
+        this.height = height;
+        streamHeader = null;
+        stream.reset();
+        frame = new Frame(width, height, Frame.DEPTH_UBYTE, 4);
+        ByteBuffer bytes = (ByteBuffer) frame.image[0];
+        framePixels = bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+        recorder = new FFmpegFrameRecorder(stream, width, height);
+        recorder.setFormat(codec.format);
+        recorder.setVideoCodec(codec.codecId);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(frameRate);
+        recorder.setGopSize(keyframeIntervalFrames);
+        recorder.setVideoBitrate(bitrateKbps * 1000);
+        recorder.setMaxBFrames(0);
+        // Every frame is written out as soon as it is encoded
+        recorder.setOption("flush_packets", "1");
+        recorder.setVideoOption("preset", "ultrafast");
+        recorder.setVideoOption("tune", "zerolatency");
+        recorder.setVideoOption("deadline", "realtime");
+        recorder.setVideoOption("cpu-used", "8");
+        recorder.setVideoOption("lag-in-frames", "0");
+        // Capturing and the FX thread keep a core each, the encoder gets the rest
+        recorder.setVideoOption("threads", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() - 2)));
+        recorder.start();
+    }
+
+    /**
+     * @return Whether the encoded frame starting at offset can be decoded on its own.
+     */
+    private boolean isKeyframe(byte[] output, int offset) {
+        if (codec == Codec.VP8) {
+            // An IVF frame header of 12 bytes, then the VP8 frame tag, whose lowest bit is 0 for a keyframe
+            return output.length > offset + 12 && (output[offset + 12] & 1) == 0;
+        }
+        // An IDR slice among the NAL units, each after a 00 00 01 start code
+        for (int i = offset; i + 3 < output.length; i++) {
+            if (output[i] == 0 && output[i + 1] == 0 && output[i + 2] == 1 && (output[i + 3] & 0x1F) == 5) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the encoder; the next frame starts it again.
+     */
+    @Override
+    public void close() {
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (FrameRecorder.Exception e) {
+                System.err.println("Error closing video encoder: " + e.getMessage());
+            }
+            recorder = null;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package com.example.collabboard.service;
 
 import com.example.collabboard.network.Client;
+import com.example.collabboard.network.FlushPolicy;
 import com.example.collabboard.network.Host;
+import com.example.collabboard.network.PeerStats;
+import com.example.collabboard.network.SlowConsumerPolicy;
 import com.example.collabboard.network.StompClient; // You will create this class next
-import javafx.application.Platform;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 @Service
@@ -25,9 +32,53 @@ public class CollaborationService {
     private Host lanHost;
     private Client lanClient;
     private StompClient cloudClient;
-    private Consumer<String> onDataReceived;
+    private volatile Consumer<String> onDataReceived;
     private String currentRoomIdentifier;
 
+    // Number of selector threads for the LAN host; 0 falls back to one thread per client.
+    @Value("${collabboard.lan.io-threads:2}")
+    private int lanIoThreads;
+
+    // Per-participant outbound queue limits on the LAN host, see SlowConsumerPolicy.
+    @Value("${collabboard.lan.outbound-queue-capacity:1024}")
+    private int lanQueueCapacity;
+    @Value("${collabboard.lan.drop-oldest-frames:true}")
+    private boolean lanDropOldestFrames;
+    @Value("${collabboard.lan.coalesce-draws:true}")
+    private boolean lanCoalesceDraws;
+    @Value("${collabboard.lan.disconnect-threshold:256}")
+    private int lanDisconnectThreshold;
+    // While hosting, participants whose queue is at least half full are logged this often; 0 turns it off.
+    @Value("${collabboard.lan.lag-report-interval-ms:5000}")
+    private int lanLagReportIntervalMs;
+    private ScheduledExecutorService lagReporter;
+
+    // Ask LAN hosts for length-prefixed binary frames instead of text lines.
+    @Value("${collabboard.lan.binary-protocol:true}")
+    private boolean lanBinaryProtocol;
+
+    // Outgoing LAN messages produced within this window are sent with one socket write.
+    @Value("${collabboard.lan.flush-window-ms:8}")
+    private int lanFlushWindowMs;
+    @Value("${collabboard.lan.max-batch-bytes:65536}")
+    private int lanMaxBatchBytes;
+
+    // Board operations between two compactions of the snapshot sent to late joiners.
+    @Value("${collabboard.lan.snapshot-interval:5000}")
+    private int lanSnapshotInterval;
+
+    // Relayed messages the host keeps so a dropped client can resume with just what it missed.
+    @Value("${collabboard.lan.replay-buffer-size:4096}")
+    private int lanReplayBufferSize;
+    @Value("${collabboard.lan.resume:true}")
+    private boolean lanResume;
+
+    private final SessionManager sessionManager;
+
+    public CollaborationService(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
     // --- Public API for Controllers ---
 
     public boolean isHost() {
@@ -39,19 +90,48 @@ public class CollaborationService {
     public void startHost(int port) throws IOException {
         stop(); // Ensure any previous session is closed
         currentMode = CommunicationMode.LAN;
-        lanHost = new Host(port, this::receiveData);
+        SlowConsumerPolicy policy = new SlowConsumerPolicy(lanQueueCapacity, lanDropOldestFrames, lanCoalesceDraws, lanDisconnectThreshold);
+        lanHost = new Host(port, this::receiveData, lanIoThreads, policy, lanFlushPolicy(), lanSnapshotInterval, lanReplayBufferSize);
         new Thread(lanHost).start();
         System.out.println("LAN Host started on port " + port);
+        if (lanLagReportIntervalMs > 0) {
+            Host host = lanHost;
+            lagReporter = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "lan-lag-report");
+                thread.setDaemon(true);
+                return thread;
+            });
+            lagReporter.scheduleAtFixedRate(() -> reportLag(host), lanLagReportIntervalMs, lanLagReportIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     public void connectToHost(String ipAddress, int port, Runnable onSuccess, Consumer<Exception> onFailure) {
         stop();
         currentMode = CommunicationMode.LAN;
-        lanClient = new Client(ipAddress, port, this::receiveData, onSuccess, onFailure);
+        String username = sessionManager.getCurrentUser() != null ? sessionManager.getCurrentUser().getUsername() : "Guest";
+        lanClient = new Client(ipAddress, port, username, lanBinaryProtocol, lanResume, lanFlushPolicy(), this::receiveData, onSuccess, onFailure);
         new Thread(lanClient).start();
         System.out.println("Attempting to connect to LAN host at " + ipAddress + ":" + port);
     }
 
+    /**
+     * Logs the participants whose outbound queue is above the high-water mark of half its capacity, with the
+     * host's write batching, so it shows who is lagging before anyone is disconnected.
+     */
+    private void reportLag(Host host) {
+        List<PeerStats> lagging = host.getClientStats().stream()
+                .filter(stats -> stats.getQueueDepth() >= lanQueueCapacity / 2)
+                .toList();
+        if (!lagging.isEmpty()) {
+            System.out.println("LAN participants falling behind: " + lagging + " (" + host.getFlushStats() + ")");
+        }
+    }
+
+    private FlushPolicy lanFlushPolicy() {
+        return new FlushPolicy(lanFlushWindowMs, lanMaxBatchBytes);
+    }
+
     // --- Cloud Methods ---
 
     public void createCloudRoom(Consumer<String> onSuccess, Consumer<Exception> onFailure) {
@@ -86,6 +166,10 @@ public class CollaborationService {
     }
 
     public void stop() {
+        if (lagReporter != null) {
+            lagReporter.shutdownNow();
+            lagReporter = null;
+        }
         if (lanHost != null) {
             lanHost.shutdown();
             lanHost = null;
@@ -104,11 +188,16 @@ public class CollaborationService {
     }
 
     private void receiveData(String data) {
-        if (onDataReceived != null) {
-            Platform.runLater(() -> onDataReceived.accept(data));
+        Consumer<String> listener = onDataReceived;
+        if (listener != null) {
+            listener.accept(data);
         }
     }
 
+    /**
+     * The listener is called on the thread that received the message, never the FX thread; it decides itself
+     * how to get there, so a message is not queued twice.
+     */
     public void setOnDataReceived(Consumer<String> listener) {
         this.onDataReceived = listener;
     }
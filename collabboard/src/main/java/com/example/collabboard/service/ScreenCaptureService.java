@@ -1,20 +1,31 @@
 package com.example.collabboard.service;
 
+import com.example.collabboard.screen.CapturedFrame;
+import com.example.collabboard.screen.LatestSlot;
+import com.example.collabboard.screen.PipelineStats;
+import com.example.collabboard.screen.ScreenQuality;
+import com.example.collabboard.screen.ScreenScaler;
+import com.example.collabboard.screen.TileDiffEncoder;
+import com.example.collabboard.screen.VideoEncoder;
 import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.image.Image;
 import javafx.scene.image.WritableImage;
+import org.bytedeco.javacv.FrameRecorder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -27,10 +38,24 @@ public class ScreenCaptureService {
     
     private ScheduledExecutorService scheduler;
     private boolean isCapturing = false;
-    private Consumer<String> onScreenshotCaptured;
     private int captureIntervalMs = 100; // Default 10 FPS
     private Rectangle captureArea;
     private Robot robot;
+
+    // Frames are scaled down to the chosen quality, then go out as the tiles that changed since the frame before,
+    // and whole once per keyframe interval
+    @Value("${collabboard.screen.tile-size:64}")
+    private int tileSize;
+    @Value("${collabboard.screen.keyframe-interval-ms:3000}")
+    private int keyframeIntervalMs;
+    @Value("${collabboard.screen.jpeg-tiles:true}")
+    private boolean jpegTiles;
+    // "tiles", or a video codec, "h264" or "vp8", which suits screens that change a lot better
+    @Value("${collabboard.screen.codec:tiles}")
+    private String codecName;
+    @Value("${collabboard.screen.video-bitrate-kbps:1500}")
+    private int videoBitrateKbps;
+    private volatile Pipeline pipeline;
     
     public ScreenCaptureService() {
         try {
@@ -43,21 +68,44 @@ public class ScreenCaptureService {
     }
     
     /**
-     * Start capturing screenshots at the specified interval.
+     * Start capturing screenshots at the specified interval, in medium quality.
      * @param intervalMs Capture interval in milliseconds
      * @param callback Callback function to handle captured screenshots
      */
     public void startCapturing(int intervalMs, Consumer<String> callback) {
+        startCapturing(intervalMs, ScreenQuality.MEDIUM, callback);
+    }
+    
+    /**
+     * Start capturing screenshots at the specified interval.
+     * @param intervalMs Capture interval in milliseconds
+     * @param quality Resolution the screenshots are scaled down to, and how lossy they are encoded
+     * @param callback Callback function to handle captured screenshots, as {@link TileDiffEncoder} or
+     *                 {@link VideoEncoder} payloads; it is not called for captures that changed nothing
+     */
+    public void startCapturing(int intervalMs, ScreenQuality quality, Consumer<String> callback) {
         if (isCapturing) {
             stopCapturing();
         }
         
         this.captureIntervalMs = intervalMs;
-        this.onScreenshotCaptured = callback;
+        VideoEncoder.Codec codec = VideoEncoder.Codec.of(codecName);
+        // The bitrate is set for 720p and follows the number of pixels
+        double pixelRatio = Math.pow(quality.maxHeight / 720.0, 2);
+        Pipeline started = new Pipeline(new ScreenScaler(quality.maxHeight),
+                new TileDiffEncoder(tileSize, keyframeIntervalMs, jpegTiles ? quality.jpegQuality : 0,
+                        Math.max(0, Runtime.getRuntime().availableProcessors() - 1)),
+                codec != null
+                        ? new VideoEncoder(codec, 1000 / Math.max(1, intervalMs), (int) (videoBitrateKbps * pixelRatio),
+                                keyframeIntervalMs)
+                        : null,
+                callback);
+        started.start();
+        this.pipeline = started;
         this.isCapturing = true;
         
         scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(this::captureScreenshot, 0, intervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(started::capture, 0, intervalMs, TimeUnit.MILLISECONDS);
         
         System.out.println("Screen capture started with interval: " + intervalMs + "ms");
     }
@@ -77,32 +125,204 @@ public class ScreenCaptureService {
                 Thread.currentThread().interrupt();
             }
         }
+        Pipeline stopped = pipeline;
+        if (stopped != null) {
+            stopped.stop();
+            pipeline = null;
+            System.out.println("Screen capture stopped: " + stopped.stats);
+        } else {
+            System.out.println("Screen capture stopped");
+        }
         isCapturing = false;
-        System.out.println("Screen capture stopped");
     }
     
     /**
-     * Capture a single screenshot and convert it to base64 string.
+     * Makes the next frame sent a whole one, e.g. for a participant who just joined and has nothing to patch.
+     */
+    public void requestKeyframe() {
+        Pipeline current = pipeline;
+        if (current != null) {
+            current.requestKeyframe();
+        }
+    }
+    
+    /**
+     * Get the stage timings of the current screen sharing session.
+     * @return The stats, or null if not capturing
+     */
+    public PipelineStats getPipelineStats() {
+        Pipeline current = pipeline;
+        return current != null ? current.stats : null;
+    }
+    
+    /**
+     * One screen sharing session, in three stages on threads of their own: the scheduler captures and scales
+     * screenshots, the encode thread turns the latest capture into a payload, and the JavaFX thread sends it.
+     * Captures hand over through a single slot, so when encoding falls behind it skips to the newest capture instead
+     * of queueing old ones. Payloads are never skipped, as each patches the one before: the encode thread takes no
+     * capture while its last payload is unsent, so a slow send only makes it skip captures too. The delay stays at
+     * about one frame per stage. The encode thread keeps the order of the tiles and frames; it hands the compression
+     * of large lossless diffs to one deflate thread per other core, while JPEG tiles and video are encoded on it.
      */
-    private void captureScreenshot() {
-        if (!isCapturing || robot == null) {
-            return;
+    private final class Pipeline {
+        private final ScreenScaler scaler;
+        private final TileDiffEncoder encoder;
+        private volatile VideoEncoder videoEncoder;
+        private final Consumer<String> onScreenshotCaptured;
+        private final PipelineStats stats = new PipelineStats();
+        private final LatestSlot<CapturedFrame> captured = new LatestSlot<>();
+        // Frames the encoder is done with, for the next captures; there are never more than three
+        private final ConcurrentLinkedQueue<CapturedFrame> spareFrames = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<Encoded> unsent = new AtomicReference<>();
+        // Taken by the encode thread before each capture, given back once its payload is sent
+        private final Semaphore sendPermit = new Semaphore(1);
+        private final Thread encodeThread = new Thread(this::encodeFrames, "screen-encoder");
+        
+        Pipeline(ScreenScaler scaler, TileDiffEncoder encoder, VideoEncoder videoEncoder,
+                 Consumer<String> onScreenshotCaptured) {
+            this.scaler = scaler;
+            this.encoder = encoder;
+            this.videoEncoder = videoEncoder;
+            this.onScreenshotCaptured = onScreenshotCaptured;
         }
         
-        try {
-            // Capture screenshot
-            BufferedImage screenshot = robot.createScreenCapture(captureArea);
-            
-            // Convert to base64 string
-            String base64Image = convertToBase64(screenshot);
-            
-            // Send to callback on JavaFX thread
-            if (onScreenshotCaptured != null) {
-                Platform.runLater(() -> onScreenshotCaptured.accept(base64Image));
+        void start() {
+            encodeThread.setDaemon(true);
+            encodeThread.start();
+        }
+        
+        /**
+         * Stops encoding and sending; the scheduler must have stopped capturing.
+         */
+        void stop() {
+            captured.close();
+            unsent.set(null);
+            sendPermit.release();
+            try {
+                encodeThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        void requestKeyframe() {
+            encoder.requestKeyframe();
+            VideoEncoder video = videoEncoder;
+            if (video != null) {
+                video.requestKeyframe();
+            }
+        }
+        
+        /**
+         * Capture a single screenshot, at the resolution of the chosen quality, for the encode thread.
+         */
+        void capture() {
+            if (robot == null) {
+                return;
             }
             
-        } catch (Exception e) {
-            System.err.println("Error capturing screenshot: " + e.getMessage());
+            try {
+                long start = System.nanoTime();
+                BufferedImage screenshot = scaler.scale(robot.createScreenCapture(captureArea));
+                CapturedFrame frame = spareFrames.poll();
+                if (frame == null) {
+                    frame = new CapturedFrame();
+                }
+                frame.copyFrom(screenshot, start);
+                stats.record(PipelineStats.Stage.CAPTURE, start);
+                
+                CapturedFrame skipped = captured.offer(frame);
+                if (skipped != null) {
+                    stats.drop(PipelineStats.Stage.ENCODE);
+                    spareFrames.add(skipped);
+                }
+            } catch (Exception e) {
+                System.err.println("Error capturing screenshot: " + e.getMessage());
+            }
+        }
+        
+        /**
+         * Encodes what changed since the last frame until the pipeline stops; runs on the encode thread, which
+         * owns the encoders.
+         */
+        private void encodeFrames() {
+            try {
+                CapturedFrame frame;
+                while (true) {
+                    sendPermit.acquire();
+                    if ((frame = captured.take()) == null) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    String payload = null;
+                    try {
+                        payload = encode(frame);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error encoding screenshot: " + e.getMessage());
+                    }
+                    long capturedNanos = frame.capturedNanos();
+                    spareFrames.add(frame);
+                    stats.record(PipelineStats.Stage.ENCODE, start);
+                    if (payload != null) {
+                        unsent.set(new Encoded(payload, capturedNanos));
+                        Platform.runLater(this::sendLatest);
+                    } else {
+                        sendPermit.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                VideoEncoder video = videoEncoder;
+                if (video != null) {
+                    video.close();
+                }
+                encoder.close();
+            }
+        }
+        
+        private String encode(CapturedFrame frame) {
+            VideoEncoder video = videoEncoder;
+            if (video != null) {
+                try {
+                    return video.encode(frame.pixels(), frame.width(), frame.height());
+                } catch (FrameRecorder.Exception | LinkageError e) {
+                    // FFmpeg could not encode the codec on this machine
+                    System.err.println("Video encoding failed, sending changed tiles instead: " + e.getMessage());
+                    video.close();
+                    videoEncoder = null;
+                    encoder.requestKeyframe();
+                }
+            }
+            return encoder.encode(frame.pixels(), frame.width(), frame.height());
+        }
+        
+        /**
+         * Sends the payload the encode thread handed over, then lets it take the next capture.
+         */
+        private void sendLatest() {
+            Encoded encoded = unsent.getAndSet(null);
+            if (encoded == null) {
+                return; // Stopped
+            }
+            try {
+                long start = System.nanoTime();
+                onScreenshotCaptured.accept(encoded.payload);
+                stats.record(PipelineStats.Stage.SEND, start);
+                stats.sent(encoded.capturedNanos);
+            } finally {
+                sendPermit.release();
+            }
+        }
+    }
+    
+    private static final class Encoded {
+        final String payload;
+        final long capturedNanos;
+        
+        Encoded(String payload, long capturedNanos) {
+            this.payload = payload;
+            this.capturedNanos = capturedNanos;
         }
     }
     
@@ -146,24 +366,7 @@ public class ScreenCaptureService {
     }
     
     /**
-     * Convert BufferedImage to base64 string for transmission.
-     * @param image BufferedImage to convert
-     * @return Base64 encoded string
-     */
-    private String convertToBase64(BufferedImage image) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(image, "png", baos);
-            byte[] imageBytes = baos.toByteArray();
-            return Base64.getEncoder().encodeToString(imageBytes);
-        } catch (IOException e) {
-            System.err.println("Error converting image to base64: " + e.getMessage());
-            return null;
-        }
-    }
-    
-    /**
-     * Convert base64 string back to JavaFX Image.
+     * Convert base64 string back to JavaFX Image, for screens shared as whole images by older versions.
      * @param base64String Base64 encoded image string
      * @return JavaFX Image
      */
@@ -0,0 +1,243 @@
+package com.example.collabboard.board;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardDocumentTest {
+    private final BoardOpCodec codec = new BoardOpCodec();
+
+    private BoardDocument apply(List<String> operations) {
+        BoardDocument document = new BoardDocument();
+        BoardOp op = new BoardOp();
+        for (String operation : operations) {
+            assertTrue(codec.decode(operation, op), operation);
+            document.apply(op);
+        }
+        return document;
+    }
+
+    /**
+     * Lists the board in drawing order, hidden objects marked, followed by what hit-testing sees.
+     */
+    private List<String> state(BoardDocument document) {
+        List<String> state = new ArrayList<>();
+        BoardOp op = new BoardOp();
+        for (int i = 0; i < document.size(); i++) {
+            state.add((document.isHidden(i) ? "hidden " : "") + codec.encode(document.read(i, op)));
+        }
+        IndexList visible = document.query(-1e6, -1e6, 1e6, 1e6, new IndexList());
+        for (int i = 0; i < visible.size(); i++) {
+            state.add("visible " + document.key(visible.get(i)));
+        }
+        state.add("clock " + document.clock());
+        return state;
+    }
+
+    private static List<String> randomOperations(Random random, int count) {
+        List<String> operations = new ArrayList<>();
+        for (int clock = 1; clock <= count; clock++) {
+            String opId = Integer.toHexString(random.nextInt(3)) + "-" + clock;
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                operations.add("CLEAR:@" + opId);
+            } else if (choice < 6 && clock > 1) {
+                String target = Integer.toHexString(random.nextInt(3)) + "-" + (1 + random.nextInt(clock - 1));
+                operations.add((random.nextBoolean() ? "DELETE:" : "RESTORE:") + target + "@" + opId);
+            } else if (choice < 10) {
+                operations.add("STROKE:2.00,0x000000ff," + clock + ".00,1.00," + (clock + 5) + ".00,9.00@" + opId);
+            } else if (choice < 12) {
+                operations.add("STICKY_NOTE:" + clock + ".00,3.00,note\\, " + clock + "@" + opId);
+            } else {
+                operations.add("RECTANGLE:" + clock + ".00," + choice + ".00,"
+                        + (clock + 10) + ".00," + (choice + 10) + ".00,0x" + Integer.toHexString(0x10000000 + choice)
+                        + "@" + opId);
+            }
+        }
+        return operations;
+    }
+
+    @Test
+    void shuffledAndDuplicatedDeliveryConverges() {
+        Random random = new Random(17);
+        for (int round = 0; round < 20; round++) {
+            List<String> operations = randomOperations(random, 200);
+            List<String> first = new ArrayList<>(operations);
+            List<String> second = new ArrayList<>(operations);
+            for (int i = 0; i < 50; i++) {
+                second.add(operations.get(random.nextInt(operations.size())));
+            }
+            Collections.shuffle(first, random);
+            Collections.shuffle(second, random);
+            assertEquals(state(apply(operations)), state(apply(first)));
+            assertEquals(state(apply(operations)), state(apply(second)));
+        }
+    }
+
+    @Test
+    void lateObjectIsInsertedInDrawingOrder() {
+        BoardDocument document = apply(List.of(
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@a-3",
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@b-1",
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@a-2",
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@b-2"));
+        assertEquals(BoardDocument.key("b-1"), document.key(0));
+        assertEquals(BoardDocument.key("a-2"), document.key(1));
+        assertEquals(BoardDocument.key("b-2"), document.key(2));
+        assertEquals(BoardDocument.key("a-3"), document.key(3));
+        assertEquals(3, document.clock());
+    }
+
+    @Test
+    void clearAndConcurrentInsertConvergeInEitherOrder() {
+        // b-3 was drawn concurrently with the CLEAR but orders before it, so it goes; b-5 orders after it and stays
+        List<String> operations = List.of(
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@a-1",
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@b-3",
+                "CLEAR:@a-4",
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@b-5",
+                "DELETE:b-3@b-6");
+        List<String> expected = List.of("RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@0000000b-5",
+                "visible " + BoardDocument.key("b-5"), "clock 6");
+        assertEquals(expected, state(apply(operations)));
+
+        List<String> reversed = new ArrayList<>(operations);
+        Collections.reverse(reversed);
+        assertEquals(expected, state(apply(reversed)));
+
+        List<String> insertAfterClear = List.of(operations.get(2), operations.get(3), operations.get(1),
+                operations.get(0), operations.get(4));
+        assertEquals(expected, state(apply(insertAfterClear)));
+    }
+
+    @Test
+    void olderClearArrivingLateChangesNothing() {
+        BoardDocument document = apply(List.of(
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@a-1",
+                "CLEAR:@a-2",
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@a-3"));
+        BoardOp op = new BoardOp();
+        codec.decode("CLEAR:@b-1", op);
+        assertEquals(-1, document.apply(op));
+        assertEquals(1, document.size());
+    }
+
+    @Test
+    void latestDeleteOrRestoreWinsWhateverTheOrder() {
+        List<String> operations = List.of(
+                "RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff@a-1",
+                "DELETE:a-1@b-2",
+                "RESTORE:a-1@a-3",
+                "DELETE:a-1@c-3");
+        // c-3 orders after a-3: c > a at the same clock
+        List<String> reversed = new ArrayList<>(operations);
+        Collections.reverse(reversed);
+        for (List<String> order : List.of(operations, reversed)) {
+            BoardDocument document = apply(order);
+            assertTrue(document.isHidden(0));
+            assertEquals(0, document.query(-1, -1, 2, 2, new IndexList()).size());
+        }
+    }
+
+    @Test
+    void eraseCoversEverySquareOfTheDrag() {
+        BoardDocument document = apply(List.of("ERASE:10.00,10.00,4.00,30.00,50.00,20.00,-5.00@a-1"));
+        assertEquals(6, document.coordLength(0));
+        assertEquals(8f, document.minX(0));
+        assertEquals(-7f, document.minY(0));
+        assertEquals(32f, document.maxX(0));
+        assertEquals(52f, document.maxY(0));
+        assertEquals(1, document.query(29, 49, 29, 49, new IndexList()).size());
+        assertEquals(-1, document.topmostAt(30, 50, 1));
+    }
+
+    @Test
+    void hitTestingFollowsObjectsByOpId() {
+        BoardDocument document = apply(List.of(
+                "RECTANGLE:0.00,0.00,10.00,10.00,0x000000ff@a-2",
+                "RECTANGLE:0.00,0.00,10.00,10.00,0x000000ff@a-4"));
+        assertEquals(BoardDocument.key("a-4"), document.key(document.topmostAt(5, 5, 1)));
+
+        // A late object below both moves them up a position; hit-testing still finds the same ones
+        BoardOp op = new BoardOp();
+        codec.decode("OVAL:0.00,0.00,10.00,10.00,0x000000ff@b-1", op);
+        document.apply(op);
+        assertEquals(BoardDocument.key("a-4"), document.key(document.topmostAt(5, 5, 1)));
+
+        codec.decode("DELETE:a-4@b-5", op);
+        document.apply(op);
+        assertEquals(BoardDocument.key("a-2"), document.key(document.topmostAt(5, 5, 1)));
+        codec.decode("DELETE:a-2@b-6", op);
+        document.apply(op);
+        assertEquals(BoardDocument.key("b-1"), document.key(document.topmostAt(5, 5, 1)));
+        codec.decode("RESTORE:a-4@a-7", op);
+        document.apply(op);
+        assertEquals(BoardDocument.key("a-4"), document.key(document.topmostAt(5, 5, 1)));
+        assertEquals(-1, document.topmostAt(50, 50, 1));
+    }
+
+    @Test
+    void regionQueryMatchesAScanOfTheBoard() {
+        Random random = new Random(13);
+        List<String> operations = randomOperations(random, 2000);
+        Collections.shuffle(operations, random);
+        BoardDocument document = apply(operations);
+        IndexList found = new IndexList();
+        for (int i = 0; i < 200; i++) {
+            double x0 = random.nextInt(2100) - 50, y0 = random.nextInt(40) - 10;
+            double x1 = x0 + random.nextInt(200), y1 = y0 + random.nextInt(20);
+            List<Integer> expected = new ArrayList<>();
+            for (int index = 0; index < document.size(); index++) {
+                if (!document.isHidden(index) && document.minX(index) <= x1 && document.maxX(index) >= x0
+                        && document.minY(index) <= y1 && document.maxY(index) >= y0) {
+                    expected.add(index);
+                }
+            }
+            document.query(x0, y0, x1, y1, found);
+            List<Integer> actual = new ArrayList<>();
+            for (int j = 0; j < found.size(); j++) {
+                actual.add(found.get(j));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void repeatedOperationChangesNothing() {
+        BoardDocument document = new BoardDocument();
+        BoardOp op = new BoardOp();
+        codec.decode("STICKY_NOTE:1.00,2.00,hi@a-1", op);
+        assertEquals(0, document.apply(op));
+        assertEquals(-1, document.apply(op));
+        codec.decode("DELETE:a-1@a-2", op);
+        assertEquals(0, document.apply(op));
+        assertEquals(-1, document.apply(op));
+        assertEquals(1, document.size());
+    }
+
+    @Test
+    void operationsWithoutOpIdAreRejected() {
+        BoardDocument document = new BoardDocument();
+        BoardOp op = new BoardOp();
+        codec.decode("RECTANGLE:0.00,0.00,1.00,1.00,0x000000ff", op);
+        assertThrows(IllegalArgumentException.class, () -> document.apply(op));
+        codec.decode("STROKE_END:a-1", op);
+        assertThrows(IllegalArgumentException.class, () -> document.apply(op));
+    }
+
+    @Test
+    void opIdsAndKeysConvert() {
+        for (String opId : new String[]{"00000000-0", "0000000a-7", "ffffffff-999999999"}) {
+            assertEquals(opId, BoardDocument.opId(BoardDocument.key(opId)));
+        }
+        assertTrue(BoardDocument.key("ffffffff-1") < BoardDocument.key("0-2"));
+        assertThrows(IllegalArgumentException.class, () -> BoardDocument.key("a-1234567890"));
+    }
+}
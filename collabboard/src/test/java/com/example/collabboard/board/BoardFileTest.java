@@ -0,0 +1,106 @@
+package com.example.collabboard.board;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BoardFileTest {
+    private final BoardOpCodec codec = new BoardOpCodec();
+
+    private BoardDocument board(String... operations) {
+        BoardDocument board = new BoardDocument();
+        BoardOp op = new BoardOp();
+        for (String operation : operations) {
+            codec.decode(operation, op);
+            board.apply(op);
+        }
+        return board;
+    }
+
+    private List<String> read(Path path) throws IOException {
+        List<String> operations = new ArrayList<>();
+        try (BoardFile file = BoardFile.open(path)) {
+            for (int i = 0; i < file.blockCount(); i++) {
+                file.readBlock(i, new BoardOp(), op -> operations.add(codec.encode(op)));
+            }
+        }
+        return operations;
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+
+    @Test
+    void visibleObjectsRoundTrip() throws IOException {
+        Path directory = Files.createTempDirectory("board-file");
+        Path path = directory.resolve("board.collab");
+        BoardFile.write(BoardFile.copy(board(
+                "RECTANGLE:1.00,2.00,3.00,4.00,0x112233ff@a-1",
+                "STICKY_NOTE:5.00,6.00,a\\, b é@a-2",
+                "ERASE:1.00,1.00,15.00,2.00,2.00@a-3",
+                "OVAL:1.00,2.00,3.00,4.00,0x000000ff@a-4",
+                "DELETE:a-4@a-5")), path);
+        assertEquals(List.of("RECTANGLE:1.00,2.00,3.00,4.00,0x112233ff", "STICKY_NOTE:5.00,6.00,a\\, b é",
+                "ERASE:1.00,1.00,15.00,2.00,2.00"), read(path));
+        assertEquals(List.of(path), files(directory));
+    }
+
+    @Test
+    void savingAgainReplacesTheFile() throws IOException {
+        Path directory = Files.createTempDirectory("board-file");
+        Path path = directory.resolve("board.collab");
+        BoardFile.write(BoardFile.copy(board("RECTANGLE:1.00,2.00,3.00,4.00,0x112233ff@a-1")), path);
+        BoardFile.write(BoardFile.copy(board("OVAL:1.00,2.00,3.00,4.00,0x112233ff@a-1")), path);
+        assertEquals(List.of("OVAL:1.00,2.00,3.00,4.00,0x112233ff"), read(path));
+        assertEquals(List.of(path), files(directory));
+    }
+
+    @Test
+    void copyIsNotAffectedByLaterChanges() throws IOException {
+        Path path = Files.createTempDirectory("board-file").resolve("board.collab");
+        BoardDocument board = board("RECTANGLE:1.00,2.00,3.00,4.00,0x112233ff@a-1");
+        BoardFile.Contents contents = BoardFile.copy(board);
+        BoardOp op = new BoardOp();
+        codec.decode("CLEAR:@a-2", op);
+        board.apply(op);
+        BoardFile.write(contents, path);
+        assertEquals(List.of("RECTANGLE:1.00,2.00,3.00,4.00,0x112233ff"), read(path));
+    }
+
+    @Test
+    void manyBlocks() throws IOException {
+        Path path = Files.createTempDirectory("board-file").resolve("board.collab");
+        List<String> operations = new ArrayList<>();
+        for (int i = 1; i <= BoardFile.BLOCK_OBJECTS * 2 + 10; i++) {
+            operations.add("STROKE:2.00,0x000000ff," + i + ".00,1.00," + i + ".00,2.00@a-" + i);
+        }
+        BoardFile.write(BoardFile.copy(board(operations.toArray(new String[0]))), path);
+        try (BoardFile file = BoardFile.open(path)) {
+            assertEquals(3, file.blockCount());
+            assertEquals(operations.size(), file.objectCount());
+        }
+        assertEquals(operations.size(), read(path).size());
+    }
+
+    @Test
+    void failedSaveLeavesNothingBehind() throws IOException {
+        Path directory = Files.createTempDirectory("board-file");
+        // A directory where the file should go cannot be replaced
+        Path path = Files.createDirectory(directory.resolve("board.collab"));
+        Files.writeString(path.resolve("keep"), "x");
+        assertThrows(IOException.class, () -> BoardFile.write(BoardFile.copy(board(
+                "RECTANGLE:1.00,2.00,3.00,4.00,0x112233ff@a-1")), path));
+        assertEquals(List.of(path), files(directory));
+    }
+}
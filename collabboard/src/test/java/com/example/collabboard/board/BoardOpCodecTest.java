@@ -0,0 +1,205 @@
+package com.example.collabboard.board;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardOpCodecTest {
+    private final BoardOpCodec codec = new BoardOpCodec();
+
+    private BoardOp decode(String message) {
+        BoardOp op = new BoardOp();
+        assertTrue(codec.decode(message, op), message);
+        return op;
+    }
+
+    private void assertRoundTrip(String message) {
+        assertEquals(message, codec.encode(decode(message)));
+    }
+
+    @Test
+    void operationsRoundTrip() {
+        assertRoundTrip("DRAW:1.00,2.00,3.00,4.00,0x000000ff@3f2a9c1e-17");
+        assertRoundTrip("RECTANGLE:10.00,20.00,30.00,40.00,0x112233ff@0-1");
+        assertRoundTrip("OVAL:-1.50,-2.25,3.00,4.00,0xffffff80@ffffffff-999999999");
+        assertRoundTrip("ERASE:5.00,6.00,20.00@a-2");
+        assertRoundTrip("ERASE:5.00,6.00,15.00,7.00,8.00,9.50,-1.00@a-2");
+        assertRoundTrip("STROKE:2.00,0x000000ff,1.00,2.00,3.00,4.00@ab-3");
+        assertRoundTrip("STICKY_NOTE:7.00,8.00,hello@ab-4");
+        assertRoundTrip("DELETE:3f2a9c1e-17@5b0d77e2-20");
+        assertRoundTrip("RESTORE:3f2a9c1e-17@5b0d77e2-21");
+        assertRoundTrip("CLEAR:@5b0d77e2-22");
+        assertRoundTrip("CLEAR:");
+    }
+
+    @Test
+    void strokeMessagesNeverTakeASuffix() {
+        BoardOp begin = decode("STROKE_BEGIN:3f2a9c1e-17,2.00,0x000000ff,1.00,2.00");
+        assertEquals("3f2a9c1e-17", begin.strokeId());
+        assertNull(begin.opId());
+        assertEquals(2, begin.coordCount());
+
+        BoardOp points = decode("STROKE_POINTS:3f2a9c1e-17,1.00,2.00,3.00,4.00");
+        assertEquals("3f2a9c1e-17", points.strokeId());
+        assertEquals(4, points.coordCount());
+
+        BoardOp end = decode("STROKE_END:3f2a9c1e-17");
+        assertEquals("3f2a9c1e-17", end.strokeId());
+        assertNull(end.opId());
+
+        end.opId("1-1");
+        assertEquals("STROKE_END:3f2a9c1e-17", codec.encode(end));
+    }
+
+    @Test
+    void opIdSuffixIsSplitOff() {
+        BoardOp op = decode("RECTANGLE:10.00,20.00,30.00,40.00,0x000000ff@3f2a9c1e-17");
+        assertEquals("3f2a9c1e-17", op.opId());
+        assertEquals(0x000000ff, op.rgba());
+        assertEquals(40.0, op.coord(3));
+
+        assertNull(decode("RECTANGLE:10.00,20.00,30.00,40.00,0x000000ff").opId());
+    }
+
+    @Test
+    void stickyNoteTextIsEscaped() {
+        String text = "a, b: c @ d \\ e\nf\rg\th\u0001i\u007fj";
+        BoardOp note = new BoardOp().reset(BoardOp.Kind.STICKY_NOTE).add(1, 2).text(text).opId("ab-1");
+        String encoded = codec.encode(note);
+        assertEquals("STICKY_NOTE:1.00,2.00,a\\, b\\: c \\@ d \\\\ e\\nf\\rg\\th\\u0001i\\u007fj@ab-1", encoded);
+        BoardOp decoded = decode(encoded);
+        assertEquals(text, decoded.text());
+        assertEquals("ab-1", decoded.opId());
+    }
+
+    @Test
+    void escapedAtIsNotASeparator() {
+        BoardOp escaped = decode("STICKY_NOTE:1.00,2.00,mail me\\@ab-1");
+        assertEquals("mail me@ab-1", escaped.text());
+        assertNull(escaped.opId());
+
+        // An escaped backslash before the "@" leaves the "@" a separator
+        BoardOp backslash = decode("STICKY_NOTE:1.00,2.00,dir\\\\@ab-1");
+        assertEquals("dir\\", backslash.text());
+        assertEquals("ab-1", backslash.opId());
+    }
+
+    @Test
+    void unescapedAtFromOlderTextStaysInTheNote() {
+        BoardOp op = decode("STICKY_NOTE:1.00,2.00,me@example.com");
+        assertEquals("me@example.com", op.text());
+        assertNull(op.opId());
+    }
+
+    @Test
+    void textEndingLikeAnOpIdNeedsTheEscape() {
+        BoardOp note = new BoardOp().reset(BoardOp.Kind.STICKY_NOTE).add(0, 0).text("see @ab-1");
+        BoardOp decoded = decode(codec.encode(note));
+        assertEquals("see @ab-1", decoded.text());
+        assertNull(decoded.opId());
+    }
+
+    @Test
+    void badTargetsAreRejected() {
+        BoardOp op = new BoardOp();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DELETE:", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DELETE:12", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DELETE:ABC-1", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("RESTORE:123456789-1", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("RESTORE:a-1234567890", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DELETE:a-", op));
+    }
+
+    @Test
+    void opIdsAreChecked() {
+        assertTrue(BoardOpCodec.isOpId("0-0", 0, 3));
+        assertTrue(BoardOpCodec.isOpId("ffffffff-999999999", 0, 18));
+        assertFalse(BoardOpCodec.isOpId("", 0, 0));
+        assertFalse(BoardOpCodec.isOpId("-1", 0, 2));
+        assertFalse(BoardOpCodec.isOpId("g-1", 0, 3));
+        assertFalse(BoardOpCodec.isOpId("1fffffffff-1", 0, 12));
+    }
+
+    @Test
+    void malformedOperationsAreRejected() {
+        BoardOp op = new BoardOp();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DRAW:1.00,2.00,3.00", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DRAW:1.00,x,3.00,4.00,0x000000ff", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("ERASE:1.00,2.00,", op));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("DRAW:1.00,2.00,3.00,4.00,0x0000zzff", op));
+    }
+
+    @Test
+    void otherMessagesAreNotOperations() {
+        BoardOp op = new BoardOp();
+        assertFalse(codec.decode("CHAT:DRAW:1.00", op));
+        assertFalse(codec.decode("DRAW", op));
+        assertFalse(codec.decode("", op));
+        assertEquals(BoardOp.Kind.ERASE, BoardOpCodec.kindOf("xxERASE:1", 2, 10));
+    }
+
+    @Test
+    void decodesARangeOfASnapshot() {
+        String snapshot = "CLEAR:@a-1\u001eERASE:1.00,2.00,3.00@a-2\u001eCLEAR:";
+        BoardOp op = new BoardOp();
+        int start = snapshot.indexOf('\u001e') + 1;
+        int end = snapshot.indexOf('\u001e', start);
+        assertTrue(codec.decode(snapshot, start, end, op));
+        assertEquals(BoardOp.Kind.ERASE, op.kind());
+        assertEquals("a-2", op.opId());
+        assertEquals(3.0, op.width());
+    }
+
+    @Test
+    void negativeAndHugeNumbers() {
+        assertRoundTrip("ERASE:-0.01,-123456789.99,0.00");
+        assertRoundTrip("DRAW:987654321012.34,-987654321012.34,0.00,0.00,0x000000ff");
+        assertEquals(-1.5, BoardOpCodec.parseNumber("-1.5", 0, 4));
+        assertEquals(1.5, BoardOpCodec.parseNumber("+1.5", 0, 4));
+        assertEquals(1e300, BoardOpCodec.parseNumber("1e300", 0, 5));
+        assertEquals(12345678901234567890.0, BoardOpCodec.parseNumber("12345678901234567890", 0, 20));
+        assertEquals(0.1, BoardOpCodec.parseNumber("0.1", 0, 3));
+        assertThrows(NumberFormatException.class, () -> BoardOpCodec.parseNumber("-", 0, 1));
+
+        StringBuilder out = new StringBuilder();
+        BoardOpCodec.appendNumber(out, -0.001);
+        assertEquals("0.00", out.toString());
+    }
+
+    @Test
+    void numbersMatchFormat() {
+        double[] values = {0, 0.005, 0.015, 1.005, -2.675, 99.995, 1234.5678, -0.004, 1e9 + 0.125};
+        for (double value : values) {
+            assertFormatted(value);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            assertFormatted((random.nextInt(2_000_000) - 1_000_000) / 1000.0);
+            assertFormatted((random.nextDouble() - 0.5) * 4000);
+        }
+    }
+
+    private static void assertFormatted(double value) {
+        StringBuilder out = new StringBuilder();
+        BoardOpCodec.appendNumber(out, value);
+        String expected = String.format(Locale.ROOT, "%.2f", value);
+        // A negative number that rounds to zero is written without its sign
+        assertEquals(expected.equals("-0.00") ? "0.00" : expected, out.toString(), Double.toString(value));
+    }
+
+    @Test
+    void colorsParse() {
+        assertEquals(0x11223344, BoardOpCodec.parseColor("0x11223344", 0, 10));
+        assertEquals(0xabcdef01, BoardOpCodec.parseColor("0xABCDEF01", 0, 10));
+        StringBuilder out = new StringBuilder();
+        BoardOpCodec.appendColor(out, 0x0a0b0c0d);
+        assertEquals("0x0a0b0c0d", out.toString());
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.collabboard.board;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalHistoryTest {
+
+    /**
+     * One participant: its own copy of the board, its history and the operations it sent.
+     */
+    private static final class Participant {
+        final String id;
+        final BoardDocument document = new BoardDocument();
+        final LocalHistory history = new LocalHistory();
+        final BoardOpCodec codec = new BoardOpCodec();
+        final List<String> sent = new ArrayList<>();
+
+        Participant(String id) {
+            this.id = id;
+        }
+
+        String nextOpId() {
+            return id + "-" + (document.clock() + 1);
+        }
+
+        String draw() {
+            String opId = nextOpId();
+            send(new BoardOp().reset(BoardOp.Kind.RECTANGLE).add(0, 0).add(1, 1).rgba(0xff).opId(opId));
+            history.drawn(BoardDocument.key(opId));
+            return opId;
+        }
+
+        void delete(String target) {
+            send(new BoardOp().reset(BoardOp.Kind.DELETE).target(target).opId(nextOpId()));
+            history.deleted(BoardDocument.key(target));
+        }
+
+        void clear() {
+            String opId = nextOpId();
+            send(new BoardOp().reset(BoardOp.Kind.CLEAR).opId(opId));
+            history.cleared(BoardDocument.key(opId));
+        }
+
+        boolean undo() {
+            BoardOp op = history.undo(new BoardOp());
+            if (op != null) {
+                send(op.opId(nextOpId()));
+            }
+            return op != null;
+        }
+
+        boolean redo() {
+            BoardOp op = history.redo(new BoardOp());
+            if (op != null) {
+                send(op.opId(nextOpId()));
+            }
+            return op != null;
+        }
+
+        private void send(BoardOp op) {
+            document.apply(op);
+            sent.add(codec.encode(op));
+        }
+
+        void receive(Participant from) {
+            BoardOp op = new BoardOp();
+            for (String operation : from.sent) {
+                codec.decode(operation, op);
+                document.apply(op);
+            }
+        }
+
+        boolean isShown(String opId) {
+            int index = document.indexOf(BoardDocument.key(opId));
+            return index >= 0 && !document.isHidden(index);
+        }
+    }
+
+    private static void exchange(Participant a, Participant b) {
+        a.receive(b);
+        b.receive(a);
+    }
+
+    @Test
+    void undoTakesBackOnlyOwnActions() {
+        Participant alice = new Participant("a");
+        Participant bob = new Participant("b");
+        String aliceDrew = alice.draw();
+        exchange(alice, bob);
+        String bobDrew = bob.draw();
+        exchange(alice, bob);
+
+        assertTrue(alice.undo());
+        assertFalse(alice.undo());
+        exchange(alice, bob);
+        for (Participant participant : List.of(alice, bob)) {
+            assertFalse(participant.isShown(aliceDrew));
+            assertTrue(participant.isShown(bobDrew));
+        }
+
+        assertTrue(alice.redo());
+        exchange(alice, bob);
+        assertTrue(bob.isShown(aliceDrew));
+    }
+
+    @Test
+    void undoingADeleteOfSomeoneElsesObjectRestoresIt() {
+        Participant alice = new Participant("a");
+        Participant bob = new Participant("b");
+        String bobDrew = bob.draw();
+        exchange(alice, bob);
+        alice.delete(bobDrew);
+        exchange(alice, bob);
+        assertFalse(bob.isShown(bobDrew));
+
+        assertTrue(alice.undo());
+        exchange(alice, bob);
+        assertTrue(alice.isShown(bobDrew));
+        assertTrue(bob.isShown(bobDrew));
+
+        // Bob has nothing of Alice's to undo, only his own drawing
+        assertTrue(bob.undo());
+        assertFalse(bob.undo());
+        exchange(alice, bob);
+        assertFalse(alice.isShown(bobDrew));
+    }
+
+    @Test
+    void concurrentUndoAndRedoConverge() {
+        Participant alice = new Participant("a");
+        Participant bob = new Participant("b");
+        String aliceDrew = alice.draw();
+        exchange(alice, bob);
+        // Bob deletes Alice's drawing while Alice undoes it and redoes it, without seeing each other
+        bob.delete(aliceDrew);
+        alice.undo();
+        alice.redo();
+        exchange(alice, bob);
+        assertEquals(alice.isShown(aliceDrew), bob.isShown(aliceDrew));
+        // Alice's redo carries the highest clock, 3 against Bob's 2
+        assertTrue(bob.isShown(aliceDrew));
+    }
+
+    @Test
+    void newActionForgetsRedo() {
+        Participant alice = new Participant("a");
+        alice.draw();
+        alice.undo();
+        assertTrue(alice.history.canRedo());
+        alice.draw();
+        assertFalse(alice.history.canRedo());
+        assertNull(alice.history.redo(new BoardOp()));
+    }
+
+    @Test
+    void clearForgetsTheObjectsItRemoved() {
+        Participant alice = new Participant("a");
+        alice.draw();
+        alice.draw();
+        alice.undo();
+        alice.clear();
+        assertFalse(alice.history.canUndo());
+        assertFalse(alice.history.canRedo());
+
+        String after = alice.draw();
+        assertTrue(alice.undo());
+        assertFalse(alice.isShown(after));
+    }
+
+    @Test
+    void historyGrowsPastItsInitialCapacity() {
+        Participant alice = new Participant("a");
+        List<String> drawn = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            drawn.add(alice.draw());
+        }
+        for (int i = 0; i < 200; i++) {
+            assertTrue(alice.undo());
+        }
+        assertFalse(alice.undo());
+        for (String opId : drawn) {
+            assertFalse(alice.isShown(opId));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertTrue(alice.redo());
+        }
+        assertTrue(alice.isShown(drawn.get(0)));
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.collabboard.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCodecTest {
+
+    private static Message read(byte[] bytes) throws IOException {
+        return new FrameReader(new ByteArrayInputStream(bytes)).next();
+    }
+
+    private static void assertTypedRoundTrip(String text) throws IOException {
+        byte[] frame = BinaryCodec.encode(text);
+        assertTrue(frame[0] != BinaryCodec.OP_TEXT, "typed frame for " + text);
+        assertEquals(text, read(frame).text());
+    }
+
+    private static void assertTextRoundTrip(String text) throws IOException {
+        byte[] frame = BinaryCodec.encode(text);
+        assertEquals(BinaryCodec.OP_TEXT, frame[0], "text frame for " + text);
+        assertEquals(text, read(frame).text());
+    }
+
+    @Test
+    void typedFramesRoundTrip() throws IOException {
+        assertTypedRoundTrip("DRAW:1.00,2.50,-3.25,400.00,0x112233ff");
+        assertTypedRoundTrip("ERASE:10.00,20.00,5.00");
+        assertTypedRoundTrip("RECTANGLE:0.00,0.00,1920.00,1080.00,0x00000000");
+        assertTypedRoundTrip("OVAL:-12.34,56.78,9.10,11.12,0xffffffff");
+        assertTypedRoundTrip("STROKE_POINTS:3f2a9c1e-17,1.00,2.00,3.00,4.00");
+    }
+
+    @Test
+    void opIdSurvivesTypedFrames() throws IOException {
+        assertTypedRoundTrip("DRAW:1.00,2.00,3.00,4.00,0x000000ff@3f2a9c1e-17");
+        assertTypedRoundTrip("ERASE:1.00,2.00,3.00@0-1");
+        assertTypedRoundTrip("OVAL:1.00,2.00,3.00,4.00,0xabcdef01@ffffffff-123456789");
+    }
+
+    @Test
+    void negativeZeroKeepsItsSign() throws IOException {
+        assertTypedRoundTrip("ERASE:-0.00,0.00,-0.00");
+    }
+
+    @Test
+    void largestExactCoordinatesStayTyped() throws IOException {
+        assertTypedRoundTrip("DRAW:100000.00,-100000.00,99999.99,-99999.99,0x000000ff");
+    }
+
+    @Test
+    void hugeCoordinatesFallBackToText() throws IOException {
+        assertTextRoundTrip("DRAW:100000.01,0.00,0.00,0.00,0x000000ff");
+        assertTextRoundTrip("ERASE:123456789.00,-987654321.00,1.00");
+    }
+
+    @Test
+    void everyHundredthInRangeRoundTrips() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            long cents = random.nextLong(-10_000_000L, 10_000_001L);
+            String number = (cents < 0 ? "-" : "") + Math.abs(cents) / 100 + "." + String.format("%02d", Math.abs(cents) % 100);
+            assertTypedRoundTrip("ERASE:" + number + ",0.00,1.00");
+        }
+    }
+
+    @Test
+    void nonCanonicalTextIsSentAsText() throws IOException {
+        assertTextRoundTrip("DRAW:1.5,2.00,3.00,4.00,0x000000ff");
+        assertTextRoundTrip("DRAW:01.00,2.00,3.00,4.00,0x000000ff");
+        assertTextRoundTrip("DRAW:1.00,2.00,3.00,4.00,0xFF0000FF");
+        assertTextRoundTrip("DRAW:1.00,2.00,3.00,4.00,RED");
+        assertTextRoundTrip("DRAW:1.00,2.00,3.00,4.00,0x000000ff@");
+        assertTextRoundTrip("DRAW:1.00,2.00,3.00,0x000000ff");
+        assertTextRoundTrip("ERASE:1.00,2.00,3.00@é-1");
+        assertTextRoundTrip("ERASE:1.00,2.00,15.00,3.00,4.00@a-1");
+        assertTextRoundTrip("CHAT:alice: a, b @ c é中");
+    }
+
+    @Test
+    void sequenceWrapsAndUnwraps() throws IOException {
+        for (long sequence : new long[]{1, 127, 128, 16_384, Integer.MAX_VALUE + 1L, Long.MAX_VALUE}) {
+            for (String text : new String[]{"CHAT:hi", "DRAW:1.00,2.00,3.00,4.00,0x000000ff@1-2"}) {
+                Message message = read(new Message(text).sequenced(sequence).encode(true, true));
+                assertEquals(text, message.text());
+                assertEquals(sequence, message.sequence());
+            }
+        }
+    }
+
+    @Test
+    void sequencedTextLines() {
+        Message message = Message.parseLine("SEQ:12:CHAT:hi");
+        assertEquals("CHAT:hi", message.text());
+        assertEquals(12, message.sequence());
+
+        Message notSequenced = Message.parseLine("SEQ:x:CHAT:hi");
+        assertEquals("SEQ:x:CHAT:hi", notSequenced.text());
+        assertEquals(0, notSequenced.sequence());
+    }
+
+    @Test
+    void textLinesAndFramesMixOnOneStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new Message("CHAT:one").line());
+        out.write(BinaryCodec.encode("ERASE:1.00,2.00,3.00"));
+        out.write(new Message("CHAT:two").sequenced(5).encode(false, true));
+        FrameReader reader = new FrameReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("CHAT:one", reader.next().text());
+        assertEquals("ERASE:1.00,2.00,3.00", reader.next().text());
+        Message last = reader.next();
+        assertEquals("CHAT:two", last.text());
+        assertEquals(5, last.sequence());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void truncatedFramesAreRejected() {
+        byte[] frame = BinaryCodec.encode("DRAW:1.00,2.00,3.00,4.00,0x000000ff@1-2");
+        for (int length = 1; length < frame.length; length++) {
+            byte[] truncated = Arrays.copyOf(frame, length);
+            assertThrows(EOFException.class, () -> read(truncated));
+        }
+    }
+
+    @Test
+    void shortPayloadsAreRejected() {
+        byte[] payload = new byte[7];
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(BinaryCodec.OP_DRAW, payload, 0, 7));
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.decode(0x7F, payload, 0, 7));
+        // Stroke id longer than the payload
+        byte[] points = {5, 'a', 'b'};
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decode(BinaryCodec.OP_STROKE_POINTS, points, 0, points.length));
+        // Coordinates that are not whole float32s
+        byte[] partial = {1, 'a', 0, 0, 0};
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.decode(BinaryCodec.OP_STROKE_POINTS, partial, 0, partial.length));
+    }
+
+    @Test
+    void malformedSequenceFramesAreRejected() {
+        byte[] inner = BinaryCodec.encode("CHAT:hi");
+        byte[] wrapped = BinaryCodec.wrapSequence(9, inner);
+        int header = 1 + BinaryCodec.varintSize(wrapped.length - 2);
+        // Inner frame cut short
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.unwrapSequence(wrapped, header, wrapped.length - header - 1));
+        // A sequence frame inside a sequence frame
+        byte[] nested = BinaryCodec.wrapSequence(1, wrapped);
+        int nestedHeader = 1 + BinaryCodec.varintSize(nested.length - 2);
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryCodec.unwrapSequence(nested, nestedHeader, nested.length - nestedHeader));
+        // Sequence number running off the end
+        byte[] endless = {(byte) 0x80, (byte) 0x80};
+        assertThrows(IllegalArgumentException.class, () -> BinaryCodec.unwrapSequence(endless, 0, endless.length));
+    }
+
+    @Test
+    void oversizedFrameLengthIsRejected() {
+        byte[] frame = {BinaryCodec.OP_TEXT, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        assertThrows(IOException.class, () -> read(frame));
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.collabboard.network;
+
+import com.example.collabboard.board.BoardDocument;
+import com.example.collabboard.board.BoardOp;
+import com.example.collabboard.board.BoardOpCodec;
+import com.example.collabboard.board.BoardSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OperationLogTest {
+
+    /**
+     * @return The operations of a BOARD_SYNC or BOARD_SYNC_TAIL message, inflated.
+     */
+    private static List<String> operations(Message message) {
+        String text = message.text();
+        int countEnd = text.indexOf(':', text.indexOf(':') + 1);
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        try {
+            inflater.setInput(Base64.getDecoder().decode(text.substring(countEnd + 1)));
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                inflated.write(buffer, 0, inflater.inflate(buffer));
+            }
+        } catch (DataFormatException e) {
+            throw new AssertionError(e);
+        } finally {
+            inflater.end();
+        }
+        String body = inflated.toString(StandardCharsets.UTF_8);
+        List<String> operations = new ArrayList<>();
+        if (!body.isEmpty()) {
+            Collections.addAll(operations, body.split(String.valueOf(OperationLog.OPERATION_SEPARATOR)));
+        }
+        assertEquals(Integer.parseInt(text.substring(text.indexOf(':') + 1, countEnd)), operations.size());
+        return operations;
+    }
+
+    private static void append(OperationLog log, String... operations) {
+        for (String operation : operations) {
+            log.append(new Message(operation));
+        }
+    }
+
+    /**
+     * Applies what a newcomer receives to an empty board, decoded as the whiteboard does, and lists the result,
+     * hidden objects marked.
+     */
+    private static List<String> board(OperationLog log) {
+        BoardOpCodec codec = new BoardOpCodec();
+        BoardDocument document = new BoardDocument();
+        BoardOp op = new BoardOp();
+        List<Message> messages = log.syncMessages();
+        for (BoardOp decoded : BoardSnapshot.decode(messages.get(0).text(), BoardSnapshot.SYNC_PREFIX, codec)) {
+            document.apply(decoded);
+        }
+        for (BoardOp decoded : BoardSnapshot.decode(messages.get(1).text(), BoardSnapshot.SYNC_TAIL_PREFIX, codec)) {
+            document.apply(decoded);
+        }
+        List<String> board = new ArrayList<>();
+        for (int i = 0; i < document.size(); i++) {
+            board.add((document.isHidden(i) ? "hidden " : "") + codec.encode(document.read(i, op)));
+        }
+        return board;
+    }
+
+    @Test
+    void compactionKeepsEachObjectOnce() {
+        OperationLog log = new OperationLog(4);
+        append(log, "RECTANGLE:1.00,2.00,3.00,4.00,0x000000ff@a-1", "RECTANGLE:1.00,2.00,3.00,4.00,0x000000ff@a-1",
+                "OVAL:1.00,2.00,3.00,4.00,0x000000ff@b-1", "RECTANGLE:1.00,2.00,3.00,4.00,0x000000ff@a-1");
+        List<Message> messages = log.syncMessages();
+        assertEquals("BOARD_SYNC:2:", messages.get(0).text().substring(0, 13));
+        assertEquals(Lane.BULK, messages.get(0).lane());
+        assertEquals(Lane.BULK, messages.get(1).lane());
+        assertEquals(List.of("RECTANGLE:1.00,2.00,3.00,4.00,0x000000ff@a-1", "OVAL:1.00,2.00,3.00,4.00,0x000000ff@b-1"),
+                operations(messages.get(0)));
+        assertEquals(List.of(), operations(messages.get(1)));
+    }
+
+    @Test
+    void operationsAfterTheSnapshotGoInTheTail() {
+        OperationLog log = new OperationLog(2);
+        append(log, "ERASE:1.00,2.00,3.00@a-1", "ERASE:1.00,2.00,3.00@a-2", "ERASE:1.00,2.00,3.00@a-3");
+        List<Message> messages = log.syncMessages();
+        assertEquals(List.of("ERASE:1.00,2.00,3.00@a-1", "ERASE:1.00,2.00,3.00@a-2"), operations(messages.get(0)));
+        assertEquals(List.of("ERASE:1.00,2.00,3.00@a-3"), operations(messages.get(1)));
+        assertEquals(2, messages.size());
+    }
+
+    @Test
+    void latestDeleteOrRestoreWins() {
+        OperationLog log = new OperationLog(1);
+        append(log, "ERASE:1.00,2.00,3.00@a-1", "DELETE:a-1@a-5", "RESTORE:a-1@b-3", "RESTORE:a-1@a-4");
+        assertEquals(List.of("ERASE:1.00,2.00,3.00@a-1", "DELETE:a-1@a-5"), operations(log.syncMessages().get(0)));
+
+        append(log, "RESTORE:a-1@b-6");
+        assertEquals(List.of("ERASE:1.00,2.00,3.00@a-1", "RESTORE:a-1@b-6"), operations(log.syncMessages().get(0)));
+    }
+
+    @Test
+    void clearRemovesEarlierObjects() {
+        OperationLog log = new OperationLog(1);
+        append(log, "ERASE:1.00,2.00,3.00@a-1", "ERASE:1.00,2.00,3.00@b-2", "DELETE:a-1@b-3", "CLEAR:@a-4",
+                "ERASE:1.00,2.00,3.00@a-5",
+                // Concurrent with the CLEAR, or older, but arriving after it
+                "ERASE:1.00,2.00,3.00@c-3", "DELETE:b-2@c-4", "CLEAR:@c-2");
+        assertEquals(List.of("CLEAR:@a-4", "ERASE:1.00,2.00,3.00@a-5"), operations(log.syncMessages().get(0)));
+    }
+
+    @Test
+    void operationsWithoutOpIdAreDropped() {
+        OperationLog log = new OperationLog(1);
+        append(log, "ERASE:1.00,2.00,3.00", "STICKY_NOTE:1.00,2.00,me@example.com", "CLEAR:", "CHAT:hi");
+        assertEquals(List.of(), operations(log.syncMessages().get(0)));
+    }
+
+    @Test
+    void strokeMessagesFoldIntoOneStroke() {
+        OperationLog log = new OperationLog(100);
+        append(log, "STROKE_BEGIN:a-7,2.00,0x000000ff,1.00,2.00", "STROKE_POINTS:a-7,3.00,4.00");
+        List<Message> open = log.syncMessages();
+        assertEquals(List.of("STROKE_BEGIN:a-7,2.00,0x000000ff,1.00,2.00", "STROKE_POINTS:a-7,3.00,4.00"),
+                List.of(open.get(2).text(), open.get(3).text()));
+
+        append(log, "STROKE_POINTS:a-7,5.00,6.00", "STROKE_POINTS:b-1,9.00,9.00", "STROKE_END:a-7");
+        List<Message> messages = log.syncMessages();
+        assertEquals(List.of("STROKE:2.00,0x000000ff,1.00,2.00,3.00,4.00,5.00,6.00@a-7"), operations(messages.get(1)));
+        assertEquals(2, messages.size());
+    }
+
+    @Test
+    void loadedBoardIsUnpacked() {
+        BoardSnapshot snapshot = new BoardSnapshot();
+        snapshot.add("ERASE:1.00,2.00,3.00@a-1");
+        snapshot.add("STICKY_NOTE:1.00,2.00,x\\,y@a-2");
+        OperationLog log = new OperationLog(100);
+        log.append(new Message(snapshot.toMessage()));
+        assertEquals(List.of("ERASE:1.00,2.00,3.00@a-1", "STICKY_NOTE:1.00,2.00,x\\,y@a-2"),
+                operations(log.syncMessages().get(1)));
+
+        log.append(new Message(OperationLog.SNAPSHOT_PREFIX + "2:not base64!"));
+        assertEquals(2, operations(log.syncMessages().get(1)).size());
+    }
+
+    @Test
+    void largeBoardIsSplitAndCompressed() {
+        OperationLog log = new OperationLog(Integer.MAX_VALUE);
+        List<String> expected = new ArrayList<>();
+        StringBuilder stroke = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            stroke.append(',').append(i).append(".00,").append(i % 37).append(".00");
+        }
+        for (int clock = 1; clock <= 3000; clock++) {
+            String operation = "STROKE:2.00,0x000000ff" + stroke + "@a-" + clock;
+            expected.add(operation);
+            log.append(new Message(operation));
+        }
+        List<Message> messages = log.syncMessages();
+        // About 18 MB of operations: an empty snapshot, then the tail in three messages
+        assertEquals(4, messages.size());
+        List<String> received = new ArrayList<>();
+        long sent = 0;
+        for (Message message : messages.subList(1, 4)) {
+            assertTrue(message.text().startsWith("BOARD_SYNC_TAIL:"));
+            received.addAll(operations(message));
+            sent += message.text().length();
+        }
+        assertEquals(expected, received);
+        assertTrue(sent < 2 * 1024 * 1024, "sent " + sent);
+    }
+
+    @Test
+    void snapshotIsEncodedOnce() {
+        OperationLog log = new OperationLog(1);
+        append(log, "ERASE:1.00,2.00,3.00@a-1");
+        assertSame(log.syncMessages().get(0), log.syncMessages().get(0));
+    }
+
+    @Test
+    void compactionDoesNotChangeTheBoard() {
+        Random random = new Random(3);
+        List<String> operations = new ArrayList<>();
+        for (int clock = 1; clock <= 300; clock++) {
+            String opId = Integer.toHexString(random.nextInt(4)) + "-" + clock;
+            int choice = random.nextInt(20);
+            if (choice == 0) {
+                operations.add("CLEAR:@" + opId);
+            } else if (choice < 5 && clock > 1) {
+                String target = Integer.toHexString(random.nextInt(4)) + "-" + (1 + random.nextInt(clock - 1));
+                operations.add((random.nextBoolean() ? "DELETE:" : "RESTORE:") + target + "@" + opId);
+            } else {
+                operations.add("ERASE:" + clock + ".00," + choice + ".00,4.00@" + opId);
+            }
+        }
+        // Delivered out of order, some twice
+        List<String> delivered = new ArrayList<>(operations);
+        for (int i = 0; i < 60; i++) {
+            delivered.add(operations.get(random.nextInt(operations.size())));
+        }
+        Collections.shuffle(delivered, random);
+
+        OperationLog uncompacted = new OperationLog(Integer.MAX_VALUE);
+        OperationLog compacted = new OperationLog(7);
+        for (String operation : delivered) {
+            uncompacted.append(new Message(operation));
+            compacted.append(new Message(operation));
+        }
+        List<String> expected = board(uncompacted);
+        assertEquals(expected, board(compacted));
+        assertEquals(expected, board(everyOperationOnce(operations)));
+    }
+
+    private static OperationLog everyOperationOnce(List<String> operations) {
+        OperationLog log = new OperationLog(1);
+        for (String operation : operations) {
+            log.append(new Message(operation));
+        }
+        return log;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.collabboard.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReplayBufferTest {
+
+    private static long[] allLanes(long last) {
+        long[] lastSequence = new long[Lane.values().length];
+        Arrays.fill(lastSequence, last);
+        return lastSequence;
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::text).toList();
+    }
+
+    @Test
+    void replaysWhatWasMissed() {
+        ReplayBuffer buffer = new ReplayBuffer(16);
+        long first = buffer.record(new Message("CHAT:one"), "alice").sequence();
+        buffer.record(new Message("CHAT:two"), "bob");
+        buffer.record(new Message("ERASE:1.00,2.00,3.00@a-1"), null);
+        assertEquals(List.of("CHAT:two", "ERASE:1.00,2.00,3.00@a-1"), texts(buffer.since(allLanes(first), "carol")));
+        // Own messages are not sent back
+        assertEquals(List.of("ERASE:1.00,2.00,3.00@a-1"), texts(buffer.since(allLanes(first), "bob")));
+    }
+
+    @Test
+    void screenFramesAreNumberedButNotKept() {
+        ReplayBuffer buffer = new ReplayBuffer(16);
+        long first = buffer.record(new Message("CHAT:one"), null).sequence();
+        Message frame = buffer.record(new Message("SCREEN_SHARE:alice:payload"), "alice");
+        assertEquals(first + 1, frame.sequence());
+        buffer.record(new Message("CHAT:two"), null);
+        assertEquals(List.of("CHAT:two"), texts(buffer.since(allLanes(first), "carol")));
+    }
+
+    @Test
+    void missedBoardSnapshotNeedsAResync() {
+        ReplayBuffer buffer = new ReplayBuffer(16);
+        long first = buffer.record(new Message("CHAT:one"), null).sequence();
+        long snapshot = buffer.record(new Message(OperationLog.SNAPSHOT_PREFIX + "1:abc"), "alice").sequence();
+        buffer.record(new Message("CHAT:two"), null);
+        assertNull(buffer.since(allLanes(first), "carol"));
+        // Alice sent it, and a participant that got it has nothing to catch up on
+        assertEquals(List.of("CHAT:two"), texts(buffer.since(allLanes(first), "alice")));
+        long[] gotSnapshot = allLanes(first);
+        gotSnapshot[Lane.BULK.ordinal()] = snapshot;
+        assertEquals(List.of("CHAT:two"), texts(buffer.since(gotSnapshot, "carol")));
+    }
+
+    @Test
+    void overwrittenMessagesNeedAResync() {
+        ReplayBuffer buffer = new ReplayBuffer(4);
+        long first = buffer.record(new Message("CHAT:0"), null).sequence();
+        for (int i = 1; i < 6; i++) {
+            buffer.record(new Message("CHAT:" + i), null);
+        }
+        assertNull(buffer.since(allLanes(first), "carol"));
+        assertEquals(List.of("CHAT:3", "CHAT:4", "CHAT:5"), texts(buffer.since(allLanes(first + 2), "carol")));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.collabboard.screen;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileDiffEncoderTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int TILE_SIZE = 16;
+
+    private static int[] noise(Random random) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            // Runs of a colour, so the tiles compress somewhat
+            pixels[i] = i % 7 == 0 ? random.nextInt(0x1000000) : i > 0 ? pixels[i - 1] : 0;
+        }
+        return pixels;
+    }
+
+    private static void scribble(int[] pixels, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            pixels[random.nextInt(pixels.length)] = random.nextInt(0x1000000);
+        }
+    }
+
+    /**
+     * @return The pixel bytes of a lossless payload, inflated as one zlib stream with its checksum checked.
+     */
+    private static byte[] inflate(String payload) throws DataFormatException {
+        ByteBuffer frame = ByteBuffer.wrap(Base64.getDecoder().decode(payload.substring(TileDiffEncoder.PREFIX.length())));
+        frame.position(TileDiffEncoder.HEADER_SIZE - 4);
+        int tiles = frame.getInt();
+        frame.position(frame.position() + tiles * 4);
+        Inflater inflater = new Inflater();
+        inflater.setInput(frame);
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!inflater.finished()) {
+            int n = inflater.inflate(buffer);
+            assertTrue(n > 0 || !inflater.needsInput(), "Truncated stream");
+            inflated.write(buffer, 0, n);
+        }
+        inflater.end();
+        return inflated.toByteArray();
+    }
+
+    @Test
+    void splitCompressionMatchesTheSingleStream() throws DataFormatException {
+        Random random = new Random(7);
+        int[] pixels = noise(random);
+        TileDiffEncoder single = new TileDiffEncoder(TILE_SIZE, 60_000);
+        TileDiffEncoder split = new TileDiffEncoder(TILE_SIZE, 60_000, 0, 3);
+        TileDiffDecoder decoder = new TileDiffDecoder();
+        try {
+            for (int frame = 0; frame < 5; frame++) {
+                String expected = single.encode(pixels, WIDTH, HEIGHT);
+                String actual = split.encode(pixels, WIDTH, HEIGHT);
+                assertArrayEquals(inflate(expected), inflate(actual));
+                decoder.apply(actual);
+                for (int i = 0; i < pixels.length; i++) {
+                    assertEquals(0xFF000000 | pixels[i], decoder.pixels()[i]);
+                }
+                // Enough change for several parts, then some frames with too little for more than one
+                scribble(pixels, random, frame == 0 ? 2000 : 20);
+            }
+            split.encode(pixels, WIDTH, HEIGHT);
+            assertNull(split.encode(pixels, WIDTH, HEIGHT), "A repeat is not sent");
+        } finally {
+            single.close();
+            split.close();
+            decoder.close();
+        }
+    }
+
+    @Test
+    void combinedChecksumMatchesTheWholeRun() {
+        Random random = new Random(3);
+        byte[] bytes = new byte[100_000];
+        random.nextBytes(bytes);
+        Adler32 whole = new Adler32();
+        whole.update(bytes);
+        for (int split : new int[] {0, 1, 65_521, 70_000, bytes.length}) {
+            Adler32 first = new Adler32();
+            first.update(bytes, 0, split);
+            Adler32 second = new Adler32();
+            second.update(bytes, split, bytes.length - split);
+            assertEquals(whole.getValue(),
+                    TileDiffEncoder.adler32Combine(first.getValue(), second.getValue(), bytes.length - split));
+        }
+    }
+}